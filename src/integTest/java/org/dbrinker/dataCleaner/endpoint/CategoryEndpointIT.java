@@ -1,5 +1,6 @@
 package org.dbrinker.dataCleaner.endpoint;
 
+import com.google.common.io.ByteStreams;
 import com.jayway.restassured.RestAssured;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.utils.URIBuilder;
@@ -14,12 +15,23 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.ws.rs.core.MediaType;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import static com.jayway.restassured.RestAssured.given;
 import static com.jayway.restassured.RestAssured.when;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isEmptyString;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
 
 /**
  * REST-based integration test of the category endpoint
@@ -54,6 +66,87 @@ public class CategoryEndpointIT  {
 
     }
 
+    @Test
+    public void canGetCategoriesCompressed() {
+        given().
+            header("Accept-Encoding", "gzip").
+        when().
+            get("/category").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            header("Content-Encoding", "gzip").
+            header("Vary", "Accept-Encoding").
+            body("$", hasItem("PERSON"));
+
+    }
+
+    @Test
+    public void canGetCategoriesUncompressed() throws Exception {
+        // REST Assured always asks for compression, so ask without it
+        HttpURLConnection connection = (HttpURLConnection)
+            new URL("http", "localhost", port, "/category").openConnection();
+        try (InputStream body = connection.getInputStream()) {
+            assertThat(connection.getResponseCode(), is(HttpStatus.SC_OK));
+            assertThat(connection.getContentEncoding(), nullValue());
+            assertThat(new String(ByteStreams.toByteArray(body),
+                                  StandardCharsets.UTF_8),
+                       containsString("\"PERSON\""));
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void unchangedCategoriesAreNotModified() {
+        String etag = when().
+                          get("/category").
+                      then().
+                          statusCode(HttpStatus.SC_OK).
+                          header("ETag", notNullValue()).
+                      extract().
+                          header("ETag");
+
+        given().
+            header("If-None-Match", etag).
+        when().
+            get("/category").
+        then().
+            statusCode(HttpStatus.SC_NOT_MODIFIED).
+            header("ETag", etag).
+            body(isEmptyString());
+    }
+
+    @Test
+    @DirtiesContext
+    public void changedCategoriesAreModified() {
+        String etag = when().
+                          get("/category").
+                      then().
+                          statusCode(HttpStatus.SC_OK).
+                      extract().
+                          header("ETag");
+
+        given().
+            body("MUPPET").
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/category").
+        then().
+            statusCode(HttpStatus.SC_CREATED);
+
+        String newEtag = given().
+                             header("If-None-Match", etag).
+                         when().
+                             get("/category").
+                         then().
+                             statusCode(HttpStatus.SC_OK).
+                             body("$", hasItem("MUPPET")).
+                         extract().
+                             header("ETag");
+        assertThat(newEtag, not(etag));
+    }
+
     // For what it's worth, Spring will use the same server between tests UNLESS
     // we annotate a method with DirtiesContext.  In that case, it'll restart
     // the server following the marked method.  This way, we can make sure that
@@ -115,4 +208,84 @@ public class CategoryEndpointIT  {
 
     }
 
+    @Test
+    @DirtiesContext
+    public void canAddCategoriesInBulk() {
+        given().
+            body("[\"MUPPET\", \"PLACE\", \"FRAGGLE\"]").
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/category/bulk").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            contentType(MediaType.APPLICATION_JSON).
+            body("numChanged", equalTo(2));
+
+        when().
+            get("/category").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body("$", containsInAnyOrder("PERSON",
+                                         "PLACE",
+                                         "ANIMAL",
+                                         "COMPUTER",
+                                         "OTHER",
+                                         "MUPPET",
+                                         "FRAGGLE"));
+    }
+
+    @Test
+    @DirtiesContext
+    public void canDeleteCategoriesInBulkFromFile() {
+        given().
+            body("PLACE\nANIMAL\n\nMUPPET\n").
+            contentType(MediaType.TEXT_PLAIN).
+        when().
+            post("/category/bulk/delete").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body("numChanged", equalTo(2));
+
+        when().
+            get("/category").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body("$", containsInAnyOrder("PERSON", "COMPUTER", "OTHER"));
+    }
+
+    @Test
+    @DirtiesContext
+    public void canReplaceCategories() {
+        // REST Assured doesn't know how to encode NDJSON, so hand it bytes
+        given().
+            body("\"MUPPET\"\n\"FRAGGLE\"\n".getBytes(StandardCharsets.UTF_8)).
+            contentType("application/x-ndjson").
+        when().
+            put("/category").
+        then().
+            statusCode(HttpStatus.SC_NO_CONTENT);
+
+        when().
+            get("/category").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body("$", containsInAnyOrder("MUPPET", "FRAGGLE"));
+    }
+
+    @Test
+    public void badBulkChangeIsRejected() {
+        given().
+            body("[\"MUPPET\", null]").
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/category/bulk").
+        then().
+            statusCode(HttpStatus.SC_BAD_REQUEST);
+
+        when().
+            get("/category").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body("$", not(hasItem("MUPPET")));
+    }
 }
@@ -1,5 +1,6 @@
 package org.dbrinker.dataCleaner.endpoint;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.restassured.RestAssured;
 import com.jayway.restassured.response.Response;
 import org.apache.http.HttpStatus;
@@ -13,21 +14,30 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.SpringApplicationConfiguration;
 import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import static com.jayway.restassured.RestAssured.get;
 import static com.jayway.restassured.RestAssured.given;
+import static com.jayway.restassured.RestAssured.when;
 import static com.jayway.restassured.path.json.JsonPath.from;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * REST-based integration test of the data set endpoint
@@ -89,6 +99,74 @@ public class DataSetEndpointIT  {
                             new CategoryCount("OTHER", 0)));
     }
 
+    @Test
+    @DirtiesContext
+    public void changedCategoriesAreNotServedFromCache() {
+        List<CategoryAndSubcat> input = Arrays.asList(cs1, cs4);
+
+        // The second time round, the result comes from the cache
+        for (int i = 0; i < 2; i++) {
+            assertThat(clean(input).getCategories(), contains(cs1));
+        }
+
+        given().
+            body("MUPPET").
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/category").
+        then().
+            statusCode(HttpStatus.SC_CREATED);
+
+        assertThat(clean(input).getCategories(), contains(cs1, cs4));
+    }
+
+    @Test
+    public void canPageCounts() {
+        List<CategoryAndSubcat> input = Arrays.asList(cs1, cs2, cs3, cs4);
+
+        CategoryCleanResponse top = given().
+            body(input).
+            contentType(MediaType.APPLICATION_JSON).
+            queryParam("limit", 1).
+            queryParam("includeZero", false).
+        when().
+            post("/data").
+        then().
+            statusCode(HttpStatus.SC_OK).
+        extract().
+            as(CategoryCleanResponse.class);
+        assertThat(top.getCategories(), contains(cs1, cs2, cs3));
+        assertThat(top.getCounts(), contains(new CategoryCount("PERSON", 2)));
+
+        // The zero counts follow on, alphabetically
+        CategoryCleanResponse next = given().
+            body(input).
+            contentType(MediaType.APPLICATION_JSON).
+            queryParam("offset", 1).
+            queryParam("limit", 2).
+        when().
+            post("/data/stream").
+        then().
+            statusCode(HttpStatus.SC_OK).
+        extract().
+            as(CategoryCleanResponse.class);
+        assertThat(next.getCategories(), contains(cs1, cs2, cs3));
+        assertThat(next.getCounts(), contains(new CategoryCount("PLACE", 1),
+                                              new CategoryCount("ANIMAL", 0)));
+    }
+
+    @Test
+    public void rejectsNegativeLimit() {
+        given().
+            body(Arrays.asList(cs1)).
+            contentType(MediaType.APPLICATION_JSON).
+            queryParam("limit", -1).
+        when().
+            post("/data").
+        then().
+            statusCode(HttpStatus.SC_BAD_REQUEST);
+    }
+
     @Test
     public void canProcessDataWithDuplicateEntries() {
         List<CategoryAndSubcat> input
@@ -162,4 +240,228 @@ public class DataSetEndpointIT  {
                             new CategoryCount("COMPUTER", 0),
                             new CategoryCount("OTHER", 0)));
     }
+
+    @Test
+    public void canProcessNdjsonData() {
+        String input = Arrays.asList(cs1, cs2, cs3, cs4, cs1)
+                             .stream()
+                             .map(DataSetEndpointIT::toJson)
+                             .collect(Collectors.joining("\n"));
+
+        // REST Assured doesn't know how to encode NDJSON, so hand it bytes
+        Response response = given().
+            body(input.getBytes(StandardCharsets.UTF_8)).
+            contentType("application/x-ndjson").
+        when().
+            post("/data").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            contentType(MediaType.APPLICATION_JSON).
+        extract().
+            response();
+
+        validateStandardResponse(response);
+    }
+
+    @Test
+    public void canStreamJsonArrayData() {
+        List<CategoryAndSubcat> input
+            = Arrays.asList(cs1, cs2, cs3, cs4, cs2);
+
+        Response response = given().
+            body(input).
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/data/stream").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            contentType(MediaType.APPLICATION_JSON).
+        extract().
+            response();
+
+        validateStandardResponse(response);
+    }
+
+    @Test
+    public void rejectsMalformedStreamedData() {
+        given().
+            body((toJson(cs1) + "\n{\"category\": ").getBytes(StandardCharsets.UTF_8)).
+            contentType("application/x-ndjson").
+        when().
+            post("/data").
+        then().
+            statusCode(HttpStatus.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void canStreamLargeData() {
+        // Enough data to make sure the response is well under way before the
+        // request has been fully read
+        int numPairs = 20000;
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < numPairs; i++) {
+            input.append(toJson(new CategoryAndSubcat("PERSON", "Person " + i)))
+                 .append('\n')
+                 .append(toJson(cs4))
+                 .append('\n');
+        }
+
+        Response response = given().
+            body(input.toString().getBytes(StandardCharsets.UTF_8)).
+            contentType("application/x-ndjson").
+        when().
+            post("/data/stream").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            contentType(MediaType.APPLICATION_JSON).
+        extract().
+            response();
+
+        CategoryCleanResponse cleanResponse
+            = response.body().as(CategoryCleanResponse.class);
+        assertThat(cleanResponse.getCategories(), hasSize(numPairs));
+        assertThat(cleanResponse.getCategories().get(numPairs - 1),
+                   is(new CategoryAndSubcat("PERSON",
+                                            "Person " + (numPairs - 1))));
+        assertThat(cleanResponse.getCounts().get(0),
+                   is(new CategoryCount("PERSON", numPairs)));
+    }
+
+    @Test
+    public void streamFailingPartWayIsLeftUnfinished() {
+        // Enough data for the response to be committed well before the bad
+        // record is read
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            input.append(toJson(new CategoryAndSubcat("PERSON", "Person " + i)))
+                 .append('\n');
+        }
+        input.append("{\"category\": ");
+
+        String body;
+        try {
+            body = given().
+                body(input.toString().getBytes(StandardCharsets.UTF_8)).
+                contentType("application/x-ndjson").
+            when().
+                post("/data/stream").
+            then().
+                statusCode(HttpStatus.SC_OK).
+            extract().
+                asString();
+        }
+        catch (RuntimeException e) {
+            // The connection was cut short, which is just as plain a failure
+            body = null;
+        }
+
+        if (body != null) {
+            try {
+                new ObjectMapper().readValue(body, CategoryCleanResponse.class);
+                fail("Expected the response to be unfinished");
+            }
+            catch (IOException e) {
+                assertThat(body, not(containsString("\"counts\"")));
+            }
+        }
+
+        when().
+            get("/metrics").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body(containsString("datacleaner_http_requests_total"
+                                + "{endpoint=\"POST /data/stream\",status=\"5xx\"} 1\n"));
+    }
+
+    @Test
+    public void canProcessDataAsJob() throws InterruptedException {
+        List<CategoryAndSubcat> input
+            = Arrays.asList(cs1, cs2, cs3, cs4, cs1);
+
+        String location = given().
+            body(input).
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/data/jobs").
+        then().
+            statusCode(HttpStatus.SC_ACCEPTED).
+            contentType(MediaType.APPLICATION_JSON).
+            body("id", notNullValue()).
+            body("inputSize", is(5)).
+        extract().
+            header("location");
+
+        // Poll until the job's done
+        Response response = get(location);
+        for (int i = 0; i < 50 && response.statusCode() == HttpStatus.SC_ACCEPTED; i++) {
+            Thread.sleep(100);
+            response = get(location);
+        }
+        assertThat(response.statusCode(), is(HttpStatus.SC_OK));
+        validateStandardResponse(response);
+
+        // Once the job's gone, so is its result
+        when().
+            delete(location).
+        then().
+            statusCode(HttpStatus.SC_NO_CONTENT);
+        when().
+            get(location).
+        then().
+            statusCode(HttpStatus.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void cannotGetUnknownJob() {
+        when().
+            get("/data/no-such-job").
+        then().
+            statusCode(HttpStatus.SC_NOT_FOUND);
+        when().
+            get("/data/no-such-job/status").
+        then().
+            statusCode(HttpStatus.SC_NOT_FOUND);
+        when().
+            delete("/data/no-such-job").
+        then().
+            statusCode(HttpStatus.SC_NOT_FOUND);
+    }
+
+    // Every streamed test above boils down to cs1, cs2 and cs3 surviving,
+    // which should give the same response as the non-streamed tests
+    private void validateStandardResponse(Response response) {
+        CategoryCleanResponse cleanResponse
+            = response.body().as(CategoryCleanResponse.class);
+        assertThat(cleanResponse.getCategories(), notNullValue());
+        assertThat(cleanResponse.getCategories(), contains(cs1, cs2, cs3));
+
+        assertThat(cleanResponse.getCounts(), notNullValue());
+        assertThat(cleanResponse.getCounts(), hasSize(5));
+        assertThat(cleanResponse.getCounts().get(0),
+                   is(new CategoryCount("PERSON", 2)));
+        assertThat(cleanResponse.getCounts().get(1),
+                   is(new CategoryCount("PLACE", 1)));
+        assertThat(cleanResponse.getCounts(),
+                   hasItems(new CategoryCount("ANIMAL", 0),
+                            new CategoryCount("COMPUTER", 0),
+                            new CategoryCount("OTHER", 0)));
+    }
+
+    private static String toJson(CategoryAndSubcat categoryAndSubcat) {
+        return "{\"category\": \"" + categoryAndSubcat.getCategory() +
+               "\", \"subcategory\": \"" + categoryAndSubcat.getSubcategory() +
+               "\"}";
+    }
+
+    private CategoryCleanResponse clean(List<CategoryAndSubcat> input) {
+        return given().
+                   body(input).
+                   contentType(MediaType.APPLICATION_JSON).
+               when().
+                   post("/data").
+               then().
+                   statusCode(HttpStatus.SC_OK).
+               extract().
+                   as(CategoryCleanResponse.class);
+    }
 }
@@ -0,0 +1,121 @@
+package org.dbrinker.dataCleaner.endpoint;
+
+import com.jayway.restassured.RestAssured;
+import org.apache.http.HttpStatus;
+import org.dbrinker.dataCleaner.Application;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.dbrinker.dataCleaner.model.DataSetSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.ws.rs.core.MediaType;
+import java.util.Arrays;
+
+import static com.jayway.restassured.RestAssured.given;
+import static com.jayway.restassured.RestAssured.when;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * REST-based integration test of the data set session endpoint
+ *
+ * @author Don Brinker
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@WebIntegrationTest(randomPort = true)
+public class DataSetSessionEndpointIT {
+    // Set automagically by Spring when the server starts
+    @Value("${local.server.port}")
+    protected int port;
+
+    private CategoryAndSubcat cs1 = new CategoryAndSubcat("PERSON", "Bob Jones");
+    private CategoryAndSubcat cs2 = new CategoryAndSubcat("PLACE", "Fairfax, VA");
+    private CategoryAndSubcat cs3 = new CategoryAndSubcat("PERSON", "Don Brinker");
+    private CategoryAndSubcat cs4 = new CategoryAndSubcat("MUPPET", "Animal");
+
+    @Before
+    public void initialize() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    public void canCleanDataInBatches() {
+        String location = when().
+            post("/data/sessions").
+        then().
+            statusCode(HttpStatus.SC_CREATED).
+            contentType(MediaType.APPLICATION_JSON).
+            body("id", notNullValue()).
+        extract().
+            header("location");
+
+        CategoryCleanResponse first = given().
+            body(Arrays.asList(cs1, cs2, cs4)).
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post(location).
+        then().
+            statusCode(HttpStatus.SC_OK).
+        extract().
+            as(CategoryCleanResponse.class);
+        assertThat(first.getCategories(), contains(cs1, cs2));
+
+        // The repeats from the first batch should be dropped, but counted
+        // towards the totals
+        CategoryCleanResponse second = given().
+            body(Arrays.asList(cs2, cs3, cs1)).
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post(location).
+        then().
+            statusCode(HttpStatus.SC_OK).
+        extract().
+            as(CategoryCleanResponse.class);
+        assertThat(second.getCategories(), contains(cs3));
+        assertThat(second.getCounts().get(0),
+                   is(new CategoryCount("PERSON", 2)));
+        assertThat(second.getCounts().get(1),
+                   is(new CategoryCount("PLACE", 1)));
+
+        DataSetSession closed = when().
+            delete(location).
+        then().
+            statusCode(HttpStatus.SC_OK).
+        extract().
+            as(DataSetSession.class);
+        assertThat(closed.getNumBatches(), is(2));
+        assertThat(closed.getNumReceived(), is(6L));
+        assertThat(closed.getNumAccepted(), is(3L));
+        assertThat(closed.getCounts(),
+                   hasItems(new CategoryCount("PERSON", 2),
+                            new CategoryCount("PLACE", 1),
+                            new CategoryCount("ANIMAL", 0)));
+
+        when().
+            get(location).
+        then().
+            statusCode(HttpStatus.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void cannotAppendToUnknownSession() {
+        given().
+            body(Arrays.asList(cs1)).
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/data/sessions/no-such-session").
+        then().
+            statusCode(HttpStatus.SC_NOT_FOUND);
+    }
+}
@@ -0,0 +1,112 @@
+package org.dbrinker.dataCleaner.endpoint;
+
+import com.jayway.restassured.RestAssured;
+import org.apache.http.HttpStatus;
+import org.dbrinker.dataCleaner.Application;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.ws.rs.core.MediaType;
+
+import static com.jayway.restassured.RestAssured.given;
+import static com.jayway.restassured.RestAssured.when;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * REST-based integration test of the metrics endpoint
+ *
+ * @author Don Brinker
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@WebIntegrationTest(randomPort = true)
+public class MetricsEndpointIT {
+    // Set automagically by Spring when the server starts
+    @Value("${local.server.port}")
+    protected int port;
+
+    @Before
+    public void initialize() {
+        RestAssured.port = port;
+    }
+
+    @Test
+    @DirtiesContext
+    public void canGetLockMetrics() {
+        given().
+            body("MUPPET").
+            contentType(MediaType.APPLICATION_JSON).
+        when().
+            post("/category").
+        then().
+            statusCode(HttpStatus.SC_CREATED);
+
+        when().
+            get("/metrics").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            contentType(startsWith(MediaType.TEXT_PLAIN)).
+            body(containsString("# TYPE datacleaner_lock_wait_seconds histogram")).
+            body(containsString("datacleaner_lock_acquisitions_total"
+                                + "{resource=\"categories\",mode=\"write\"} 1\n")).
+            body(containsString("datacleaner_lock_hold_seconds_count"
+                                + "{resource=\"categories\",mode=\"write\"} 1\n"));
+    }
+
+    @Test
+    public void canGetRequestMetrics() {
+        // Twice, so that the second is found in the result cache
+        for (int i = 0; i < 2; i++) {
+            given().
+                body("[{\"category\":\"PERSON\",\"subcategory\":\"Bob Jones\"},"
+                     + "{\"category\":\"PERSON\",\"subcategory\":\"Bob Jones\"},"
+                     + "{\"category\":\"MUPPET\",\"subcategory\":\"Animal\"}]").
+                contentType(MediaType.APPLICATION_JSON).
+            when().
+                post("/data").
+            then().
+                statusCode(HttpStatus.SC_OK);
+        }
+
+        // Other tests may have sent requests of their own, so just check
+        // that each metric is there
+        when().
+            get("/metrics").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body(containsString("datacleaner_http_requests_total"
+                                + "{endpoint=\"POST /data\",status=\"2xx\"} ")).
+            body(containsString("datacleaner_http_request_seconds_count"
+                                + "{endpoint=\"POST /data\"} ")).
+            body(containsString("datacleaner_http_stage_seconds_count"
+                                + "{endpoint=\"POST /data\",stage=\"parse\"} ")).
+            body(containsString("datacleaner_http_stage_seconds_count"
+                                + "{endpoint=\"POST /data\",stage=\"serialize\"} ")).
+            body(containsString("datacleaner_clean_stage_seconds_count"
+                                + "{stage=\"sort\"} ")).
+            body(containsString("datacleaner_clean_records_total"
+                                + "{outcome=\"duplicate\"} ")).
+            body(containsString("datacleaner_clean_records_total"
+                                + "{outcome=\"invalid\"} ")).
+            body(containsString("datacleaner_clean_cache_requests_total"
+                                + "{result=\"hit\"} ")).
+            body(containsString("datacleaner_clean_cache_requests_total"
+                                + "{result=\"miss\"} "));
+    }
+
+    @Test
+    public void healthCheck() {
+        when().
+            get("/metrics/health").
+        then().
+            statusCode(HttpStatus.SC_OK).
+            body(containsString("Metrics service up and running"));
+    }
+}
@@ -0,0 +1,115 @@
+package org.dbrinker.dataCleaner.load;
+
+/**
+ * The settings for a load test run, taken from system properties (so they can
+ * be given on the command line, as in
+ * {@code ./gradlew loadTest -DloadTest.dataRate=200}).
+ *
+ * @author Don Brinker
+ */
+public class LoadSettings {
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final double dataRate;
+    private final double categoryRate;
+    private final int payloadSize;
+    private final double duplicateRatio;
+    private final double invalidRatio;
+    private final int threads;
+    private final double maxErrorRate;
+    private final String report;
+
+    /**
+     * Creates a new instance of this class from the system properties
+     */
+    public LoadSettings() {
+        durationSeconds = Integer.getInteger("loadTest.durationSeconds", 30);
+        warmupSeconds = Integer.getInteger("loadTest.warmupSeconds", 5);
+        dataRate = doubleProperty("loadTest.dataRate", 50.0);
+        categoryRate = doubleProperty("loadTest.categoryRate", 5.0);
+        payloadSize = Integer.getInteger("loadTest.payloadSize", 1000);
+        duplicateRatio = doubleProperty("loadTest.duplicateRatio", 0.1);
+        invalidRatio = doubleProperty("loadTest.invalidRatio", 0.05);
+        threads = Integer.getInteger("loadTest.threads", 32);
+        maxErrorRate = doubleProperty("loadTest.maxErrorRate", 0.01);
+        report = System.getProperty("loadTest.report",
+                                    "build/reports/loadTest/results.json");
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * @return  How long to measure for, in seconds (after the warmup)
+     */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return  How long to drive load before measuring, in seconds
+     */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /**
+     * @return  The number of {@code POST /data} requests to send per second
+     */
+    public double getDataRate() {
+        return dataRate;
+    }
+
+    /**
+     * @return  The number of category changes (alternately adds and deletes)
+     *          to make per second
+     */
+    public double getCategoryRate() {
+        return categoryRate;
+    }
+
+    /**
+     * @return  The number of pairs in each data set sent
+     */
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * @return  The fraction of each data set which duplicates other pairs
+     */
+    public double getDuplicateRatio() {
+        return duplicateRatio;
+    }
+
+    /**
+     * @return  The fraction of each data set with unknown categories
+     */
+    public double getInvalidRatio() {
+        return invalidRatio;
+    }
+
+    /**
+     * @return  The maximum number of requests in flight at once
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return  The highest fraction of failed requests for which the run
+     *          still passes
+     */
+    public double getMaxErrorRate() {
+        return maxErrorRate;
+    }
+
+    /**
+     * @return  The file to write the results to
+     */
+    public String getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,252 @@
+package org.dbrinker.dataCleaner.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.dbrinker.dataCleaner.Application;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load test of the REST endpoints.  Drives {@code POST /data} requests mixed
+ * with category adds and deletes at fixed rates, then writes the throughput,
+ * latency percentiles and error rate of each to a JSON file, so that releases
+ * can be compared.
+ *
+ * This only runs if the {@code loadTest} system property is set (as the
+ * {@code loadTest} Gradle task does); see {@link LoadSettings} for the other
+ * settings.
+ *
+ * @author Don Brinker
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+// The same few data sets are sent over and over, so without switching off the
+// result cache (and the sharing of identical cleanings), this would mostly
+// measure the cache
+@WebIntegrationTest(value = {"dataCleaner.cache.maxRecords=0",
+                              "dataCleaner.cache.coalesce=false"},
+                    randomPort = true)
+@DirtiesContext
+public class LoadTestIT {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestIT.class);
+
+    private static final String[] CATEGORIES
+        = {"PERSON", "PLACE", "ANIMAL", "COMPUTER", "OTHER"};
+
+    // Number of distinct data sets to cycle through
+    private static final int PAYLOADS = 16;
+
+    // Set automagically by Spring when the server starts
+    @Value("${local.server.port}")
+    protected int port;
+
+    private final LoadSettings settings = new LoadSettings();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private CloseableHttpClient client;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+
+    @Before
+    public void initialize() {
+        assumeTrue(Boolean.getBoolean("loadTest"));
+
+        client = HttpClients.custom()
+                            .setMaxConnTotal(settings.getThreads())
+                            .setMaxConnPerRoute(settings.getThreads())
+                            .build();
+        scheduler = Executors.newScheduledThreadPool(2);
+        workers = Executors.newFixedThreadPool(settings.getThreads());
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            client.close();
+        }
+    }
+
+    @Test
+    public void driveLoad() throws Exception {
+        List<String> payloads = new ArrayList<>();
+        Random random = new Random(20160101L);
+        for (int i = 0; i < PAYLOADS; i++) {
+            payloads.add(mapper.writeValueAsString(dataSet(random)));
+        }
+
+        String base = "http://localhost:" + port;
+        OperationStats data = new OperationStats();
+        OperationStats categories = new OperationStats();
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(settings.getWarmupSeconds());
+        long measureTo = measureFrom + TimeUnit.SECONDS.toNanos(settings.getDurationSeconds());
+
+        drive(settings.getDataRate(), start, measureFrom, measureTo, data, n -> {
+            HttpPost post = new HttpPost(base + "/data");
+            post.setEntity(new StringEntity(payloads.get((int) (n % PAYLOADS)),
+                                            ContentType.APPLICATION_JSON));
+            return post;
+        });
+
+        // Each category is added, then deleted by the next request
+        drive(settings.getCategoryRate(), start, measureFrom, measureTo, categories, n -> {
+            String category = "LOADTEST-" + (n / 2);
+            if (n % 2 == 1) {
+                return new HttpDelete(base + "/category/" + category);
+            }
+            HttpPost post = new HttpPost(base + "/category");
+            post.setEntity(new StringEntity(category, ContentType.APPLICATION_JSON));
+            return post;
+        });
+
+        TimeUnit.NANOSECONDS.sleep(measureTo - System.nanoTime());
+        scheduler.shutdown();
+        workers.shutdown();
+        workers.awaitTermination(1L, TimeUnit.MINUTES);
+
+        long elapsed = measureTo - measureFrom;
+        Map<String, Object> dataSummary = data.summarize(elapsed);
+        Map<String, Object> categorySummary = categories.summarize(elapsed);
+        writeReport(dataSummary, categorySummary);
+
+        assertThat((Integer) dataSummary.get("requests"), greaterThan(0));
+        assertThat((Double) dataSummary.get("errorRate"),
+                   lessThanOrEqualTo(settings.getMaxErrorRate()));
+        assertThat((Double) categorySummary.get("errorRate"),
+                   lessThanOrEqualTo(settings.getMaxErrorRate()));
+    }
+
+    /**
+     * Sends requests at a fixed rate until the end of the run.  Each
+     * request's latency is measured from when it was due to be sent rather
+     * than when it actually was, so a server which falls behind isn't let
+     * off by the requests it held up (coordinated omission).
+     */
+    private void drive(double rate, long start, long measureFrom, long measureTo,
+                       OperationStats stats, LongFunction<HttpUriRequest> requests) {
+        if (rate <= 0.0) {
+            return;
+        }
+
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        AtomicLong sequence = new AtomicLong();
+        scheduler.scheduleAtFixedRate(() -> {
+            long n = sequence.getAndIncrement();
+            long due = start + n * period;
+            if (due >= measureTo) {
+                return;
+            }
+
+            workers.execute(() -> {
+                boolean succeeded;
+                try {
+                    HttpResponse response = client.execute(requests.apply(n));
+                    EntityUtils.consume(response.getEntity());
+                    succeeded = response.getStatusLine().getStatusCode() < 400;
+                }
+                catch (IOException e) {
+                    succeeded = false;
+                }
+
+                if (due >= measureFrom) {
+                    stats.record(System.nanoTime() - due, succeeded);
+                }
+            });
+        }, 0L, period, TimeUnit.NANOSECONDS);
+    }
+
+    private List<CategoryAndSubcat> dataSet(Random random) {
+        List<CategoryAndSubcat> dataSet = new ArrayList<>(settings.getPayloadSize());
+        for (int i = 0; i < settings.getPayloadSize(); i++) {
+            double roll = random.nextDouble();
+            if (i > 0 && roll < settings.getDuplicateRatio()) {
+                dataSet.add(dataSet.get(random.nextInt(i)));
+            }
+            else if (roll < settings.getDuplicateRatio() + settings.getInvalidRatio()) {
+                dataSet.add(new CategoryAndSubcat("INVALID-" + i, "Subcategory " + i));
+            }
+            else {
+                dataSet.add(new CategoryAndSubcat(skewedCategory(random),
+                                                  "Subcategory " + i));
+            }
+        }
+        return dataSet;
+    }
+
+    // Picks categories with a Zipf-like skew: the first is picked twice as
+    // often as the second, three times as often as the third, and so on
+    private static String skewedCategory(Random random) {
+        double total = 0.0;
+        for (int i = 1; i <= CATEGORIES.length; i++) {
+            total += 1.0 / i;
+        }
+
+        double roll = random.nextDouble() * total;
+        for (int i = 1; i <= CATEGORIES.length; i++) {
+            roll -= 1.0 / i;
+            if (roll < 0.0) {
+                return CATEGORIES[i - 1];
+            }
+        }
+        return CATEGORIES[CATEGORIES.length - 1];
+    }
+
+    private void writeReport(Map<String, Object> data,
+                             Map<String, Object> categories) throws IOException {
+        Map<String, Object> operations = new LinkedHashMap<>();
+        operations.put("data", data);
+        operations.put("category", categories);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("operations", operations);
+
+        File file = new File(settings.getReport());
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        mapper.writer(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+        LOG.info("Load test results written to {}", file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,87 @@
+package org.dbrinker.dataCleaner.load;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the outcomes of a single kind of request made during a load test,
+ * and summarizes them.
+ *
+ * Every latency is kept (a run makes at most a few hundred thousand
+ * requests), so the percentiles reported are exact.
+ *
+ * @author Don Brinker
+ */
+class OperationStats {
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private long errors;
+
+    /**
+     * Records a request
+     *
+     * @param latencyNanos  How long the request took, in nanoseconds
+     * @param succeeded     Whether the request succeeded
+     */
+    synchronized void record(long latencyNanos, boolean succeeded) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        if (!succeeded) {
+            errors++;
+        }
+    }
+
+    /**
+     * Summarizes the requests recorded
+     *
+     * @param elapsedNanos  How long the requests were recorded for
+     *
+     * @return  The summary, ready to be written as JSON
+     */
+    synchronized Map<String, Object> summarize(long elapsedNanos) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            latency.put("p" + formatPercentile(percentile),
+                        toMillis(percentileOf(sorted, percentile)));
+        }
+        latency.put("max", toMillis(count == 0 ? 0L : sorted[count - 1]));
+        latency.put("mean", toMillis(count == 0 ? 0L
+                                                : Arrays.stream(sorted).sum() / count));
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", count);
+        summary.put("errors", errors);
+        summary.put("errorRate", count == 0 ? 0.0 : (double) errors / count);
+        summary.put("throughput",
+                    count / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        summary.put("latencyMillis", latency);
+        return summary;
+    }
+
+    private static long percentileOf(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile)
+            ? Integer.toString((int) percentile)
+            : Double.toString(percentile).replace(".", "");
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
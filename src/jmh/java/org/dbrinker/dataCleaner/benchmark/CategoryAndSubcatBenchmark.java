@@ -0,0 +1,65 @@
+package org.dbrinker.dataCleaner.benchmark;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures hashing and comparing pairs, which every duplicate check does.
+ * Pairs are cycled through a data set, so that the JIT can't simply fold a
+ * single constant pair away.
+ *
+ * @author Don Brinker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CategoryAndSubcatBenchmark {
+    private static final int SIZE = 1024;
+
+    private List<CategoryAndSubcat> data;
+    private List<CategoryAndSubcat> copies;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        data = SyntheticData.dataSet(SIZE, 0.0, 0.0);
+        copies = SyntheticData.dataSet(SIZE, 0.0, 0.0);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return data.get(advance()).hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsEqual() {
+        int i = advance();
+        return data.get(i).equals(copies.get(i));
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        int i = advance();
+        return data.get(i).equals(data.get((i + 1) & (SIZE - 1)));
+    }
+
+    private int advance() {
+        next = (next + 1) & (SIZE - 1);
+        return next;
+    }
+}
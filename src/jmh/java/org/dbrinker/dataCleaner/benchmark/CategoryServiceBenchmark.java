@@ -0,0 +1,75 @@
+package org.dbrinker.dataCleaner.benchmark;
+
+import org.dbrinker.dataCleaner.aspect.LockingAdvice;
+import org.dbrinker.dataCleaner.service.CategoryService;
+import org.dbrinker.dataCleaner.service.CategoryServiceImpl;
+import org.dbrinker.dataCleaner.service.CategorySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures calls to the category service made directly, against the same
+ * calls made through the locking advice, as they are in the application.
+ * Reads aren't locked, so only pay for the proxy; adding an existing
+ * category changes nothing, so measures just the cost of the write lock.
+ *
+ * @author Don Brinker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CategoryServiceBenchmark {
+    private static final String EXISTING_CATEGORY = "CATEGORY-00";
+
+    private CategoryService direct;
+    private CategoryService advised;
+
+    @Setup
+    public void setUp() {
+        direct = createService();
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(createService());
+        factory.addAspect(new LockingAdvice());
+        advised = factory.getProxy();
+    }
+
+    @Benchmark
+    public CategorySnapshot getSnapshotDirect() {
+        return direct.getSnapshot();
+    }
+
+    @Benchmark
+    public CategorySnapshot getSnapshotAdvised() {
+        return advised.getSnapshot();
+    }
+
+    @Benchmark
+    public void addExistingCategoryDirect() {
+        direct.addCategory(EXISTING_CATEGORY);
+    }
+
+    @Benchmark
+    public void addExistingCategoryAdvised() {
+        advised.addCategory(EXISTING_CATEGORY);
+    }
+
+    private static CategoryService createService() {
+        CategoryServiceImpl service = new CategoryServiceImpl();
+        service.setCategories(SyntheticData.categories());
+        return service;
+    }
+}
@@ -0,0 +1,72 @@
+package org.dbrinker.dataCleaner.benchmark;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.dbrinker.dataCleaner.service.CategoryServiceImpl;
+import org.dbrinker.dataCleaner.service.DataCleanerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cleaning and counting data sets, across a range of sizes and of
+ * proportions of duplicate and invalid pairs.  The largest size is past the
+ * threshold at which the cleaner goes parallel.
+ *
+ * @author Don Brinker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataCleanerBenchmark {
+    @Param({ "1000", "10000", "200000" })
+    public int size;
+
+    @Param({ "0.0", "0.5" })
+    public double duplicateRatio;
+
+    @Param({ "0.0", "0.2" })
+    public double invalidRatio;
+
+    private DataCleanerImpl cleaner;
+    private List<CategoryAndSubcat> data;
+
+    @Setup
+    public void setUp() {
+        CategoryServiceImpl categoryService = new CategoryServiceImpl();
+        categoryService.setCategories(SyntheticData.categories());
+
+        cleaner = new DataCleanerImpl(categoryService);
+        data = SyntheticData.dataSet(size, duplicateRatio, invalidRatio);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cleaner.shutdown();
+    }
+
+    @Benchmark
+    public List<CategoryAndSubcat> cleanData() {
+        return cleaner.cleanData(data);
+    }
+
+    @Benchmark
+    public List<CategoryCount> getCategoryCounts() {
+        return cleaner.getCategoryCounts(data);
+    }
+}
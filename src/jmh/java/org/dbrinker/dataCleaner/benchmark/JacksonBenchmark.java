@@ -0,0 +1,74 @@
+package org.dbrinker.dataCleaner.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.service.CategoryServiceImpl;
+import org.dbrinker.dataCleaner.service.DataCleanerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading a clean response as JSON, as the data set
+ * endpoint does for every request.
+ *
+ * @author Don Brinker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonBenchmark {
+    @Param({ "100", "10000" })
+    public int size;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private CategoryCleanResponse response;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        writer = mapper.writerFor(CategoryCleanResponse.class);
+        reader = mapper.readerFor(CategoryCleanResponse.class);
+
+        CategoryServiceImpl categoryService = new CategoryServiceImpl();
+        categoryService.setCategories(SyntheticData.categories());
+        DataCleanerImpl cleaner = new DataCleanerImpl(categoryService);
+        try {
+            response = cleaner.cleanAndCount(
+                SyntheticData.dataSet(size, 0.2, 0.1));
+        }
+        finally {
+            cleaner.shutdown();
+        }
+
+        json = writer.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public CategoryCleanResponse deserialize() throws IOException {
+        return reader.readValue(json);
+    }
+}
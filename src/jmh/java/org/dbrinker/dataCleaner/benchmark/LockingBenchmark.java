@@ -0,0 +1,160 @@
+package org.dbrinker.dataCleaner.benchmark;
+
+import org.dbrinker.dataCleaner.annotation.LockStrategy;
+import org.dbrinker.dataCleaner.annotation.ReadLocked;
+import org.dbrinker.dataCleaner.annotation.WriteLocked;
+import org.dbrinker.dataCleaner.aspect.LockingAdvice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the overhead the locking advice adds to a method call, comparing
+ * a plain call, a call through an unadvised proxy, and read locked calls
+ * using each lock strategy.  Run single threaded and with four threads, to
+ * show how the strategies behave under contention, and how writes locking
+ * separate keys compare with writes locking the whole resource.
+ *
+ * @author Don Brinker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockingBenchmark {
+    /**
+     * The resource being locked
+     */
+    public interface Counter {
+        long get();
+        long getReentrant();
+        long getStamped();
+        void increment();
+        void increment(int key);
+    }
+
+    /**
+     * A trivial resource, so that the measurements are dominated by the cost
+     * of the call itself
+     */
+    public static class CounterImpl implements Counter {
+        private long value;
+
+        @Override
+        public long get() {
+            return value;
+        }
+
+        @Override
+        @ReadLocked("reentrant")
+        public long getReentrant() {
+            return value;
+        }
+
+        @Override
+        @ReadLocked(value = "stamped", strategy = LockStrategy.STAMPED)
+        public long getStamped() {
+            return value;
+        }
+
+        @Override
+        @WriteLocked("reentrant")
+        public void increment() {
+            value++;
+        }
+
+        @Override
+        @WriteLocked(value = "keyed", key = "#key")
+        public void increment(int key) {
+            // Not actually safe, but then it's only measuring the locking
+            value++;
+        }
+    }
+
+    /**
+     * Gives each benchmark thread its own key
+     */
+    @State(Scope.Thread)
+    public static class ThreadKey {
+        private static final AtomicInteger NEXT_KEY = new AtomicInteger();
+
+        int key = NEXT_KEY.getAndIncrement();
+    }
+
+    private Counter plain;
+    private Counter proxied;
+    private Counter advised;
+
+    @Setup
+    public void setUp() {
+        plain = new CounterImpl();
+        proxied = new AspectJProxyFactory(new CounterImpl()).getProxy();
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new CounterImpl());
+        factory.addAspect(new LockingAdvice());
+        advised = factory.getProxy();
+    }
+
+    @Benchmark
+    public long unadvised() {
+        return plain.get();
+    }
+
+    @Benchmark
+    public long unadvisedProxy() {
+        return proxied.get();
+    }
+
+    @Benchmark
+    public long reentrantRead() {
+        return advised.getReentrant();
+    }
+
+    @Benchmark
+    public long stampedRead() {
+        return advised.getStamped();
+    }
+
+    @Benchmark
+    public void reentrantWrite() {
+        advised.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long reentrantReadContended() {
+        return advised.getReentrant();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long stampedReadContended() {
+        return advised.getStamped();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void reentrantWriteContended() {
+        advised.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void keyedWriteContended(ThreadKey key) {
+        advised.increment(key.key);
+    }
+}
@@ -0,0 +1,112 @@
+package org.dbrinker.dataCleaner.benchmark;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates synthetic data sets for the benchmarks.  Real data sets are
+ * dominated by a few popular categories, so categories are drawn from a
+ * Zipf-like distribution: the nth most popular category turns up roughly
+ * 1/n^1.1 as often as the most popular.
+ *
+ * Everything is generated from a fixed seed, so a given set of parameters
+ * always produces the same data set, and runs can be compared.
+ *
+ * @author Don Brinker
+ */
+public final class SyntheticData {
+    /**
+     * The number of valid categories
+     */
+    public static final int NUM_CATEGORIES = 50;
+
+    private static final double SKEW = 1.1;
+    private static final long SEED = 20160101L;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Retrieves the valid categories
+     *
+     * @return  The categories, most popular first
+     */
+    public static Set<String> categories() {
+        Set<String> categories = new LinkedHashSet<>();
+        for (int i = 0; i < NUM_CATEGORIES; i++) {
+            categories.add(category(i));
+        }
+
+        return categories;
+    }
+
+    /**
+     * Generates a data set
+     *
+     * @param size              The number of pairs in the data set
+     * @param duplicateRatio    The proportion of pairs which repeat an
+     *                          earlier pair
+     * @param invalidRatio      The proportion of pairs with a category which
+     *                          isn't valid
+     *
+     * @return  The data set, as a random access list
+     */
+    public static List<CategoryAndSubcat> dataSet(int size,
+                                                  double duplicateRatio,
+                                                  double invalidRatio) {
+        Random random = new Random(SEED);
+        double[] cumulative = cumulativeWeights();
+
+        List<CategoryAndSubcat> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (!data.isEmpty() && random.nextDouble() < duplicateRatio) {
+                // Copy rather than share the earlier pair, as a real request
+                // would have its own instances
+                CategoryAndSubcat original = data.get(random.nextInt(data.size()));
+                data.add(new CategoryAndSubcat(original.getCategory(),
+                                               original.getSubcategory()));
+                continue;
+            }
+
+            String category;
+            if (random.nextDouble() < invalidRatio) {
+                category = "INVALID-" + random.nextInt(NUM_CATEGORIES);
+            }
+            else {
+                category = category(pick(cumulative, random.nextDouble()));
+            }
+            data.add(new CategoryAndSubcat(category, "Subcategory " + i));
+        }
+
+        return data;
+    }
+
+    private static String category(int rank) {
+        return String.format("CATEGORY-%02d", rank);
+    }
+
+    private static double[] cumulativeWeights() {
+        double[] cumulative = new double[NUM_CATEGORIES];
+        double total = 0.0;
+        for (int i = 0; i < NUM_CATEGORIES; i++) {
+            total += 1.0 / Math.pow(i + 1, SKEW);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < NUM_CATEGORIES; i++) {
+            cumulative[i] /= total;
+        }
+
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, double value) {
+        int index = Arrays.binarySearch(cumulative, value);
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,35 @@
+package org.dbrinker.dataCleaner.annotation;
+
+/**
+ * The ways in which a resource managed by @ReadLocked and @WriteLocked may be
+ * locked.  A resource is locked in one way only, so every annotation naming
+ * the resource must agree on its strategy.
+ *
+ * @see ReadLocked
+ * @see WriteLocked
+ *
+ * @author Don Brinker
+ */
+public enum LockStrategy {
+    /**
+     * A reentrant read-write lock.  A good general purpose choice, and the
+     * only one which allows a locked method to call another locked method on
+     * the same resource.
+     */
+    REENTRANT,
+
+    /**
+     * A stamped lock, with reads attempted optimistically.  A read takes no
+     * lock at all; instead, if a write happened while the read was running,
+     * the read is discarded and run again under a real read lock.  This is
+     * much cheaper than a read lock for resources which are read far more
+     * often than written, but means that read locked methods may run twice,
+     * and may see the resource in an inconsistent state the first time
+     * round.  So they should only read the resource, and must not fail
+     * badly (e.g. loop forever) when the resource changes underneath them.
+     *
+     * The lock is not reentrant: a locked method must not call another
+     * locked method on the same resource.
+     */
+    STAMPED
+}
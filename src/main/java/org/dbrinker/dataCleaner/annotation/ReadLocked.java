@@ -4,6 +4,7 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Used to define a method that should be read locked.  Methods of this type
@@ -12,12 +13,51 @@ import java.lang.annotation.Target;
  * method (and/or to other  read locked methods on the same resource) can be
  * triggered simultaneously with no ill effect.
  *
+ * If a key is given, only part of the resource is locked - the part named by
+ * the key - and the method only blocks (and is blocked by) write locked
+ * methods locking the same part, or the whole, of the resource.
+ *
  * @see WriteLocked
+ * @see LockStrategy
  *
  * @author Don Brinker
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ReadLocked {
+    /**
+     * The name of the resource to be locked
+     */
     String value();
+
+    /**
+     * How the resource is to be locked.  Must be the same for every method
+     * locking the resource.
+     */
+    LockStrategy strategy() default LockStrategy.REENTRANT;
+
+    /**
+     * A SpEL expression over the method's parameters (e.g. "#id", or
+     * "#p0"), naming the part of the resource to be locked.  If empty, the
+     * whole resource is locked.  Only supported by the REENTRANT strategy.
+     */
+    String key() default "";
+
+    /**
+     * How long to wait for the lock before giving up, throwing a
+     * LockTimeoutException.  If negative, wait for as long as it takes.
+     */
+    long timeout() default -1L;
+
+    /**
+     * The timeout as a string, which may be a property placeholder (e.g.
+     * "${dataCleaner.categories.writeTimeoutSeconds:10}").  If given, it is
+     * used instead of timeout.
+     */
+    String timeoutString() default "";
+
+    /**
+     * The unit of the timeout
+     */
+    TimeUnit timeoutUnit() default TimeUnit.MILLISECONDS;
 }
@@ -0,0 +1,194 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.dbrinker.dataCleaner.metrics.Histogram;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+
+import jdk.jfr.EventType;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics gathered for one mode (read or write) of one resource's lock:
+ * how long callers wait for the lock, how long they then hold it, how many
+ * are waiting right now, how many times the lock has been acquired, and how
+ * many times callers gave up waiting.  Holds are also passed on to the
+ * watchdog, so that overly long ones get noticed.
+ *
+ * Everything is recorded with non-blocking adders, so that gathering the
+ * metrics doesn't itself become a point of contention.  Waits are also
+ * reported to Flight Recorder, when it's recording them.
+ *
+ * @author Don Brinker
+ */
+class LockMetrics {
+    private static final EventType WAIT_EVENT_TYPE
+        = EventType.getEventType(LockWaitEvent.class);
+
+    // A thread only waits for one lock at a time, so the event for its wait
+    // can simply be set aside until the wait is over.  This is only touched
+    // while Flight Recorder is recording waits.
+    private static final ThreadLocal<LockWaitEvent> WAIT_EVENT
+        = new ThreadLocal<>();
+
+    private final String resource;
+    private final String mode;
+    private final LockWatchdog watchdog;
+
+    private final LongAdder waiting;
+    private final LongAdder acquisitions;
+    private final LongAdder timeouts;
+    private final Histogram waitTime;
+    private final Histogram holdTime;
+
+    /**
+     * Creates a new instance of this class, registering its metrics
+     *
+     * @param registry  The registry in which to register the metrics
+     * @param watchdog  The watchdog to be told about holds
+     * @param resource  The name of the locked resource
+     * @param mode      The mode of the lock ("read" or "write")
+     */
+    LockMetrics(MetricsRegistry registry,
+                LockWatchdog watchdog,
+                String resource,
+                String mode) {
+        this.resource = resource;
+        this.mode = mode;
+        this.watchdog = watchdog;
+
+        String[] labels = { "resource", resource, "mode", mode };
+
+        waiting = new LongAdder();
+        registry.gauge("datacleaner_lock_waiting_threads",
+                       "Threads currently waiting to acquire the lock",
+                       waiting::sum, labels);
+        acquisitions
+            = registry.counter("datacleaner_lock_acquisitions_total",
+                               "Number of times the lock has been acquired",
+                               labels);
+        timeouts
+            = registry.counter("datacleaner_lock_timeouts_total",
+                               "Number of times callers gave up waiting for "
+                               + "the lock",
+                               labels);
+        waitTime
+            = registry.histogram("datacleaner_lock_wait_seconds",
+                                 "Time spent waiting to acquire the lock",
+                                 labels);
+        holdTime
+            = registry.histogram("datacleaner_lock_hold_seconds",
+                                 "Time for which the lock was held",
+                                 labels);
+    }
+
+    /**
+     * Notes that a thread is about to wait for the lock
+     *
+     * @return  The time at which the wait started, in nanoseconds
+     */
+    long waiting() {
+        waiting.increment();
+        long waitStart = System.nanoTime();
+        if (WAIT_EVENT_TYPE.isEnabled()) {
+            LockWaitEvent event = new LockWaitEvent();
+            event.waitStart = waitStart;
+            event.begin();
+            WAIT_EVENT.set(event);
+        }
+        return waitStart;
+    }
+
+    /**
+     * Notes that a thread has acquired the lock, after waiting for it
+     *
+     * @param waitStart     The time at which the wait started
+     *
+     * @return  A record of the hold, to be passed to {@link #released}
+     */
+    LockWatchdog.Hold acquired(long waitStart) {
+        long now = System.nanoTime();
+        waiting.decrement();
+        acquisitions.increment();
+        waitTime.record(now - waitStart);
+        waited(waitStart, LockWaitEvent.ACQUIRED);
+        return watchdog.acquired(resource, mode, now);
+    }
+
+    /**
+     * Notes that a thread has "acquired" the lock without waiting at all, as
+     * with an optimistic read
+     *
+     * @return  A record of the hold, to be passed to {@link #released}
+     */
+    LockWatchdog.Hold acquired() {
+        acquisitions.increment();
+        waitTime.record(0L);
+        return watchdog.acquired(resource, mode, System.nanoTime());
+    }
+
+    /**
+     * Notes that a thread has released the lock
+     *
+     * @param hold  The record of the hold
+     */
+    void released(LockWatchdog.Hold hold) {
+        long now = System.nanoTime();
+        holdTime.record(now - hold.getAcquired());
+        watchdog.released(hold, now);
+    }
+
+    /**
+     * Notes that a thread gave up waiting for the lock, because its timeout
+     * expired
+     *
+     * @param timeoutNanos  How long the thread waited
+     *
+     * @return  The exception to be thrown in consequence
+     */
+    LockTimeoutException timedOut(long timeoutNanos) {
+        waiting.decrement();
+        timeouts.increment();
+        waited(-1L, LockWaitEvent.TIMED_OUT);
+        return new LockTimeoutException(resource, mode, timeoutNanos);
+    }
+
+    /**
+     * Notes that a thread gave up waiting for the lock, because it was
+     * interrupted.  The thread's interrupt status is restored.
+     *
+     * @return  The exception to be thrown in consequence
+     */
+    CancellationException interrupted() {
+        Thread.currentThread().interrupt();
+        waiting.decrement();
+        waited(-1L, LockWaitEvent.INTERRUPTED);
+        return new CancellationException("Interrupted waiting for the " + mode
+                                         + " lock on " + resource);
+    }
+
+    /**
+     * Commits the Flight Recorder event for the current thread's wait, if
+     * there is one
+     *
+     * @param waitStart     When the wait started, to make sure the event is
+     *                      for the same wait; negative for whichever wait the
+     *                      thread is in
+     * @param outcome       How the wait ended
+     */
+    private void waited(long waitStart, String outcome) {
+        if (!WAIT_EVENT_TYPE.isEnabled()) {
+            return;
+        }
+
+        LockWaitEvent event = WAIT_EVENT.get();
+        WAIT_EVENT.remove();
+        if (event != null &&
+            (waitStart < 0L || event.waitStart == waitStart) &&
+            event.shouldCommit()) {
+            event.resource = resource;
+            event.mode = mode;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+}
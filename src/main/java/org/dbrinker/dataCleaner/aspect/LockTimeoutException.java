@@ -0,0 +1,52 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown when a locked method gives up waiting for its lock, because the
+ * timeout given in its locking annotation expired.  This generally means
+ * that something else is holding on to the resource for far longer than it
+ * should, so callers should back off and try again later.
+ *
+ * @author Don Brinker
+ */
+public class LockTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final String resource;
+    private final String mode;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param resource      The name of the resource which couldn't be locked
+     * @param mode          The mode of the lock ("read" or "write")
+     * @param timeoutNanos  How long the caller waited, in nanoseconds
+     */
+    public LockTimeoutException(String resource,
+                                String mode,
+                                long timeoutNanos) {
+        super("Timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+              + " ms waiting for the " + mode + " lock on " + resource);
+        this.resource = resource;
+        this.mode = mode;
+    }
+
+    /**
+     * Retrieves the name of the resource which couldn't be locked
+     *
+     * @return  The resource in question
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * Retrieves the mode of the lock which couldn't be acquired
+     *
+     * @return  The mode in question ("read" or "write")
+     */
+    public String getMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,38 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a wait to acquire a resource lock.  The stack
+ * trace shows who was waiting.
+ *
+ * @author Don Brinker
+ */
+@Name("org.dbrinker.dataCleaner.LockWait")
+@Label("Lock Wait")
+@Category({"Data Cleaner", "Locking"})
+@Description("A wait to acquire a resource lock")
+class LockWaitEvent extends Event {
+    static final String ACQUIRED = "acquired";
+    static final String TIMED_OUT = "timed out";
+    static final String INTERRUPTED = "interrupted";
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Outcome")
+    @Description("Whether the lock was acquired, or the wait timed out or was "
+                 + "interrupted")
+    String outcome;
+
+    // When the wait started, by System.nanoTime(); just to match the event
+    // up with its wait, so not recorded
+    transient long waitStart;
+}
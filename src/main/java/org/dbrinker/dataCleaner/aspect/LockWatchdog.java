@@ -0,0 +1,211 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an eye on who holds which locks, and logs anyone holding one for
+ * longer than a threshold (along with what they're doing).  A lock held for
+ * too long stalls every thread waiting for it, so this is usually the first
+ * sign of a slow path about to exhaust the request threads.
+ *
+ * The watchdog doesn't check by itself; something has to call
+ * {@link #check()} periodically.
+ *
+ * @author Don Brinker
+ */
+class LockWatchdog {
+    private static final Logger LOG = LoggerFactory.getLogger(LockWatchdog.class);
+
+    // Locked methods only ever call each other, so each thread acquires and
+    // releases its locks in last-in, first-out order.  So each thread keeps
+    // its own stack of holds, which the checks walk; that way, acquiring a
+    // lock only touches the thread's own stack, rather than some shared
+    // structure every thread contends on.  Should a hold be released out of
+    // order anyway, it is simply marked as released, and popped once the
+    // holds above it are.  The stacks of threads which have died are
+    // dropped by the next check.
+    private final Set<HoldStack> stacks = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<HoldStack> threadStack
+        = ThreadLocal.withInitial(this::newStack);
+
+    private volatile long thresholdNanos;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param thresholdNanos    How long a lock may be held before it is
+     *                          logged, in nanoseconds.  If not positive,
+     *                          nothing is tracked.
+     */
+    LockWatchdog(long thresholdNanos) {
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    /**
+     * Sets how long a lock may be held before it is logged.  Locks already
+     * held are judged by the new threshold from the next check on, but only
+     * those acquired while the watchdog was enabled are tracked at all.
+     *
+     * @param thresholdNanos    The threshold, in nanoseconds.  If not
+     *                          positive, nothing is tracked.
+     */
+    void setThresholdNanos(long thresholdNanos) {
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    /**
+     * Notes that the current thread has acquired a lock
+     *
+     * @param resource  The name of the locked resource
+     * @param mode      The mode of the lock ("read" or "write")
+     * @param acquired  The time at which the lock was acquired, in
+     *                  nanoseconds
+     *
+     * @return  A record of the hold, to be passed to {@link #released}
+     */
+    Hold acquired(String resource, String mode, long acquired) {
+        if (thresholdNanos <= 0L) {
+            return new Hold(resource, mode, acquired, null);
+        }
+
+        HoldStack stack = threadStack.get();
+        Hold hold = new Hold(resource, mode, acquired, stack);
+        stack.top = hold;
+        return hold;
+    }
+
+    /**
+     * Notes that a lock has been released
+     *
+     * @param hold      The record of the lock's hold
+     * @param released  The time at which the lock was released, in
+     *                  nanoseconds
+     */
+    void released(Hold hold, long released) {
+        if (hold.stack == null) {
+            return;
+        }
+
+        hold.released = true;
+        HoldStack stack = hold.stack;
+        Hold top = stack.top;
+        while (top != null && top.released) {
+            top = top.previous;
+        }
+        stack.top = top;
+        if (hold.reported) {
+            LOG.warn("{} released the {} lock on {} after {} ms",
+                     hold.stack.thread.getName(), hold.mode, hold.resource,
+                     TimeUnit.NANOSECONDS.toMillis(released - hold.acquired));
+        }
+    }
+
+    /**
+     * Logs every lock held for longer than the threshold, which hasn't
+     * already been logged
+     */
+    void check() {
+        long threshold = thresholdNanos;
+        long now = System.nanoTime();
+        for (Iterator<HoldStack> i = stacks.iterator(); i.hasNext(); ) {
+            HoldStack stack = i.next();
+            if (!stack.thread.isAlive()) {
+                i.remove();
+                continue;
+            }
+
+            if (threshold <= 0L) {
+                continue;
+            }
+
+            // The stack may change as we walk it, but holds never do, so at
+            // worst we see a hold released a moment ago
+            for (Hold hold = stack.top; hold != null; hold = hold.previous) {
+                long held = now - hold.acquired;
+                if (!hold.released && !hold.reported && held > threshold) {
+                    hold.reported = true;
+                    report(stack.thread, hold, held);
+                }
+            }
+        }
+    }
+
+    private static void report(Thread thread, Hold hold, long held) {
+        StringBuilder stack = new StringBuilder();
+        for (StackTraceElement element : thread.getStackTrace()) {
+            stack.append("\n\tat ").append(element);
+        }
+        LOG.warn("{} has held the {} lock on {} for {} ms:{}",
+                 thread.getName(), hold.mode, hold.resource,
+                 TimeUnit.NANOSECONDS.toMillis(held), stack);
+    }
+
+    private HoldStack newStack() {
+        HoldStack stack = new HoldStack(Thread.currentThread());
+        stacks.add(stack);
+        return stack;
+    }
+
+    /**
+     * The locks held by a single thread, most recently acquired first
+     */
+    private static final class HoldStack {
+        private final Thread thread;
+        private volatile Hold top;
+
+        HoldStack(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * A single hold of a lock
+     */
+    static final class Hold {
+        private final String resource;
+        private final String mode;
+        private final long acquired;
+
+        // The stack holding this hold, and the hold below it; both null if
+        // the hold isn't being tracked
+        private final HoldStack stack;
+        private final Hold previous;
+
+        // Whether the hold has been logged as too long, and whether it has
+        // been released
+        private volatile boolean reported;
+        private volatile boolean released;
+
+        Hold(String resource, String mode, long acquired, HoldStack stack) {
+            this.resource = resource;
+            this.mode = mode;
+            this.acquired = acquired;
+            this.stack = stack;
+            this.previous = stack == null ? null : stack.top;
+        }
+
+        /**
+         * Retrieves the time at which the lock was acquired
+         *
+         * @return  The time, in nanoseconds
+         */
+        long getAcquired() {
+            return acquired;
+        }
+
+        /**
+         * Determines whether the hold has been logged as too long
+         *
+         * @return  Whether it has
+         */
+        boolean isReported() {
+            return reported;
+        }
+    }
+}
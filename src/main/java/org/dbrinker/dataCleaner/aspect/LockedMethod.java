@@ -0,0 +1,67 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+
+import java.util.function.Function;
+
+/**
+ * How a particular locked method is to be locked: the lock on its resource,
+ * how long to wait for it, and, if it only locks part of the resource, how to
+ * find the key for that part from the method's arguments.
+ *
+ * @author Don Brinker
+ */
+class LockedMethod {
+    private final ResourceLock lock;
+    private final Function<ProceedingJoinPoint, Object> key;
+    private final long timeoutNanos;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param lock          The lock on the method's resource
+     * @param key           Finds the key for a call to the method; null if
+     *                      the method locks the whole resource
+     * @param timeoutNanos  How long to wait for the lock, in nanoseconds;
+     *                      negative to wait indefinitely
+     */
+    LockedMethod(ResourceLock lock,
+                 Function<ProceedingJoinPoint, Object> key,
+                 long timeoutNanos) {
+        this.lock = lock;
+        this.key = key;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Runs the method with its resource locked for reading
+     *
+     * @param joinPoint     The call to the method
+     *
+     * @return  The result of the call
+     *
+     * @throws  LockTimeoutException if the lock couldn't be acquired in time
+     * @throws  Throwable if something goes wrong in the call
+     */
+    Object read(ProceedingJoinPoint joinPoint) throws Throwable {
+        return key == null
+               ? lock.read(joinPoint, timeoutNanos)
+               : lock.read(joinPoint, key.apply(joinPoint), timeoutNanos);
+    }
+
+    /**
+     * Runs the method with its resource locked for writing
+     *
+     * @param joinPoint     The call to the method
+     *
+     * @return  The result of the call
+     *
+     * @throws  LockTimeoutException if the lock couldn't be acquired in time
+     * @throws  Throwable if something goes wrong in the call
+     */
+    Object write(ProceedingJoinPoint joinPoint) throws Throwable {
+        return key == null
+               ? lock.write(joinPoint, timeoutNanos)
+               : lock.write(joinPoint, key.apply(joinPoint), timeoutNanos);
+    }
+}
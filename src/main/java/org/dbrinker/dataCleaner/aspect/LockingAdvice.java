@@ -1,26 +1,217 @@
 package org.dbrinker.dataCleaner.aspect;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.dbrinker.dataCleaner.annotation.LockStrategy;
 import org.dbrinker.dataCleaner.annotation.ReadLocked;
 import org.dbrinker.dataCleaner.annotation.WriteLocked;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.EmbeddedValueResolverAware;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.stereotype.Component;
+import org.springframework.util.PropertyPlaceholderHelper;
+import org.springframework.util.StringValueResolver;
 
-import java.util.HashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * AOP Advice used to transparently apply a multiple readers/single writer
- * locking pattern to a series of methods.
+ * locking pattern to a series of methods.  Each resource is guarded by a
+ * single lock, whose kind is chosen by the strategy given in the locking
+ * annotations.  Locks may also be taken on just part of a resource, named by
+ * a key computed from the locked method's arguments, so that calls working on
+ * different parts of a resource (e.g. different data sets) needn't queue up
+ * behind each other.
+ *
+ * For each resource, and separately for reads and writes, the advice records
+ * how long callers wait for the lock and then hold it, how many are waiting,
+ * and how often the lock is acquired.  This is cheap enough (a few clock
+ * reads and non-blocking counter updates per call) to be left on all the
+ * time.
+ *
+ * Locked methods can also be given a timeout, so that rather than wait
+ * indefinitely behind a slow lock holder (tying up a request thread all the
+ * while), they fail fast with a {@link LockTimeoutException}.  And a
+ * watchdog logs any lock held for longer than a threshold, along with what
+ * its holder is doing at the time.
+ *
+ * @see LockStrategy
  *
  * @author Don Brinker
  */
 @Aspect
 @Component
-public class LockingAdvice {
-    private HashMap<String, ReadWriteLock> locks = new HashMap<>();
+public class LockingAdvice implements EmbeddedValueResolverAware {
+    // The locks for each resource, by name.  Created on first use; the
+    // concurrent map makes sure that two threads first using a resource at
+    // the same time still end up with the same lock.
+    private final ConcurrentMap<String, ResourceLock> locks
+        = new ConcurrentHashMap<>();
+
+    // The lock used by each annotated method.  A method always uses the same
+    // lock, so resolve it (annotation, resource name and all) once rather
+    // than on every call.
+    //
+    // Note that the pointcuts below deliberately use execution() rather than
+    // @annotation(), and don't bind the annotations as advice parameters.
+    // Either of those makes Spring match the pointcut (and look up the
+    // annotation, reflectively) again on every single call, which costs
+    // several microseconds - far more than the locking itself.
+    private final ConcurrentMap<MethodKey, LockedMethod> readLocks
+        = new ConcurrentHashMap<>();
+    private final ConcurrentMap<MethodKey, LockedMethod> writeLocks
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The default number of locks shared by the parts of each resource
+     */
+    public static final int DEFAULT_NUM_STRIPES = 64;
+
+    /**
+     * The default time a lock may be held before the watchdog logs it
+     */
+    public static final long DEFAULT_WATCHDOG_THRESHOLD_MILLIS = 5000L;
+
+    // Keys which simply name a parameter, e.g. "#id", "#p0" or "#a0".  These
+    // are by far the most common, so they're handled directly rather than
+    // paying for a SpEL evaluation on every call.
+    private static final Pattern PARAMETER_KEY
+        = Pattern.compile("#(?:[pa](\\d+)|(\\w+))");
+
+    // Variables SpEL defines itself, which aren't parameters
+    private static final Set<String> SPEL_VARIABLES
+        = ImmutableSet.of("root", "this");
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer parameterNames
+        = new DefaultParameterNameDiscoverer();
+
+    private final MetricsRegistry metrics;
+    private int numStripes = DEFAULT_NUM_STRIPES;
+
+    private final LockWatchdog watchdog = new LockWatchdog(
+        TimeUnit.MILLISECONDS.toNanos(DEFAULT_WATCHDOG_THRESHOLD_MILLIS));
+    private long watchdogThresholdMillis = DEFAULT_WATCHDOG_THRESHOLD_MILLIS;
+    private ScheduledExecutorService watchdogChecker;
+
+    // Resolves placeholders in timeouts.  Outside of a Spring context, there
+    // are no properties, so placeholders take their defaults.
+    private StringValueResolver valueResolver = value ->
+        new PropertyPlaceholderHelper("${", "}", ":", false)
+            .replacePlaceholders(value, name -> null);
+
+    /**
+     * Creates a new instance of this class, whose metrics aren't reported
+     * anywhere
+     */
+    public LockingAdvice() {
+        this(new MetricsRegistry());
+    }
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param metrics   The registry in which to record lock metrics
+     */
+    @Autowired
+    public LockingAdvice(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the number of locks shared by the parts of each resource.  More
+     * stripes mean fewer keys needlessly blocking each other, at the cost of
+     * more memory.  Only affects resources first locked after the call.
+     *
+     * @param numStripes    The number of locks per resource
+     */
+    @Value("${dataCleaner.locks.stripes:" + DEFAULT_NUM_STRIPES + "}")
+    public void setNumStripes(int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be "
+                                               + "positive");
+        }
+        this.numStripes = numStripes;
+    }
+
+    /**
+     * Sets how long a lock may be held before the watchdog logs it
+     *
+     * @param thresholdMillis   The threshold, in milliseconds.  If not
+     *                          positive, the watchdog is disabled.
+     */
+    @Value("${dataCleaner.locks.watchdog.thresholdMillis:" + DEFAULT_WATCHDOG_THRESHOLD_MILLIS + "}")
+    public void setWatchdogThresholdMillis(long thresholdMillis) {
+        this.watchdogThresholdMillis = thresholdMillis;
+        watchdog.setThresholdNanos(TimeUnit.MILLISECONDS.toNanos(thresholdMillis));
+    }
+
+    /**
+     * Sets what resolves the property placeholders in the locking
+     * annotations' timeouts
+     *
+     * @param resolver  The resolver in question
+     */
+    @Override
+    public void setEmbeddedValueResolver(StringValueResolver resolver) {
+        this.valueResolver = resolver;
+    }
+
+    /**
+     * Starts the watchdog's periodic check for long held locks
+     */
+    @PostConstruct
+    public void start() {
+        if (watchdogThresholdMillis <= 0L) {
+            return;
+        }
+
+        watchdogChecker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lock-watchdog")
+                                      .setDaemon(true)
+                                      .build());
+
+        // Check often enough that a long hold is reported reasonably soon
+        // after it crosses the threshold
+        long interval = Math.max(100L, watchdogThresholdMillis / 4);
+        watchdogChecker.scheduleWithFixedDelay(watchdog::check,
+                                               interval, interval,
+                                               TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the watchdog's periodic check
+     */
+    @PreDestroy
+    public void stop() {
+        if (watchdogChecker != null) {
+            watchdogChecker.shutdownNow();
+        }
+    }
 
     /**
      * Locks the target object for reading, preventing any write operations
@@ -29,24 +220,26 @@ public class LockingAdvice {
      *
      * @param joinPoint     The Join point representing the current point of
      *                      execution
-     * @param locked        The locking annotation on the method in question.
      *
      * @return  The result of the underlying call
      *
      * @throws  Throwable if something goes wrong in the underlying call
      */
-    @Around("@annotation(locked)")
-    public Object readLock(ProceedingJoinPoint joinPoint, ReadLocked locked)
-        throws Throwable {
+    @Around("execution(@org.dbrinker.dataCleaner.annotation.ReadLocked * *(..))")
+    public Object readLock(ProceedingJoinPoint joinPoint) throws Throwable {
         // Get the appropriate lock, creating it if necessary
-        ReadWriteLock rwLock = getLock(locked.value());
-        try {
-            rwLock.readLock().lock();
-            return joinPoint.proceed();
-        }
-        finally {
-            rwLock.readLock().unlock();
-        }
+        return getLock(joinPoint, readLocks, method -> {
+            ReadLocked locked
+                = AnnotationUtils.findAnnotation(method, ReadLocked.class);
+            return resolve(method,
+                           locked.value(),
+                           locked.strategy(),
+                           locked.key(),
+                           timeoutOf(method,
+                                     locked.timeout(),
+                                     locked.timeoutString(),
+                                     locked.timeoutUnit()));
+        }).read(joinPoint);
     }
 
     /**
@@ -56,42 +249,260 @@ public class LockingAdvice {
      *
      * @param joinPoint     The Join point representing the current point of
      *                      execution
-     * @param locked        The locking annotation on the method in question.
      *
      * @return  The result of the underlying call
      *
      * @throws  Throwable if something goes wrong in the underlying call
      */
-    @Around("@annotation(locked)")
-    public Object writeLock(ProceedingJoinPoint joinPoint, WriteLocked locked)
-        throws Throwable {
-        ReadWriteLock rwLock = getLock(locked.value());
+    @Around("execution(@org.dbrinker.dataCleaner.annotation.WriteLocked * *(..))")
+    public Object writeLock(ProceedingJoinPoint joinPoint) throws Throwable {
+        return getLock(joinPoint, writeLocks, method -> {
+            WriteLocked locked
+                = AnnotationUtils.findAnnotation(method, WriteLocked.class);
+            return resolve(method,
+                           locked.value(),
+                           locked.strategy(),
+                           locked.key(),
+                           timeoutOf(method,
+                                     locked.timeout(),
+                                     locked.timeoutString(),
+                                     locked.timeoutUnit()));
+        }).write(joinPoint);
+    }
+
+    /**
+     * Retrieves the lock used by the method being called, resolving it if
+     * this is the method's first call
+     *
+     * @param joinPoint     The Join point representing the method call
+     * @param methodLocks   The locks already resolved for each method
+     * @param resolver      Resolves the lock for an annotated method
+     *
+     * @return  The associated lock
+     */
+    private static LockedMethod getLock(ProceedingJoinPoint joinPoint,
+                                        ConcurrentMap<MethodKey, LockedMethod> methodLocks,
+                                        Function<Method, LockedMethod> resolver) {
+        // The method called may be declared by an interface, while the
+        // annotation is on the implementing class; so the same method can
+        // use different locks depending on the target.
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        MethodKey key = new MethodKey(method, joinPoint.getTarget().getClass());
+
+        // Avoid computeIfAbsent() in the common case, as it can lock even
+        // when the method is already present
+        LockedMethod lock = methodLocks.get(key);
+        if (lock == null) {
+            lock = methodLocks.computeIfAbsent(key, k -> resolver.apply(
+                AopUtils.getMostSpecificMethod(k.method, k.targetClass)));
+        }
+
+        return lock;
+    }
+
+    /**
+     * Works out how long the given method waits for its lock
+     *
+     * @param method        The method in question
+     * @param timeout       The timeout given in the method's annotation
+     * @param timeoutString The timeout given as a string, possibly a
+     *                      property placeholder; empty to use timeout
+     * @param unit          The unit of the timeout
+     *
+     * @return  The timeout, in nanoseconds; negative to wait indefinitely
+     *
+     * @throws  IllegalStateException if the timeout string isn't a number,
+     *          or names a property which isn't set
+     */
+    private long timeoutOf(Method method,
+                           long timeout,
+                           String timeoutString,
+                           TimeUnit unit) {
+        if (timeoutString.isEmpty()) {
+            return unit.toNanos(timeout);
+        }
+
         try {
-            rwLock.writeLock().lock();
-            return joinPoint.proceed();
+            String resolved = valueResolver.resolveStringValue(timeoutString);
+            return unit.toNanos(Long.parseLong(resolved.trim()));
         }
-        finally {
-            rwLock.writeLock().unlock();
+        catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Lock timeout " + timeoutString
+                                            + " of " + method
+                                            + " can't be resolved to a "
+                                            + "number", e);
         }
     }
 
+    /**
+     * Resolves how the given method is to be locked
+     *
+     * @param method    The method in question
+     * @param name      The name of the resource locked by the method
+     * @param strategy  How the method expects the resource to be locked
+     * @param key       The expression for the key of the part of the
+     *                  resource to be locked; empty to lock all of it
+     * @param timeout   How long to wait for the lock, in nanoseconds;
+     *                  negative to wait indefinitely
+     *
+     * @return  How the method is to be locked
+     *
+     * @throws  IllegalStateException if the resource is already locked using
+     *          a different strategy, or if a key is given for a strategy
+     *          which doesn't support them
+     */
+    private LockedMethod resolve(Method method,
+                                 String name,
+                                 LockStrategy strategy,
+                                 String key,
+                                 long timeout) {
+        ResourceLock lock = getLock(name, strategy);
+        if (key.isEmpty()) {
+            return new LockedMethod(lock, null, timeout);
+        }
+
+        if (strategy != LockStrategy.REENTRANT) {
+            throw new IllegalStateException("Resource " + name + " can't be "
+                                            + "locked by key using "
+                                            + strategy);
+        }
+
+        return new LockedMethod(lock, getKeyFunction(method, key), timeout);
+    }
+
+    /**
+     * Creates a function which evaluates the given key expression for a call
+     * to the given method
+     *
+     * @param method    The method in question
+     * @param key       The key expression
+     *
+     * @return  The function in question
+     */
+    private Function<ProceedingJoinPoint, Object> getKeyFunction(Method method,
+                                                                 String key) {
+        Matcher matcher = PARAMETER_KEY.matcher(key.trim());
+        if (matcher.matches()) {
+            int index = -1;
+            if (matcher.group(1) != null) {
+                index = Integer.parseInt(matcher.group(1));
+            }
+            else if (!SPEL_VARIABLES.contains(matcher.group(2))) {
+                String[] names = parameterNames.getParameterNames(method);
+                for (int i = 0; names != null && i < names.length; i++) {
+                    if (names[i].equals(matcher.group(2))) {
+                        index = i;
+                    }
+                }
+
+                // SpEL would quietly treat an unknown parameter as null, so
+                // every call would end up with the same key
+                if (index < 0) {
+                    throw new IllegalStateException("Lock key " + key
+                                                    + " doesn't name a "
+                                                    + "parameter of "
+                                                    + method);
+                }
+            }
+
+            if (index >= 0 && index < method.getParameterCount()) {
+                int parameter = index;
+                return joinPoint -> joinPoint.getArgs()[parameter];
+            }
+        }
+
+        Expression expression = parser.parseExpression(key);
+        return joinPoint -> expression.getValue(
+            new MethodBasedEvaluationContext(joinPoint.getTarget(),
+                                             method,
+                                             joinPoint.getArgs(),
+                                             parameterNames));
+    }
+
     /**
      * Retrieves the lock associated with the given resource, creating it if
      * necessary
      *
-     * @param name  The name of the resource to be managed
+     * @param name      The name of the resource to be managed
+     * @param strategy  How the resource is expected to be locked
      *
      * @return  The associated lock
+     *
+     * @throws  IllegalStateException if the resource is already locked using
+     *          a different strategy
      */
-    private ReadWriteLock getLock(String name) {
-        ReadWriteLock lock = locks.get(name);
-        if (lock == null) {
-            // Looks like we never accessed this lock before.  Just create it
-            // and associate it for future reference
-            lock = new ReentrantReadWriteLock();
-            locks.put(name, lock);
+    private ResourceLock getLock(String name, LockStrategy strategy) {
+        ResourceLock lock
+            = locks.computeIfAbsent(name, n -> createLock(n, strategy));
+        if (lock.getStrategy() != strategy) {
+            throw new IllegalStateException("Resource " + name
+                                            + " is locked using "
+                                            + lock.getStrategy()
+                                            + ", not " + strategy);
         }
 
         return lock;
     }
+
+    /**
+     * Creates a new lock for the given resource, using the given strategy
+     *
+     * @param name      The name of the resource
+     * @param strategy  The strategy in question
+     *
+     * @return  The new lock
+     */
+    private ResourceLock createLock(String name, LockStrategy strategy) {
+        LockMetrics readMetrics
+            = new LockMetrics(metrics, watchdog, name, "read");
+        LockMetrics writeMetrics
+            = new LockMetrics(metrics, watchdog, name, "write");
+
+        switch (strategy) {
+            case STAMPED:
+                return new StampedResourceLock(
+                    readMetrics,
+                    writeMetrics,
+                    metrics.counter("datacleaner_lock_optimistic_retries_total",
+                                    "Optimistic reads retried under a read "
+                                    + "lock because of a write",
+                                    "resource", name));
+            default:
+                return new ReentrantResourceLock(numStripes,
+                                                 readMetrics,
+                                                 writeMetrics);
+        }
+    }
+
+    /**
+     * Identifies a method as called on a particular class of target
+     */
+    private static final class MethodKey {
+        private final Method method;
+        private final Class<?> targetClass;
+
+        MethodKey(Method method, Class<?> targetClass) {
+            this.method = method;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+
+            MethodKey other = (MethodKey) o;
+            return method.equals(other.method) &&
+                   targetClass == other.targetClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + targetClass.hashCode();
+        }
+    }
 }
@@ -0,0 +1,215 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import com.google.common.util.concurrent.Striped;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.dbrinker.dataCleaner.annotation.LockStrategy;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Guards a resource with a reentrant read-write lock
+ *
+ * Parts of the resource can also be locked, by key.  Rather than keep a lock
+ * for every key ever seen, keys share a fixed number of "stripe" locks, so
+ * two keys may occasionally block each other needlessly.  Locking part of the
+ * resource takes the lock on the whole resource for reading, and then the
+ * stripe lock in whatever mode was asked for; so parts can be locked
+ * independently, but locking the whole resource for writing still excludes
+ * everything.  Reading the whole resource must also exclude writes to any
+ * part of it, so it takes every stripe lock for reading too, in order -
+ * which makes whole reads a little dearer, but they still don't block each
+ * other, or reads of parts.
+ *
+ * Since the whole resource is always locked first, and the stripes always
+ * in the same order, there's no risk of deadlock between a part and the
+ * whole.  But locked methods must not lock one part of a resource while
+ * holding a lock on another, as two threads doing so in opposite orders
+ * would deadlock; nor may they write to part of a resource while reading
+ * the whole of it, any more than they may write to the whole.
+ *
+ * @see LockStrategy#REENTRANT
+ *
+ * @author Don Brinker
+ */
+class ReentrantResourceLock implements ResourceLock {
+    private static final Lock[] NO_STRIPES = new Lock[0];
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Striped<ReadWriteLock> stripes;
+    private final Lock[] allStripesForReading;
+    private final LockMetrics readMetrics;
+    private final LockMetrics writeMetrics;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param numStripes    The number of locks shared by parts of the
+     *                      resource
+     * @param readMetrics   Where to record metrics for reads
+     * @param writeMetrics  Where to record metrics for writes
+     */
+    ReentrantResourceLock(int numStripes,
+                          LockMetrics readMetrics,
+                          LockMetrics writeMetrics) {
+        this.stripes = Striped.readWriteLock(numStripes);
+        this.allStripesForReading = new Lock[stripes.size()];
+        for (int i = 0; i < allStripesForReading.length; i++) {
+            allStripesForReading[i] = stripes.getAt(i).readLock();
+        }
+        this.readMetrics = readMetrics;
+        this.writeMetrics = writeMetrics;
+    }
+
+    @Override
+    public LockStrategy getStrategy() {
+        return LockStrategy.REENTRANT;
+    }
+
+    @Override
+    public Object read(ProceedingJoinPoint joinPoint, long timeoutNanos)
+        throws Throwable {
+        return proceed(joinPoint,
+                       lock.readLock(),
+                       allStripesForReading,
+                       timeoutNanos,
+                       readMetrics);
+    }
+
+    @Override
+    public Object write(ProceedingJoinPoint joinPoint, long timeoutNanos)
+        throws Throwable {
+        return proceed(joinPoint,
+                       lock.writeLock(),
+                       NO_STRIPES,
+                       timeoutNanos,
+                       writeMetrics);
+    }
+
+    @Override
+    public Object read(ProceedingJoinPoint joinPoint,
+                       Object key,
+                       long timeoutNanos) throws Throwable {
+        return proceed(joinPoint,
+                       lock.readLock(),
+                       new Lock[]{getStripe(key).readLock()},
+                       timeoutNanos,
+                       readMetrics);
+    }
+
+    @Override
+    public Object write(ProceedingJoinPoint joinPoint,
+                        Object key,
+                        long timeoutNanos) throws Throwable {
+        return proceed(joinPoint,
+                       lock.readLock(),
+                       new Lock[]{getStripe(key).writeLock()},
+                       timeoutNanos,
+                       writeMetrics);
+    }
+
+    private ReadWriteLock getStripe(Object key) {
+        // Striped can't cope with null keys, so use their hash instead
+        return stripes.get(Objects.hashCode(key));
+    }
+
+    /**
+     * Runs the given method while holding the given locks
+     *
+     * @param joinPoint     The method to run
+     * @param lock          The lock on the whole resource
+     * @param stripes       The locks on parts of the resource, if any, in the
+     *                      order they're to be acquired
+     * @param timeoutNanos  How long to wait for the locks (between them), in
+     *                      nanoseconds; negative to wait indefinitely
+     * @param metrics       Where to record metrics
+     *
+     * @return  The result of the method
+     *
+     * @throws  LockTimeoutException if the locks couldn't be acquired in
+     *          time
+     * @throws  Throwable if something goes wrong in the method
+     */
+    private static Object proceed(ProceedingJoinPoint joinPoint,
+                                  Lock lock,
+                                  Lock[] stripes,
+                                  long timeoutNanos,
+                                  LockMetrics metrics) throws Throwable {
+        long waitStart = metrics.waiting();
+        if (!acquire(lock, timeoutNanos, metrics)) {
+            throw metrics.timedOut(timeoutNanos);
+        }
+        int acquired = 0;
+        try {
+            while (acquired < stripes.length) {
+                long remaining = timeoutNanos;
+                if (timeoutNanos >= 0L) {
+                    remaining = Math.max(0L, waitStart + timeoutNanos
+                                             - System.nanoTime());
+                }
+                if (!acquire(stripes[acquired], remaining, metrics)) {
+                    break;
+                }
+                acquired++;
+            }
+        }
+        finally {
+            if (acquired < stripes.length) {
+                unlock(lock, stripes, acquired);
+            }
+        }
+        if (acquired < stripes.length) {
+            throw metrics.timedOut(timeoutNanos);
+        }
+
+        LockWatchdog.Hold hold = metrics.acquired(waitStart);
+        try {
+            return joinPoint.proceed();
+        }
+        finally {
+            unlock(lock, stripes, acquired);
+            metrics.released(hold);
+        }
+    }
+
+    // Releases the first so many stripes, in reverse order, then the lock on
+    // the whole resource
+    private static void unlock(Lock lock, Lock[] stripes, int numStripes) {
+        for (int i = numStripes - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+        lock.unlock();
+    }
+
+    /**
+     * Acquires the given lock, waiting no longer than the given timeout
+     *
+     * @param lock          The lock in question
+     * @param timeoutNanos  How long to wait, in nanoseconds; negative to wait
+     *                      indefinitely
+     * @param metrics       Where to record metrics
+     *
+     * @return  Whether the lock was acquired
+     *
+     * @throws  java.util.concurrent.CancellationException if the thread was
+     *          interrupted while waiting
+     */
+    private static boolean acquire(Lock lock,
+                                   long timeoutNanos,
+                                   LockMetrics metrics) {
+        if (timeoutNanos < 0L) {
+            lock.lock();
+            return true;
+        }
+
+        try {
+            return lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            throw metrics.interrupted();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.dbrinker.dataCleaner.annotation.LockStrategy;
+
+/**
+ * The lock guarding a single named resource, which knows how to run a method
+ * while holding it.
+ *
+ * Every method takes a timeout: how long to wait for the lock before giving
+ * up with a {@link LockTimeoutException}.  A negative timeout means waiting
+ * for as long as it takes.
+ *
+ * @author Don Brinker
+ */
+interface ResourceLock {
+    /**
+     * Retrieves the way in which this lock locks its resource
+     *
+     * @return  The strategy in question
+     */
+    LockStrategy getStrategy();
+
+    /**
+     * Runs the given method with the resource locked for reading
+     *
+     * @param joinPoint     The method to run
+     * @param timeoutNanos  How long to wait for the lock, in nanoseconds
+     *
+     * @return  The result of the method
+     *
+     * @throws  LockTimeoutException if the lock couldn't be acquired in time
+     * @throws  Throwable if something goes wrong in the method
+     */
+    Object read(ProceedingJoinPoint joinPoint, long timeoutNanos)
+        throws Throwable;
+
+    /**
+     * Runs the given method with the resource locked for writing
+     *
+     * @param joinPoint     The method to run
+     * @param timeoutNanos  How long to wait for the lock, in nanoseconds
+     *
+     * @return  The result of the method
+     *
+     * @throws  LockTimeoutException if the lock couldn't be acquired in time
+     * @throws  Throwable if something goes wrong in the method
+     */
+    Object write(ProceedingJoinPoint joinPoint, long timeoutNanos)
+        throws Throwable;
+
+    /**
+     * Runs the given method with part of the resource locked for reading
+     *
+     * @param joinPoint     The method to run
+     * @param key           Names the part of the resource to be locked
+     * @param timeoutNanos  How long to wait for the lock, in nanoseconds
+     *
+     * @return  The result of the method
+     *
+     * @throws  UnsupportedOperationException if this lock can't lock part
+     *          of a resource
+     * @throws  LockTimeoutException if the lock couldn't be acquired in time
+     * @throws  Throwable if something goes wrong in the method
+     */
+    default Object read(ProceedingJoinPoint joinPoint,
+                        Object key,
+                        long timeoutNanos) throws Throwable {
+        throw new UnsupportedOperationException("Keyed locks are not "
+                                                + "supported by "
+                                                + getStrategy());
+    }
+
+    /**
+     * Runs the given method with part of the resource locked for writing
+     *
+     * @param joinPoint     The method to run
+     * @param key           Names the part of the resource to be locked
+     * @param timeoutNanos  How long to wait for the lock, in nanoseconds
+     *
+     * @return  The result of the method
+     *
+     * @throws  UnsupportedOperationException if this lock can't lock part
+     *          of a resource
+     * @throws  LockTimeoutException if the lock couldn't be acquired in time
+     * @throws  Throwable if something goes wrong in the method
+     */
+    default Object write(ProceedingJoinPoint joinPoint,
+                         Object key,
+                         long timeoutNanos) throws Throwable {
+        throw new UnsupportedOperationException("Keyed locks are not "
+                                                + "supported by "
+                                                + getStrategy());
+    }
+}
@@ -0,0 +1,122 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.dbrinker.dataCleaner.annotation.LockStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Guards a resource with a stamped lock, attempting reads optimistically
+ *
+ * @see LockStrategy#STAMPED
+ *
+ * @author Don Brinker
+ */
+class StampedResourceLock implements ResourceLock {
+    private final StampedLock lock = new StampedLock();
+    private final LockMetrics readMetrics;
+    private final LockMetrics writeMetrics;
+    private final LongAdder retries;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param readMetrics   Where to record metrics for reads
+     * @param writeMetrics  Where to record metrics for writes
+     * @param retries       Counts optimistic reads which had to be retried
+     */
+    StampedResourceLock(LockMetrics readMetrics,
+                        LockMetrics writeMetrics,
+                        LongAdder retries) {
+        this.readMetrics = readMetrics;
+        this.writeMetrics = writeMetrics;
+        this.retries = retries;
+    }
+
+    @Override
+    public LockStrategy getStrategy() {
+        return LockStrategy.STAMPED;
+    }
+
+    @Override
+    public Object read(ProceedingJoinPoint joinPoint, long timeoutNanos)
+        throws Throwable {
+        // First try the read without locking anything.  If no write happened
+        // in the meantime, we're done.  (A stamp of zero means a write is
+        // under way right now, so there's no point trying.)
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            LockWatchdog.Hold hold = readMetrics.acquired();
+            try {
+                Object result = joinPoint.proceed();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+            catch (Throwable t) {
+                // If a write got in the way, it may well be what caused the
+                // failure, so give the read another go below
+                if (lock.validate(stamp)) {
+                    throw t;
+                }
+            }
+            finally {
+                readMetrics.released(hold);
+            }
+
+            retries.increment();
+        }
+
+        // Otherwise fall back on a real read lock
+        long waitStart = readMetrics.waiting();
+        try {
+            stamp = timeoutNanos < 0L
+                    ? lock.readLock()
+                    : lock.tryReadLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            throw readMetrics.interrupted();
+        }
+        if (stamp == 0L) {
+            throw readMetrics.timedOut(timeoutNanos);
+        }
+
+        LockWatchdog.Hold hold = readMetrics.acquired(waitStart);
+        try {
+            return joinPoint.proceed();
+        }
+        finally {
+            lock.unlockRead(stamp);
+            readMetrics.released(hold);
+        }
+    }
+
+    @Override
+    public Object write(ProceedingJoinPoint joinPoint, long timeoutNanos)
+        throws Throwable {
+        long waitStart = writeMetrics.waiting();
+        long stamp;
+        try {
+            stamp = timeoutNanos < 0L
+                    ? lock.writeLock()
+                    : lock.tryWriteLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            throw writeMetrics.interrupted();
+        }
+        if (stamp == 0L) {
+            throw writeMetrics.timedOut(timeoutNanos);
+        }
+
+        LockWatchdog.Hold hold = writeMetrics.acquired(waitStart);
+        try {
+            return joinPoint.proceed();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+            writeMetrics.released(hold);
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package org.dbrinker.dataCleaner.config;
 
 import com.google.common.collect.Sets;
+import org.dbrinker.dataCleaner.dao.CategoryStore;
+import org.dbrinker.dataCleaner.dao.FileCategoryStore;
+import org.dbrinker.dataCleaner.dao.InMemoryCategoryStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
 
+import java.io.File;
 import java.util.Set;
 
 /**
@@ -18,6 +24,14 @@ import java.util.Set;
 @ComponentScan("org.dbrinker.dataCleaner")
 @EnableAspectJAutoProxy
 public class ServiceConfig {
+    // Needed to resolve ${...} placeholders (and their defaults) in @Value
+    // annotations when running without Spring Boot, as in the integration
+    // tests.  Boot backs off from defining its own when this is present.
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertyConfigurer() {
+        return new PropertySourcesPlaceholderConfigurer();
+    }
+
     @Bean
     public Set<String> validCategories() {
         return Sets.newHashSet("PERSON",
@@ -26,4 +40,29 @@ public class ServiceConfig {
                                "COMPUTER",
                                "OTHER");
     }
+
+    // Categories are only kept on disk if given somewhere to keep them;
+    // otherwise they're lost on restart, and start again from the valid
+    // categories above.  The store is closed (and everything in it forced
+    // out to disk) when the context is.
+    @Bean
+    public CategoryStore categoryStore(
+        @Value("${dataCleaner.categories.directory:}") String directory,
+        @Value("${dataCleaner.categories.segmentSize:"
+               + FileCategoryStore.DEFAULT_SEGMENT_SIZE + "}") int segmentSize,
+        @Value("${dataCleaner.categories.compactionThreshold:"
+               + FileCategoryStore.DEFAULT_COMPACTION_THRESHOLD + "}")
+            int compactionThreshold,
+        @Value("${dataCleaner.categories.syncIntervalMillis:"
+               + FileCategoryStore.DEFAULT_SYNC_INTERVAL_MILLIS + "}")
+            long syncIntervalMillis) {
+        if (directory.isEmpty()) {
+            return new InMemoryCategoryStore();
+        }
+
+        return new FileCategoryStore(new File(directory),
+                                     segmentSize,
+                                     compactionThreshold,
+                                     syncIntervalMillis);
+    }
 }
@@ -0,0 +1,72 @@
+package org.dbrinker.dataCleaner.dao;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Defines a Data Access Object which keeps the categories somewhere more
+ * lasting than the category service's memory, so that they survive
+ * restarts.
+ *
+ * The store doesn't decide anything itself: the category service works out
+ * each change (and the version it results in), and then tells the store.
+ * Changes are told to the store in version order, one at a time.  Each change
+ * (however many categories it touches) has a single version, and is stored
+ * whole or not at all.
+ *
+ * @author Don Brinker
+ */
+public interface CategoryStore {
+    /**
+     * Retrieves the categories as they were last stored
+     *
+     * @return  The stored categories and their version.  If nothing has been
+     *          stored yet, the version is zero and there are no categories.
+     */
+    StoredCategories load();
+
+    /**
+     * Stores the addition of some categories
+     *
+     * @param added         The categories added.  None of them were present
+     *                      before.
+     * @param version       The version of the categories after the addition
+     * @param categories    All of the categories after the addition.  Must
+     *                      not be changed afterwards.
+     *
+     * @throws  java.io.UncheckedIOException if the change can't be stored
+     */
+    void add(Collection<String> added, long version, Set<String> categories);
+
+    /**
+     * Stores the deletion of some categories
+     *
+     * @param deleted       The categories deleted.  All of them were present
+     *                      before.
+     * @param version       The version of the categories after the deletion
+     * @param categories    All of the categories after the deletion.  Must
+     *                      not be changed afterwards.
+     *
+     * @throws  java.io.UncheckedIOException if the change can't be stored
+     */
+    void delete(Collection<String> deleted,
+                long version,
+                Set<String> categories);
+
+    /**
+     * Stores a wholesale replacement of the categories
+     *
+     * @param version       The version of the new categories
+     * @param categories    The new categories.  Must not be changed
+     *                      afterwards.
+     *
+     * @throws  java.io.UncheckedIOException if the change can't be stored
+     */
+    void replace(long version, Set<String> categories);
+
+    /**
+     * Makes sure everything stored so far is safely written, and releases
+     * any resources held by the store
+     */
+    void close();
+}
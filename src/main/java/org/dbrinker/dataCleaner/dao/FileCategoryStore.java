@@ -0,0 +1,613 @@
+package org.dbrinker.dataCleaner.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A category store which keeps the categories in a directory on disk, as a
+ * snapshot of the categories at some version, plus a log of every change
+ * since.
+ *
+ * Each change is appended to the log, which is memory-mapped (see
+ * {@link LogSegment}), so storing a change costs little more than copying it
+ * into memory.  Forcing the log out to disk is much more expensive, so by
+ * default that is done in batches, every so often, by a background thread:
+ * changes made since the last batch are safe if the application dies, but
+ * could be lost if the whole machine does.  Setting the sync interval to zero
+ * forces the log after every change instead.
+ *
+ * The log is split into segments.  Once a segment fills up, or has seen
+ * enough changes, a new segment is started, and a new snapshot is written in
+ * the background.  Once the snapshot is safely written, the segments (and
+ * snapshots) before it are deleted.  On start up, the categories are
+ * recovered by reading the latest snapshot and replaying the changes logged
+ * after it, so recovery takes time in proportion to the number of
+ * categories, plus at most a segment or two of changes.
+ *
+ * Files in the directory are named after the version at which they start:
+ * {@code snapshot-<version>} holds the categories as of that version, and
+ * {@code log-<version>} holds changes from that version on.
+ *
+ * @author Don Brinker
+ */
+public class FileCategoryStore implements CategoryStore {
+    /**
+     * The default size of each log segment, in bytes
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The default number of changes logged in a segment before starting a
+     * new snapshot
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    /**
+     * The default time between forcing batches of changes to disk, in
+     * milliseconds
+     */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 50L;
+
+    private static final Logger LOG
+        = LoggerFactory.getLogger(FileCategoryStore.class);
+
+    private static final String SNAPSHOT = "snapshot";
+    private static final String LOG_SEGMENT = "log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Pattern FILE_NAME
+        = Pattern.compile("(" + SNAPSHOT + "|" + LOG_SEGMENT + ")-(\\d{20})");
+
+    // "CATS", to make sure a snapshot is a snapshot
+    private static final int SNAPSHOT_MAGIC = 0x43415453;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int compactionThreshold;
+    private final long syncIntervalMillis;
+
+    // Writes snapshots, one at a time, so they never get out of order.  A
+    // wholesale replacement waits for its snapshot while holding the lock, so
+    // nothing run here may ever need the lock itself.
+    private final ExecutorService background;
+
+    // Forces batches of changes to disk, which does need the lock, so it gets
+    // a thread of its own
+    private final ScheduledExecutorService syncer;
+
+    private final StoredCategories recovered;
+
+    // Guarded by this
+    private LogSegment segment;
+    private int segmentChanges;
+    private boolean unsynced;
+    private boolean closed;
+
+    /**
+     * Creates a new instance of this class, recovering whatever categories
+     * are already stored in the given directory
+     *
+     * @param directory             The directory in which to store the
+     *                              categories.  Created if necessary.
+     * @param segmentSize           The size of each log segment, in bytes
+     * @param compactionThreshold   The number of changes logged in a segment
+     *                              before starting a new snapshot
+     * @param syncIntervalMillis    The time between forcing batches of
+     *                              changes to disk, in milliseconds; if not
+     *                              positive, every change is forced to disk
+     *                              straight away
+     *
+     * @throws  UncheckedIOException if the categories can't be recovered
+     * @throws  IllegalStateException if the stored categories are incomplete
+     */
+    public FileCategoryStore(File directory,
+                             int segmentSize,
+                             int compactionThreshold,
+                             long syncIntervalMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.syncIntervalMillis = syncIntervalMillis;
+
+        background = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("category-store")
+                                      .setDaemon(true)
+                                      .build());
+        syncer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("category-store-sync")
+                                      .setDaemon(true)
+                                      .build());
+        try {
+            recovered = recover();
+        }
+        catch (IOException e) {
+            background.shutdownNow();
+            syncer.shutdownNow();
+            throw new UncheckedIOException("Unable to recover categories from "
+                                           + directory, e);
+        }
+        catch (RuntimeException e) {
+            background.shutdownNow();
+            syncer.shutdownNow();
+            throw e;
+        }
+
+        if (syncIntervalMillis > 0L) {
+            syncer.scheduleWithFixedDelay(this::sync,
+                                          syncIntervalMillis,
+                                          syncIntervalMillis,
+                                          TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public StoredCategories load() {
+        return recovered;
+    }
+
+    @Override
+    public synchronized void add(Collection<String> added,
+                                 long version,
+                                 Set<String> categories) {
+        append(LogSegment.ADD, added, version, categories);
+    }
+
+    @Override
+    public synchronized void delete(Collection<String> deleted,
+                                    long version,
+                                    Set<String> categories) {
+        append(LogSegment.DELETE, deleted, version, categories);
+    }
+
+    /**
+     * Stores a wholesale replacement of the categories.  Rather than logging
+     * every category, this writes a new snapshot straight away, and only
+     * returns once the snapshot is safely on disk.
+     *
+     * @param version       The version of the new categories
+     * @param categories    The new categories.  Must not be changed
+     *                      afterwards.
+     */
+    @Override
+    public synchronized void replace(long version, Set<String> categories) {
+        checkOpen();
+        try {
+            snapshot(version, categories);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to store categories", e);
+        }
+    }
+
+    /**
+     * Finishes writing any snapshot under way, forces any remaining changes
+     * to disk, and closes the log
+     */
+    @Override
+    public void close() {
+        // Let the last snapshot finish before shutting up shop.  This can't
+        // be done while holding the lock, since a sync might be waiting on
+        // it.
+        syncer.shutdown();
+        background.shutdown();
+        try {
+            syncer.awaitTermination(1L, TimeUnit.MINUTES);
+            background.awaitTermination(1L, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                segment.force();
+                segment.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Unable to close category log {}", segment.getFile(), e);
+            }
+        }
+    }
+
+    private void append(byte operation,
+                        Collection<String> changed,
+                        long version,
+                        Set<String> categories) {
+        checkOpen();
+        try {
+            if (!segment.append(operation, version, changed)) {
+                if (segment.getFirstVersion() == version) {
+                    // Too big to log even in an empty segment, so store the
+                    // result as a snapshot instead
+                    snapshot(version, categories);
+                    return;
+                }
+
+                // Out of room, so carry on in a new segment, and start
+                // afresh from a snapshot
+                rollSegment(version);
+                if (!segment.append(operation, version, changed)) {
+                    snapshot(version, categories);
+                    return;
+                }
+                compact(version, categories);
+            }
+            else if (++segmentChanges >= compactionThreshold) {
+                rollSegment(version + 1);
+                compact(version, categories);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to store categories", e);
+        }
+
+        if (syncIntervalMillis > 0L) {
+            unsynced = true;
+        }
+        else {
+            segment.force();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Category store is closed");
+        }
+    }
+
+    /**
+     * Forces any changes made since the last time out to disk
+     */
+    private synchronized void sync() {
+        if (unsynced && !closed) {
+            segment.force();
+            unsynced = false;
+        }
+    }
+
+    /**
+     * Finishes the current log segment, and starts a new one
+     *
+     * @param firstVersion  The version of the first change to be logged in
+     *                      the new segment
+     *
+     * @throws  IOException if the new segment can't be created
+     */
+    private void rollSegment(long firstVersion) throws IOException {
+        LogSegment next = LogSegment.create(fileFor(LOG_SEGMENT, firstVersion),
+                                            firstVersion,
+                                            segmentSize);
+        if (segment != null) {
+            segment.force();
+            segment.close();
+        }
+
+        segment = next;
+        segmentChanges = 0;
+        unsynced = false;
+    }
+
+    /**
+     * Stores the categories as a snapshot, rather than in the log, returning
+     * once the snapshot is safely on disk
+     *
+     * @param version       The version of the categories
+     * @param categories    The categories themselves.  Must not be changed.
+     *
+     * @throws  IOException if the snapshot can't be written
+     */
+    private void snapshot(long version, Set<String> categories)
+        throws IOException {
+        rollSegment(version + 1);
+        try {
+            compact(version, categories).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted storing categories", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IllegalStateException("Unable to store categories", cause);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the categories in the background.  Once it's
+     * written, the log segments before the current one, and any older
+     * snapshots, are no longer needed and are deleted.
+     *
+     * @param version       The version of the categories
+     * @param categories    The categories themselves.  Must not be changed.
+     *
+     * @return  The snapshot being written
+     */
+    private Future<?> compact(long version, Set<String> categories) {
+        long firstKept = segment.getFirstVersion();
+        return background.submit(() -> {
+            try {
+                writeSnapshot(version, categories);
+            }
+            catch (IOException e) {
+                // The log still has everything, so nothing is lost - it just
+                // takes a little longer to recover
+                LOG.error("Unable to write category snapshot {}", version, e);
+                throw new UncheckedIOException(e);
+            }
+
+            for (Map.Entry<Long, File> snapshot : listFiles(SNAPSHOT).headMap(version).entrySet()) {
+                delete(snapshot.getValue());
+            }
+            for (Map.Entry<Long, File> log : listFiles(LOG_SEGMENT).headMap(firstKept).entrySet()) {
+                delete(log.getValue());
+            }
+        });
+    }
+
+    /**
+     * Recovers the categories from the latest snapshot and the changes
+     * logged after it, and starts a new log segment for further changes
+     *
+     * @return  The recovered categories
+     *
+     * @throws  IOException if something can't be read or written
+     */
+    private StoredCategories recover() throws IOException {
+        Files.createDirectories(directory.toPath());
+
+        // Clear up after any snapshot we were in the middle of writing
+        File[] temporaries
+            = directory.listFiles((dir, name) -> name.endsWith(TEMPORARY_SUFFIX));
+        if (temporaries != null) {
+            for (File temporary : temporaries) {
+                delete(temporary);
+            }
+        }
+
+        Recovery recovery = new Recovery();
+        for (Map.Entry<Long, File> snapshot : listFiles(SNAPSHOT).descendingMap().entrySet()) {
+            if (readSnapshot(snapshot.getValue(), recovery)) {
+                break;
+            }
+            LOG.warn("Ignoring damaged category snapshot {}", snapshot.getValue());
+        }
+
+        NavigableMap<Long, File> logs = listFiles(LOG_SEGMENT);
+        int replayed = 0;
+        for (Map.Entry<Long, File> log : logs.entrySet()) {
+            // Skip any segment whose changes are all in the snapshot
+            Long next = logs.higherKey(log.getKey());
+            if (next != null && next <= recovery.version + 1) {
+                continue;
+            }
+
+            try (LogSegment segment = LogSegment.open(log.getValue(), log.getKey())) {
+                replayed += segment.read(recovery::change);
+            }
+        }
+
+        // Segments beyond what we recovered never got a change logged
+        // completely, so they're of no use
+        for (File log : logs.tailMap(recovery.version, false).values()) {
+            delete(log);
+        }
+
+        StoredCategories stored
+            = new StoredCategories(recovery.version, recovery.categories);
+        synchronized (this) {
+            rollSegment(recovery.version + 1);
+            if (replayed > 0) {
+                compact(stored.getVersion(), stored.getCategories());
+            }
+        }
+
+        LOG.info("Recovered {} categories (version {}) from {}, replaying {} "
+                 + "logged changes",
+                 stored.getCategories().size(), stored.getVersion(),
+                 directory, replayed);
+        return stored;
+    }
+
+    /**
+     * Reads a snapshot into the given recovery
+     *
+     * @param file      The snapshot in question
+     * @param recovery  The recovery in question
+     *
+     * @return  false if the snapshot is damaged, in which case the recovery
+     *          is untouched
+     *
+     * @throws  IOException if the snapshot can't be read
+     */
+    private static boolean readSnapshot(File file, Recovery recovery)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ)) {
+            MappedByteBuffer buffer
+                = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            if (buffer.capacity() < 16) {
+                return false;
+            }
+
+            ByteBuffer content = buffer.duplicate();
+            content.limit(buffer.capacity() - 4);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            if (buffer.getInt(buffer.capacity() - 4) != (int) crc.getValue() ||
+                buffer.getInt(0) != SNAPSHOT_MAGIC) {
+                return false;
+            }
+
+            buffer.position(4);
+            long version = buffer.getLong();
+            int count = buffer.getInt();
+            Set<String> categories = new HashSet<>(count * 4 / 3 + 1);
+            byte[] name = new byte[64];
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+                if (length > name.length) {
+                    name = new byte[length];
+                }
+                buffer.get(name, 0, length);
+                categories.add(new String(name, 0, length,
+                                          StandardCharsets.UTF_8));
+            }
+
+            recovery.version = version;
+            recovery.categories = categories;
+            return true;
+        }
+    }
+
+    /**
+     * Writes a snapshot, making sure it's safely on disk before it replaces
+     * anything
+     *
+     * @param version       The version of the categories
+     * @param categories    The categories themselves
+     *
+     * @throws  IOException if the snapshot can't be written
+     */
+    private void writeSnapshot(long version, Set<String> categories)
+        throws IOException {
+        File file = fileFor(SNAPSHOT, version);
+        File temporary = new File(directory, file.getName() + TEMPORARY_SUFFIX);
+        try (FileOutputStream fileOut = new FileOutputStream(temporary)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(fileOut);
+            CheckedOutputStream checked
+                = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(version);
+            out.writeInt(categories.size());
+            for (String category : categories) {
+                byte[] name = category.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+            out.flush();
+
+            // The checksum covers everything but itself
+            new DataOutputStream(buffered)
+                .writeInt((int) checked.getChecksum().getValue());
+            buffered.flush();
+            fileOut.getChannel().force(true);
+        }
+
+        Files.move(temporary.toPath(), file.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    // Makes sure a rename in the directory is on disk.  Not every platform
+    // can do this, so it's only done where possible.
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(),
+                                                    StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            LOG.debug("Unable to sync directory {}", directory, e);
+        }
+    }
+
+    private File fileFor(String kind, long version) {
+        return new File(directory, String.format("%s-%020d", kind, version));
+    }
+
+    private NavigableMap<Long, File> listFiles(String kind) {
+        NavigableMap<Long, File> files = new TreeMap<>();
+        File[] all = directory.listFiles();
+        if (all != null) {
+            for (File file : all) {
+                Matcher matcher = FILE_NAME.matcher(file.getName());
+                if (matcher.matches() && matcher.group(1).equals(kind)) {
+                    files.put(Long.parseLong(matcher.group(2)), file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        }
+        catch (IOException e) {
+            // It'll be tried again the next time round
+            LOG.warn("Unable to delete {}", file, e);
+        }
+    }
+
+    /**
+     * The state of the categories part way through recovery
+     */
+    private static class Recovery {
+        private long version;
+        private Set<String> categories = new HashSet<>();
+
+        void change(byte operation, long version, List<String> changed) {
+            if (version <= this.version) {
+                // Already in the snapshot
+                return;
+            }
+            if (version != this.version + 1) {
+                throw new IllegalStateException("Category log skips from "
+                                                + "version " + this.version
+                                                + " to " + version);
+            }
+
+            if (operation == LogSegment.ADD) {
+                categories.addAll(changed);
+            }
+            else if (operation == LogSegment.DELETE) {
+                changed.forEach(categories::remove);
+            }
+            else {
+                throw new IllegalStateException("Unknown category log "
+                                                + "operation " + operation);
+            }
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.dbrinker.dataCleaner.dao;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A category store which doesn't store anything at all, for when the
+ * categories don't need to outlive the application (as in testing).
+ *
+ * @author Don Brinker
+ */
+public class InMemoryCategoryStore implements CategoryStore {
+    private static final StoredCategories NOTHING_STORED
+        = new StoredCategories(0L, Collections.emptySet());
+
+    @Override
+    public StoredCategories load() {
+        return NOTHING_STORED;
+    }
+
+    @Override
+    public void add(Collection<String> added,
+                    long version,
+                    Set<String> categories) {
+    }
+
+    @Override
+    public void delete(Collection<String> deleted,
+                       long version,
+                       Set<String> categories) {
+    }
+
+    @Override
+    public void replace(long version, Set<String> categories) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
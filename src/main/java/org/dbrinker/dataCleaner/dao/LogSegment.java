@@ -0,0 +1,263 @@
+package org.dbrinker.dataCleaner.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the category change log.  The file is a fixed size, and
+ * memory-mapped, so appending a change is just a copy into memory; the
+ * change is only sure to be on disk once the segment has been forced.
+ *
+ * Each change (which may add or delete any number of categories at once) is
+ * written as a single record of
+ * <pre>
+ *   int    length of the payload
+ *   int    CRC-32 of the payload
+ *   byte   operation (add or delete)
+ *   long   version of the categories after the change
+ *   int    number of categories changed
+ *   then, for each category changed:
+ *     int    length of the category
+ *     byte[] category, in UTF-8
+ * </pre>
+ * A length of zero marks the end of the log.  A record that was only partly
+ * written when the application died fails its CRC check, so reading the log
+ * stops there, and a change is either recovered whole or not at all.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Don Brinker
+ */
+class LogSegment implements AutoCloseable {
+    /**
+     * Operation code for the addition of a category
+     */
+    static final byte ADD = 1;
+
+    /**
+     * Operation code for the deletion of a category
+     */
+    static final byte DELETE = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MIN_PAYLOAD_SIZE = 13;
+
+    private final File file;
+    private final long firstVersion;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+
+    private LogSegment(File file,
+                       long firstVersion,
+                       FileChannel channel,
+                       MappedByteBuffer buffer) {
+        this.file = file;
+        this.firstVersion = firstVersion;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new, empty segment to be appended to
+     *
+     * @param file          The file for the segment.  Must not exist yet.
+     * @param firstVersion  The version of the first change to be logged in
+     *                      the segment
+     * @param size          The size of the segment, in bytes
+     *
+     * @return  The new segment
+     *
+     * @throws  IOException if the segment can't be created
+     */
+    static LogSegment create(File file, long firstVersion, int size)
+        throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer
+                = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+            return new LogSegment(file, firstVersion, channel, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment, to be read
+     *
+     * @param file          The file holding the segment
+     * @param firstVersion  The version of the first change logged in the
+     *                      segment
+     *
+     * @return  The segment
+     *
+     * @throws  IOException if the segment can't be opened
+     */
+    static LogSegment open(File file, long firstVersion) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer
+                = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+            return new LogSegment(file, firstVersion, channel, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieves the file holding the segment
+     *
+     * @return  The file in question
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Retrieves the version of the first change logged in the segment
+     *
+     * @return  The version in question
+     */
+    long getFirstVersion() {
+        return firstVersion;
+    }
+
+    /**
+     * Appends a change to the segment
+     *
+     * @param operation     The operation ({@link #ADD} or {@link #DELETE})
+     * @param version       The version of the categories after the change
+     * @param categories    The categories changed
+     *
+     * @return  false if there wasn't room for the change in the segment
+     */
+    boolean append(byte operation,
+                   long version,
+                   Collection<String> categories) {
+        byte[][] names = new byte[categories.size()][];
+        long payloadSize = MIN_PAYLOAD_SIZE;
+        int i = 0;
+        for (String category : categories) {
+            names[i] = category.getBytes(StandardCharsets.UTF_8);
+            payloadSize += 4 + names[i].length;
+            i++;
+        }
+
+        // Leave room for the end-of-log marker after the record
+        int start = buffer.position();
+        if (start + HEADER_SIZE + payloadSize + 4 > buffer.capacity()) {
+            return false;
+        }
+
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(operation);
+        buffer.putLong(version);
+        buffer.putInt(names.length);
+        for (byte[] name : names) {
+            buffer.putInt(name.length);
+            buffer.put(name);
+        }
+
+        // The length goes in last, so that the record doesn't exist as far
+        // as a reader is concerned until everything else is in place
+        buffer.putInt(start + 4,
+                      checksum(start + HEADER_SIZE, (int) payloadSize));
+        buffer.putInt(start, (int) payloadSize);
+        return true;
+    }
+
+    /**
+     * Makes sure everything appended so far is written to disk
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Reads the segment's changes in order, stopping at the end of the log
+     * or at the first record that wasn't completely written
+     *
+     * @param reader    Receives each change
+     *
+     * @return  The number of changes read
+     */
+    int read(ChangeReader reader) {
+        int count = 0;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int payloadSize = buffer.getInt(position);
+            int payloadStart = position + HEADER_SIZE;
+            if (payloadSize < MIN_PAYLOAD_SIZE ||
+                payloadSize > buffer.capacity() - payloadStart ||
+                buffer.getInt(position + 4) != checksum(payloadStart,
+                                                        payloadSize)) {
+                break;
+            }
+
+            byte operation = buffer.get(payloadStart);
+            long version = buffer.getLong(payloadStart + 1);
+            int numCategories = buffer.getInt(payloadStart + 9);
+            List<String> categories = new ArrayList<>(numCategories);
+            buffer.position(payloadStart + MIN_PAYLOAD_SIZE);
+            for (int i = 0; i < numCategories; i++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                categories.add(new String(name, StandardCharsets.UTF_8));
+            }
+            reader.change(operation, version, categories);
+
+            count++;
+            position = payloadStart + payloadSize;
+        }
+        return count;
+    }
+
+    private int checksum(int start, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(start + length);
+        payload.position(start);
+
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Receives the changes read from a segment
+     */
+    @FunctionalInterface
+    interface ChangeReader {
+        /**
+         * Receives a change
+         *
+         * @param operation     The operation ({@link #ADD} or
+         *                      {@link #DELETE})
+         * @param version       The version of the categories after the
+         *                      change
+         * @param categories    The categories changed
+         */
+        void change(byte operation, long version, List<String> categories);
+    }
+}
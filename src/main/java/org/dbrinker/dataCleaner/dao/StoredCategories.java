@@ -0,0 +1,50 @@
+package org.dbrinker.dataCleaner.dao;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The categories as read back from a {@link CategoryStore}, along with their
+ * version.
+ *
+ * @author Don Brinker
+ */
+public final class StoredCategories {
+    private final long version;
+    private final ImmutableSet<String> categories;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param version       The version of the categories
+     * @param categories    The categories themselves.  Presumed to be
+     *                      non-null; copied.
+     */
+    public StoredCategories(long version, Collection<String> categories) {
+        Objects.requireNonNull(categories, "Categories must not be null");
+
+        this.version = version;
+        this.categories = ImmutableSet.copyOf(categories);
+    }
+
+    /**
+     * Retrieves the version of the categories
+     *
+     * @return  The version, or zero if nothing was stored
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the categories
+     *
+     * @return  The categories, as an unmodifiable set
+     */
+    public Set<String> getCategories() {
+        return categories;
+    }
+}
@@ -0,0 +1,119 @@
+package org.dbrinker.dataCleaner.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations.  Durations are recorded in nanoseconds, into
+ * buckets whose upper bounds are successive powers of two, from 2^10ns
+ * (about a microsecond) to 2^36ns (about 69 seconds); anything longer falls
+ * into a final, unbounded bucket.
+ *
+ * Recording a duration is cheap and never blocks, so it is safe to do on
+ * hot paths from many threads at once.  Reads are not atomic with respect to
+ * recording, so a reading taken while durations are being recorded may be
+ * very slightly inconsistent (e.g. the sum may include a duration which the
+ * buckets don't yet).
+ *
+ * @author Don Brinker
+ */
+public class Histogram {
+    // The upper bound of the first bucket is 2^MIN_BOUND_BITS nanoseconds
+    private static final int MIN_BOUND_BITS = 10;
+
+    // The number of bounded buckets
+    private static final int NUM_BOUNDED_BUCKETS = 27;
+
+    private final LongAdder[] buckets = new LongAdder[NUM_BOUNDED_BUCKETS + 1];
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Creates a new instance of this class
+     */
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the given duration
+     *
+     * @param nanos     The duration, in nanoseconds.  Negative durations (as
+     *                  can happen if the clock misbehaves) are recorded as
+     *                  zero.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0L);
+        buckets[bucketOf(nanos)].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Retrieves the number of buckets in the histogram, including the final
+     * unbounded bucket
+     *
+     * @return  The number of buckets
+     */
+    public int getNumBuckets() {
+        return buckets.length;
+    }
+
+    /**
+     * Retrieves the upper bound of the given bucket
+     *
+     * @param bucket    The bucket in question
+     *
+     * @return  The (inclusive) upper bound, in seconds.  The final bucket is
+     *          unbounded, so has an upper bound of infinity.
+     */
+    public double getUpperBound(int bucket) {
+        if (bucket >= NUM_BOUNDED_BUCKETS) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        return (double) (1L << (MIN_BOUND_BITS + bucket))
+               / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Retrieves the number of durations recorded in each bucket
+     *
+     * @return  The counts, by bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Retrieves the sum of all durations recorded
+     *
+     * @return  The sum, in seconds
+     */
+    public double getSum() {
+        return (double) sum.sum() / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Finds the bucket into which the given duration falls
+     *
+     * @param nanos     The duration, in nanoseconds.  Presumed to be
+     *                  non-negative.
+     *
+     * @return  The bucket in question
+     */
+    static int bucketOf(long nanos) {
+        if (nanos <= (1L << MIN_BOUND_BITS)) {
+            return 0;
+        }
+
+        // The smallest power of two no less than the duration
+        int bits = Long.SIZE - Long.numberOfLeadingZeros(nanos - 1);
+        return Math.min(bits - MIN_BOUND_BITS, NUM_BOUNDED_BUCKETS);
+    }
+}
@@ -0,0 +1,241 @@
+package org.dbrinker.dataCleaner.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of the metrics gathered by the application, so that they can be
+ * reported.  Metrics are grouped into families by name; the metrics in a
+ * family all measure the same thing, and are told apart by their labels
+ * (e.g. a family measuring lock wait times might have one metric per lock).
+ *
+ * Metrics are reported in the Prometheus text exposition format, which is
+ * simple enough to read by eye as well.
+ *
+ * @author Don Brinker
+ */
+@Component
+public class MetricsRegistry {
+    private final ConcurrentMap<String, Family> families
+        = new ConcurrentSkipListMap<>();
+
+    /**
+     * Retrieves the counter with the given name and labels, creating it if
+     * necessary.  A counter only ever goes up.
+     *
+     * @param name      The name of the counter's family
+     * @param help      A description of what the family counts
+     * @param labels    The labels of the counter, as alternating names and
+     *                  values
+     *
+     * @return  The counter in question
+     *
+     * @throws  IllegalArgumentException if the family already exists, and
+     *          isn't a family of counters
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) getFamily(name, help, Type.COUNTER)
+                               .getMetric(labels, LongAdder::new);
+    }
+
+    /**
+     * Registers a gauge with the given name and labels.  A gauge measures
+     * some current value, which may go up or down.  If the gauge already
+     * exists, it is left as it is.
+     *
+     * @param name      The name of the gauge's family
+     * @param help      A description of what the family measures
+     * @param value     Supplies the gauge's current value
+     * @param labels    The labels of the gauge, as alternating names and
+     *                  values
+     *
+     * @throws  IllegalArgumentException if the family already exists, and
+     *          isn't a family of gauges
+     */
+    public void gauge(String name,
+                      String help,
+                      LongSupplier value,
+                      String... labels) {
+        Objects.requireNonNull(value, "Gauge value must not be null");
+        getFamily(name, help, Type.GAUGE).getMetric(labels, () -> value);
+    }
+
+    /**
+     * Retrieves the histogram with the given name and labels, creating it if
+     * necessary.
+     *
+     * @param name      The name of the histogram's family
+     * @param help      A description of what the family measures
+     * @param labels    The labels of the histogram, as alternating names and
+     *                  values
+     *
+     * @return  The histogram in question
+     *
+     * @throws  IllegalArgumentException if the family already exists, and
+     *          isn't a family of histograms
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) getFamily(name, help, Type.HISTOGRAM)
+                               .getMetric(labels, Histogram::new);
+    }
+
+    /**
+     * Writes the current value of every metric to the given writer, in the
+     * Prometheus text exposition format
+     *
+     * @param out   The writer in question
+     *
+     * @throws  IOException if the metrics can't be written
+     */
+    public void write(Writer out) throws IOException {
+        for (Family family : families.values()) {
+            family.write(out);
+        }
+    }
+
+    /**
+     * Retrieves the family with the given name, creating it if necessary
+     *
+     * @param name  The name of the family
+     * @param help  A description of the family
+     * @param type  The type of metrics in the family
+     *
+     * @return  The family in question
+     */
+    private Family getFamily(String name, String help, Type type) {
+        Family family
+            = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a "
+                                               + family.type + ", not a "
+                                               + type);
+        }
+
+        return family;
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * A family of metrics of the same type, each with its own labels
+     */
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+
+        // The metrics in the family, keyed by their rendered labels
+        private final ConcurrentMap<String, Object> metrics
+            = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        Object getMetric(String[] labels,
+                         Supplier<Object> factory) {
+            return metrics.computeIfAbsent(renderLabels(labels),
+                                           l -> factory.get());
+        }
+
+        void write(Writer out) throws IOException {
+            out.write("# HELP " + name + " " + help + "\n");
+            out.write("# TYPE " + name + " " + type + "\n");
+
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                String labels = entry.getKey();
+                switch (type) {
+                    case COUNTER:
+                        writeSample(out, name, labels,
+                                    ((LongAdder) entry.getValue()).sum());
+                        break;
+                    case GAUGE:
+                        writeSample(out, name, labels,
+                                    ((LongSupplier) entry.getValue()).getAsLong());
+                        break;
+                    default:
+                        writeHistogram(out, labels,
+                                       (Histogram) entry.getValue());
+                        break;
+                }
+            }
+        }
+
+        private void writeHistogram(Writer out,
+                                    String labels,
+                                    Histogram histogram) throws IOException {
+            // Prometheus buckets are cumulative
+            long[] counts = histogram.getBucketCounts();
+            long count = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+                double bound = histogram.getUpperBound(i);
+                String le = Double.isInfinite(bound) ? "+Inf"
+                                                     : Double.toString(bound);
+                writeSample(out, name + "_bucket",
+                            addLabel(labels, "le", le), count);
+            }
+
+            writeSample(out, name + "_sum", labels, histogram.getSum());
+            writeSample(out, name + "_count", labels, count);
+        }
+
+        private static void writeSample(Writer out,
+                                        String name,
+                                        String labels,
+                                        Object value) throws IOException {
+            out.write(name);
+            if (!labels.isEmpty()) {
+                out.write("{" + labels + "}");
+            }
+            out.write(" " + value + "\n");
+        }
+    }
+
+    /**
+     * Renders the given labels as they appear in the exposition format
+     *
+     * @param labels    The labels, as alternating names and values
+     *
+     * @return  The rendered labels, without the enclosing braces
+     */
+    private static String renderLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as "
+                                               + "name/value pairs");
+        }
+
+        String rendered = "";
+        for (int i = 0; i < labels.length; i += 2) {
+            rendered = addLabel(rendered, labels[i], labels[i + 1]);
+        }
+
+        return rendered;
+    }
+
+    private static String addLabel(String labels, String name, String value) {
+        String escaped = value.replace("\\", "\\\\")
+                              .replace("\"", "\\\"")
+                              .replace("\n", "\\n");
+        return (labels.isEmpty() ? "" : labels + ",")
+               + name + "=\"" + escaped + "\"";
+    }
+}
@@ -0,0 +1,44 @@
+package org.dbrinker.dataCleaner.model;
+
+import java.util.Objects;
+
+/**
+ * Defines the response to a bulk change of categories
+ *
+ * @author Don Brinker
+ */
+public class CategoryChangeResponse {
+    private int numChanged;
+
+    public CategoryChangeResponse() {
+    }
+
+    public CategoryChangeResponse(int numChanged) {
+        this.numChanged = numChanged;
+    }
+
+    public int getNumChanged() {
+        return numChanged;
+    }
+
+    public void setNumChanged(int numChanged) {
+        this.numChanged = numChanged;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        CategoryChangeResponse that = (CategoryChangeResponse) obj;
+        return Objects.equals(numChanged, that.numChanged);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(numChanged);
+    }
+}
@@ -0,0 +1,119 @@
+package org.dbrinker.dataCleaner.model;
+
+import java.util.Objects;
+
+/**
+ * Defines the status of an asynchronous request to clean a set of category
+ * data.  Times are in milliseconds since the epoch, and are null until the
+ * job reaches the associated point.
+ *
+ * @author Don Brinker
+ */
+public class DataSetJob {
+    private String id;
+    private JobStatus status;
+    private int inputSize;
+    private Long submitted;
+    private Long started;
+    private Long finished;
+    private String error;
+
+    public DataSetJob() {
+    }
+
+    public DataSetJob(String id,
+                      JobStatus status,
+                      int inputSize,
+                      Long submitted,
+                      Long started,
+                      Long finished,
+                      String error) {
+        this.id = id;
+        this.status = status;
+        this.inputSize = inputSize;
+        this.submitted = submitted;
+        this.started = started;
+        this.finished = finished;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(JobStatus status) {
+        this.status = status;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public void setInputSize(int inputSize) {
+        this.inputSize = inputSize;
+    }
+
+    public Long getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(Long submitted) {
+        this.submitted = submitted;
+    }
+
+    public Long getStarted() {
+        return started;
+    }
+
+    public void setStarted(Long started) {
+        this.started = started;
+    }
+
+    public Long getFinished() {
+        return finished;
+    }
+
+    public void setFinished(Long finished) {
+        this.finished = finished;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        DataSetJob that = (DataSetJob) obj;
+        return inputSize == that.inputSize &&
+               Objects.equals(id, that.id) &&
+               status == that.status &&
+               Objects.equals(submitted, that.submitted) &&
+               Objects.equals(started, that.started) &&
+               Objects.equals(finished, that.finished) &&
+               Objects.equals(error, that.error);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, status, inputSize, submitted, started,
+                            finished, error);
+    }
+}
@@ -0,0 +1,131 @@
+package org.dbrinker.dataCleaner.model;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Defines the state of a session in which a single data set is cleaned over
+ * several batches.  Times are in milliseconds since the epoch.
+ *
+ * @author Don Brinker
+ */
+public class DataSetSession {
+    private String id;
+    private long categoryVersion;
+    private long opened;
+    private long lastUpdated;
+    private int numBatches;
+    private long numReceived;
+    private long numAccepted;
+    private List<CategoryCount> counts;
+
+    public DataSetSession() {
+    }
+
+    public DataSetSession(String id,
+                          long categoryVersion,
+                          long opened,
+                          long lastUpdated,
+                          int numBatches,
+                          long numReceived,
+                          long numAccepted,
+                          List<CategoryCount> counts) {
+        this.id = id;
+        this.categoryVersion = categoryVersion;
+        this.opened = opened;
+        this.lastUpdated = lastUpdated;
+        this.numBatches = numBatches;
+        this.numReceived = numReceived;
+        this.numAccepted = numAccepted;
+        this.counts = counts;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getCategoryVersion() {
+        return categoryVersion;
+    }
+
+    public void setCategoryVersion(long categoryVersion) {
+        this.categoryVersion = categoryVersion;
+    }
+
+    public long getOpened() {
+        return opened;
+    }
+
+    public void setOpened(long opened) {
+        this.opened = opened;
+    }
+
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(long lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
+    public int getNumBatches() {
+        return numBatches;
+    }
+
+    public void setNumBatches(int numBatches) {
+        this.numBatches = numBatches;
+    }
+
+    public long getNumReceived() {
+        return numReceived;
+    }
+
+    public void setNumReceived(long numReceived) {
+        this.numReceived = numReceived;
+    }
+
+    public long getNumAccepted() {
+        return numAccepted;
+    }
+
+    public void setNumAccepted(long numAccepted) {
+        this.numAccepted = numAccepted;
+    }
+
+    public List<CategoryCount> getCounts() {
+        return counts;
+    }
+
+    public void setCounts(List<CategoryCount> counts) {
+        this.counts = counts;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        DataSetSession that = (DataSetSession) obj;
+        return categoryVersion == that.categoryVersion &&
+               opened == that.opened &&
+               lastUpdated == that.lastUpdated &&
+               numBatches == that.numBatches &&
+               numReceived == that.numReceived &&
+               numAccepted == that.numAccepted &&
+               Objects.equals(id, that.id) &&
+               Objects.equals(counts, that.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, categoryVersion, opened, lastUpdated,
+                            numBatches, numReceived, numAccepted, counts);
+    }
+}
@@ -0,0 +1,42 @@
+package org.dbrinker.dataCleaner.model;
+
+/**
+ * Defines the states a data set cleaning job passes through
+ *
+ * @author Don Brinker
+ */
+public enum JobStatus {
+    /**
+     * Waiting for a worker to pick it up
+     */
+    QUEUED,
+
+    /**
+     * Currently being cleaned
+     */
+    RUNNING,
+
+    /**
+     * Finished cleaning; the result is available
+     */
+    SUCCEEDED,
+
+    /**
+     * Cleaning failed; no result is available
+     */
+    FAILED,
+
+    /**
+     * Cancelled before it could finish
+     */
+    CANCELLED;
+
+    /**
+     * Indicates whether a job in this state is finished, one way or another
+     *
+     * @return  true if the job will not change state again
+     */
+    public boolean isFinished() {
+        return this != QUEUED && this != RUNNING;
+    }
+}
@@ -0,0 +1,250 @@
+package org.dbrinker.dataCleaner.service;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds the known category nearest to a misspelt one, such as "PERSNO" or
+ * "Place ", within a maximum edit distance.  Distances are counted in
+ * insertions, deletions, substitutions and transpositions of adjacent
+ * characters, ignoring case.
+ *
+ * The index is a deletion dictionary, as used by SymSpell: every string
+ * which can be made by deleting up to the maximum distance of characters from
+ * a category maps back to that category.  Two strings within that distance
+ * of each other always share such a deletion, so a lookup only has to
+ * generate the deletions of the misspelt category and check the categories
+ * they lead to - rather than comparing it against every category there is.
+ *
+ * Rather than the deletions themselves, the index holds a hash of each, along
+ * with the category it came from, in one sorted array.  That is far smaller
+ * and quicker to build than a map of strings, and since every candidate is
+ * checked anyway, two deletions with the same hash only cost a wasted check.
+ *
+ * A category is only corrected if exactly one known category is nearest to
+ * it; if several are equally near, there's no telling which was meant, so
+ * it is left alone.
+ *
+ * Instances are immutable and thread safe, and are built once for each
+ * version of the categories, by {@link CategoryDictionary#getCorrector(int)}.
+ *
+ * @author Don Brinker
+ */
+final class CategoryCorrector {
+    private final int maxDistance;
+
+    // The categories, by id, in the case they're compared in
+    private final String[] folded;
+    private final int maxLength;
+
+    // The hash of each deletion of each category in the high half, and the
+    // id of the category in the low half, sorted by hash
+    private final long[] deletions;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param dictionary    The known categories.  Presumed to be non-null.
+     * @param maxDistance   The furthest a category may be from a known one
+     *                      and still be corrected to it.  Presumed to be
+     *                      positive.
+     */
+    CategoryCorrector(CategoryDictionary dictionary, int maxDistance) {
+        this.maxDistance = maxDistance;
+        this.folded = new String[dictionary.size()];
+
+        Entries entries = new Entries(folded.length * 8);
+        int longest = 0;
+        for (int id = 0; id < folded.length; id++) {
+            folded[id] = fold(dictionary.categoryOf(id));
+            longest = Math.max(longest, folded[id].length());
+            int categoryId = id;
+            forEachDeletion(folded[id],
+                            hash -> entries.add(entry(hash, categoryId)));
+        }
+        this.maxLength = longest;
+
+        this.deletions = Arrays.copyOf(entries.values, entries.size);
+        Arrays.sort(deletions);
+    }
+
+    /**
+     * Retrieves the furthest a category may be from a known one and still be
+     * corrected to it
+     *
+     * @return  The distance in question
+     */
+    int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Finds the known category nearest to the given one
+     *
+     * @param category  The category to correct.  Presumed to be non-null.
+     *
+     * @return  The id of the one nearest known category, or
+     *          {@link CategoryDictionary#UNKNOWN} if there are none within
+     *          the maximum distance, or more than one is nearest
+     */
+    int correct(String category) {
+        String query = fold(category);
+        if (query.length() > maxLength + maxDistance) {
+            // Too long to be near anything, and not worth taking apart
+            return CategoryDictionary.UNKNOWN;
+        }
+
+        int best = CategoryDictionary.UNKNOWN;
+        int bestDistance = maxDistance + 1;
+        boolean ambiguous = false;
+        Set<Integer> candidates = new HashSet<>();
+        forEachDeletion(query, hash -> {
+            int i = Arrays.binarySearch(deletions, entry(hash, 0));
+            for (i = i < 0 ? -i - 1 : i;
+                 i < deletions.length && (int) (deletions[i] >>> 32) == hash;
+                 i++) {
+                candidates.add((int) deletions[i]);
+            }
+        });
+
+        for (int id : candidates) {
+            // Anything further than the best so far is as good as infinitely
+            // far, but a tie has to be told apart from that
+            int distance = distance(query, folded[id], bestDistance + 1);
+            if (distance > maxDistance) {
+                continue;
+            }
+            if (distance < bestDistance) {
+                best = id;
+                bestDistance = distance;
+                ambiguous = false;
+            }
+            else if (distance == bestDistance) {
+                ambiguous = true;
+            }
+        }
+
+        return ambiguous ? CategoryDictionary.UNKNOWN : best;
+    }
+
+    // Categories are compared regardless of case
+    private static String fold(String category) {
+        return category.toUpperCase(Locale.ROOT);
+    }
+
+    private static long entry(int hash, int id) {
+        return ((long) hash << 32) | id;
+    }
+
+    // Hands over the hash of every string which can be made by deleting up
+    // to the maximum distance of characters from the given one (including
+    // the string itself), without ever building the strings
+    private void forEachDeletion(String string, IntConsumer action) {
+        forEachDeletion(string, new int[maxDistance], 0, 0, action);
+    }
+
+    private void forEachDeletion(String string,
+                                 int[] deleted,
+                                 int numDeleted,
+                                 int from,
+                                 IntConsumer action) {
+        action.accept(hashWithout(string, deleted, numDeleted));
+        if (numDeleted == deleted.length) {
+            return;
+        }
+        for (int i = from; i < string.length(); i++) {
+            deleted[numDeleted] = i;
+            forEachDeletion(string, deleted, numDeleted + 1, i + 1, action);
+        }
+    }
+
+    // The hash the string would have with the characters at the given
+    // (ascending) positions deleted
+    private static int hashWithout(String string, int[] deleted, int numDeleted) {
+        int hash = 0;
+        int next = 0;
+        for (int i = 0; i < string.length(); i++) {
+            if (next < numDeleted && deleted[next] == i) {
+                next++;
+                continue;
+            }
+            hash = 31 * hash + string.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Works out the edit distance between two strings, counting adjacent
+     * transpositions as a single edit (the "optimal string alignment"
+     * distance)
+     *
+     * @param a         One of the strings
+     * @param b         The other
+     * @param limit     The distance beyond which the exact distance doesn't
+     *                  matter
+     *
+     * @return  The distance between the strings, or the limit if it is at
+     *          least that
+     */
+    static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) >= limit) {
+            return limit;
+        }
+
+        // Only the last two rows of the table are ever needed
+        int[] twoBack = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int distance = Math.min(Math.min(previous[j] + 1,
+                                                 current[j - 1] + 1),
+                                        previous[j - 1] + cost);
+                if (i > 1 && j > 1 &&
+                    a.charAt(i - 1) == b.charAt(j - 2) &&
+                    a.charAt(i - 2) == b.charAt(j - 1)) {
+                    distance = Math.min(distance, twoBack[j - 2] + 1);
+                }
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            if (rowMin >= limit) {
+                return limit;
+            }
+
+            int[] recycled = twoBack;
+            twoBack = previous;
+            previous = current;
+            current = recycled;
+        }
+
+        return Math.min(previous[b.length()], limit);
+    }
+
+    // A growable array of index entries
+    private static final class Entries {
+        private long[] values;
+        private int size;
+
+        private Entries(int capacity) {
+            values = new long[Math.max(16, capacity)];
+        }
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryCount;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tallies the occurrences of each category in a data set.  Categories are
+ * identified by their ids in a {@link CategoryDictionary}, so counting an
+ * occurrence is a simple array increment.  Separate counters over the same
+ * dictionary (for example, ones used for different chunks of the same data
+ * set) can be merged together.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Don Brinker
+ */
+class CategoryCounter {
+    private final CategoryDictionary dictionary;
+    private final long[] counts;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param dictionary    The dictionary identifying the categories to count
+     */
+    CategoryCounter(CategoryDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.counts = new long[dictionary.size()];
+    }
+
+    /**
+     * Counts one more occurrence of the given category
+     *
+     * @param id    The dictionary id of the category in question
+     */
+    void increment(int id) {
+        counts[id]++;
+    }
+
+    /**
+     * Adds all of the counts gathered by another counter to this one
+     *
+     * @param other     The counter to merge in.  Presumed to use the same
+     *                  dictionary as this one.
+     */
+    void addAll(CategoryCounter other) {
+        for (int id = 0; id < counts.length; id++) {
+            counts[id] += other.counts[id];
+        }
+    }
+
+    /**
+     * Retrieves the counts gathered so far.  Counted categories come first,
+     * ordered by decreasing number of occurrences, followed by every other
+     * category in the dictionary with a zero count.  Ties are broken
+     * alphabetically, so the order of the results doesn't depend on how the
+     * counting was split up.
+     *
+     * @param metrics     Records how long the sorting and counting took.
+     *                    Both are also reported to Flight Recorder.
+     *
+     * @return  The categories and counts
+     */
+    List<CategoryCount> getCounts(CleaningMetrics metrics) {
+        return getCounts(metrics, CountPage.ALL);
+    }
+
+    /**
+     * Retrieves a page of the counts gathered so far, ordered as with
+     * {@link #getCounts(CleaningMetrics)}.  Only the counted categories up to
+     * the end of the page are ever put in order, so the top few of a great
+     * many categories are found without sorting the rest.
+     *
+     * @param metrics     Records how long the sorting and counting took.
+     *                    Both are also reported to Flight Recorder.
+     * @param page        The counts to retrieve
+     *
+     * @return  The categories and counts on the page
+     */
+    List<CategoryCount> getCounts(CleaningMetrics metrics, CountPage page) {
+        CleaningStageEvent sortEvent = new CleaningStageEvent();
+        sortEvent.begin();
+        long start = System.nanoTime();
+        int numCounted = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                numCounted++;
+            }
+        }
+        int[] countedIds = topCountedIds(
+            (int) Math.min(page.getEnd(), numCounted), numCounted);
+        long sorted = System.nanoTime();
+        sortEvent.finish(CleaningStageEvent.SORT, countedIds.length);
+
+        CleaningStageEvent countEvent = new CleaningStageEvent();
+        countEvent.begin();
+        int remaining = page.getLimit();
+        List<CategoryCount> result = new ArrayList<>(
+            Math.min(remaining, page.isIncludeZero() ? counts.length : numCounted));
+        for (int i = page.getOffset(); i < countedIds.length; i++) {
+            int id = countedIds[i];
+            result.add(new CategoryCount(dictionary.categoryOf(id),
+                                         counts[id]));
+            remaining--;
+        }
+
+        if (page.isIncludeZero()) {
+            // The zero counts start where the counted ones leave off
+            long toSkip = Math.max(0L, (long) page.getOffset() - numCounted);
+            for (int id = 0; id < counts.length && remaining > 0; id++) {
+                if (counts[id] != 0) {
+                    continue;
+                }
+                if (toSkip > 0) {
+                    toSkip--;
+                    continue;
+                }
+                result.add(new CategoryCount(dictionary.categoryOf(id), 0L));
+                remaining--;
+            }
+        }
+
+        metrics.counted(sorted - start, System.nanoTime() - sorted);
+        countEvent.finish(CleaningStageEvent.COUNT, result.size());
+        return result;
+    }
+
+    // Retrieves the ids of the most counted categories, ordered by decreasing
+    // count and then increasing id.  Rather than sorting boxed ids with a
+    // comparator, pack each count and id into a single long and sort those.
+    // The id is stored inverted in the low bits, so that when walking the
+    // sorted keys backwards (for decreasing counts) equal counts come out in
+    // increasing id order.  If only some of the counted categories are
+    // wanted, the keys of those are picked out with a bounded heap first, so
+    // the rest are never sorted at all.
+    private int[] topCountedIds(int wanted, int numCounted) {
+        int idBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, counts.length));
+        long idMask = (1L << idBits) - 1;
+        long maxCount = 1L << (63 - idBits);
+
+        boolean partial = wanted < numCounted;
+        long[] keys = new long[partial ? wanted : numCounted];
+        int numKeys = 0;
+        for (int id = 0; id < counts.length && wanted > 0; id++) {
+            long count = counts[id];
+            if (count == 0) {
+                continue;
+            }
+            if (count >= maxCount) {
+                // Won't fit alongside the id - not something a single
+                // request can realistically hit, but fall back just in case
+                return Arrays.copyOf(sortedCountedIdsSlowly(), wanted);
+            }
+            long key = (count << idBits) | (idMask - id);
+            if (numKeys < keys.length) {
+                keys[numKeys++] = key;
+                if (partial && numKeys == keys.length) {
+                    heapify(keys);
+                }
+            }
+            else if (key > keys[0]) {
+                // Beats the least of the keys kept so far
+                keys[0] = key;
+                siftDown(keys, 0);
+            }
+        }
+        Arrays.sort(keys, 0, numKeys);
+
+        int[] ids = new int[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            ids[i] = (int) (idMask - (keys[numKeys - 1 - i] & idMask));
+        }
+        return ids;
+    }
+
+    // Arranges the keys as a binary min-heap
+    private static void heapify(long[] heap) {
+        for (int i = heap.length / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i);
+        }
+    }
+
+    private static void siftDown(long[] heap, int i) {
+        long key = heap[i];
+        int half = heap.length / 2;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heap.length && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (key <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+    private int[] sortedCountedIdsSlowly() {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != 0) {
+                ids.add(id);
+            }
+        }
+        ids.sort((id1, id2) -> counts[id1] != counts[id2]
+                               ? Long.compare(counts[id2], counts[id1])
+                               : Integer.compare(id1, id2));
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,153 @@
+package org.dbrinker.dataCleaner.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable encoding of a particular version of the known categories as
+ * dense integer ids, running from zero to one less than the number of
+ * categories.  Ids are assigned in alphabetical order of the categories, so
+ * comparing two ids is the same as comparing the categories themselves.
+ *
+ * Encoding the categories this way lets per-category data (such as counts)
+ * live in plain arrays indexed by id, rather than in maps keyed by the
+ * category strings.  Note that ids are only meaningful within a single
+ * dictionary; the same category may have a different id in another version.
+ *
+ * A dictionary can also normalize and correct misspelt categories, with a
+ * lookup table and an index which are built the first time they're asked
+ * for, and kept for as long as the dictionary itself - so they're rebuilt
+ * once for each version of the categories, rather than once for each request.
+ *
+ * @author Don Brinker
+ */
+public final class CategoryDictionary {
+    /**
+     * The id returned for a category not in the dictionary
+     */
+    public static final int UNKNOWN = -1;
+
+    private final long version;
+    private final String[] categories;
+    private final Map<String, Integer> ids;
+
+    private volatile CategoryNormalizer normalizer;
+    private volatile CategoryCorrector corrector;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param version       The version of the categories being encoded
+     * @param categories    The categories to encode.  Presumed to be non-null
+     *                      and free of duplicates.
+     */
+    public CategoryDictionary(long version, Collection<String> categories) {
+        Objects.requireNonNull(categories, "Categories must not be null");
+
+        this.version = version;
+        this.categories = categories.toArray(new String[categories.size()]);
+        Arrays.sort(this.categories);
+
+        // The ids are boxed exactly once, here, so looking one up later
+        // doesn't allocate anything
+        this.ids = new HashMap<>(this.categories.length * 2);
+        for (int id = 0; id < this.categories.length; id++) {
+            ids.put(this.categories[id], id);
+        }
+    }
+
+    /**
+     * Retrieves the version of the categories encoded by this dictionary
+     *
+     * @return  The version in question
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the number of categories in the dictionary.  All ids are less
+     * than this number.
+     *
+     * @return  The number of categories
+     */
+    public int size() {
+        return categories.length;
+    }
+
+    /**
+     * Retrieves the id of the given category
+     *
+     * @param category  The category in question
+     *
+     * @return  The id of the category, or {@link #UNKNOWN} if it is not in
+     *          the dictionary
+     */
+    public int idOf(String category) {
+        Integer id = ids.get(category);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * Retrieves the category with the given id
+     *
+     * @param id    The id in question.  Presumed to be valid.
+     *
+     * @return  The associated category
+     */
+    public String categoryOf(int id) {
+        return categories[id];
+    }
+
+    /**
+     * Retrieves the corrector for misspellings of these categories, building
+     * it if need be
+     *
+     * @param maxDistance   The furthest a category may be from a known one
+     *                      and still be corrected to it.  Presumed to be
+     *                      positive.
+     *
+     * @return  The corrector in question
+     */
+    CategoryCorrector getCorrector(int maxDistance) {
+        CategoryCorrector current = corrector;
+        if (current == null || current.getMaxDistance() != maxDistance) {
+            // Building the index isn't cheap, so only do it once, however
+            // many requests need it at the same time
+            synchronized (this) {
+                current = corrector;
+                if (current == null || current.getMaxDistance() != maxDistance) {
+                    current = new CategoryCorrector(this, maxDistance);
+                    corrector = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Retrieves the normalizer for variants of these categories, compiling
+     * it if need be
+     *
+     * @param rules     The rules by which categories are matched.  Presumed
+     *                  to be non-null.
+     *
+     * @return  The normalizer in question
+     */
+    CategoryNormalizer getNormalizer(NormalizationRules rules) {
+        CategoryNormalizer current = normalizer;
+        if (current == null || !current.getRules().equals(rules)) {
+            synchronized (this) {
+                current = normalizer;
+                if (current == null || !current.getRules().equals(rules)) {
+                    current = new CategoryNormalizer(this, rules);
+                    normalizer = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,113 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Matches categories which aren't known as they are, such as " person" or
+ * "PERSONNE", to known ones by a set of {@link NormalizationRules}.
+ *
+ * The rules are compiled into a lookup table from the normal form of each
+ * known category (and of each alias) to the category's id.  A raw category
+ * is then matched by normalizing it just the once and looking the result up.
+ * Since the same few variants tend to turn up again and again, the outcome
+ * for each raw category is also remembered, up to a limit, so that most
+ * lookups never normalize anything at all.
+ *
+ * Where several known categories share a normal form, there's no telling
+ * which was meant, so that form doesn't match any of them; the same goes for
+ * aliases which share a normal form but stand for different categories.
+ * Known categories take precedence over aliases which share their normal
+ * form, and an alias for a category that isn't known is ignored.
+ *
+ * Instances are thread safe, and are built once for each version of the
+ * categories, by {@link CategoryDictionary#getNormalizer(NormalizationRules)}.
+ *
+ * @author Don Brinker
+ */
+final class CategoryNormalizer {
+    private final NormalizationRules rules;
+
+    // The id of the category with each normal form
+    private final Map<String, Integer> canonical;
+
+    // The id each raw category seen so far normalized to
+    private final Cache<String, Integer> seen;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param dictionary    The known categories.  Presumed to be non-null.
+     * @param rules         The rules by which categories are matched.
+     *                      Presumed to be non-null.
+     */
+    CategoryNormalizer(CategoryDictionary dictionary, NormalizationRules rules) {
+        this.rules = rules;
+        this.canonical = new HashMap<>(dictionary.size() * 2);
+        for (int id = 0; id < dictionary.size(); id++) {
+            addForm(canonical, rules.normalize(dictionary.categoryOf(id)), id);
+        }
+
+        Map<String, Integer> aliases = new HashMap<>();
+        for (Map.Entry<String, String> alias : rules.getAliases().entrySet()) {
+            int id = dictionary.idOf(alias.getValue());
+            if (id != CategoryDictionary.UNKNOWN) {
+                addForm(aliases, rules.normalize(alias.getKey()), id);
+            }
+        }
+        aliases.forEach(canonical::putIfAbsent);
+
+        this.seen = CacheBuilder.newBuilder()
+                                .maximumSize(rules.getMaxCached())
+                                .build();
+    }
+
+    // Maps the normal form to the category's id, unless another category
+    // already has that form, in which case the form matches neither
+    private static void addForm(Map<String, Integer> forms, String form, int id) {
+        forms.merge(form, id, (existing, added) -> existing.equals(added)
+                                                   ? existing
+                                                   : CategoryDictionary.UNKNOWN);
+    }
+
+    /**
+     * Retrieves the rules by which categories are matched
+     *
+     * @return  The rules in question
+     */
+    NormalizationRules getRules() {
+        return rules;
+    }
+
+    /**
+     * Puts the given category into normal form
+     *
+     * @param category  The category in question.  Presumed to be non-null.
+     *
+     * @return  The normal form of the category
+     */
+    String normalize(String category) {
+        return rules.normalize(category);
+    }
+
+    /**
+     * Matches the given category to a known one
+     *
+     * @param category  The category in question.  Presumed to be non-null.
+     *
+     * @return  The id of the known category with the same normal form, or
+     *          {@link CategoryDictionary#UNKNOWN} if there isn't exactly one
+     */
+    int idOf(String category) {
+        Integer id = seen.getIfPresent(category);
+        if (id == null) {
+            id = canonical.getOrDefault(rules.normalize(category),
+                                        CategoryDictionary.UNKNOWN);
+            seen.put(category, id);
+        }
+        return id;
+    }
+}
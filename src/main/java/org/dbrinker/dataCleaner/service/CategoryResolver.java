@@ -0,0 +1,112 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the unknown categories met during a single request to known ones:
+ * first by normalizing them, then, failing that, by correcting them.  Each
+ * resolution (or failure to resolve) is remembered, so that a variant
+ * repeated throughout a data set is only looked up once.  Categories which
+ * are known as they are never get this far, so resolution costs the common
+ * case nothing.
+ *
+ * Instances are not thread safe, and are intended to be used for the
+ * duration of a single request (or a single chunk of one).
+ *
+ * @author Don Brinker
+ */
+class CategoryResolver {
+    // Don't let a data set full of distinct junk grow this without bound
+    private static final int MAX_REMEMBERED = 10000;
+
+    private final CategoryDictionary dictionary;
+    private final CategoryNormalizer normalizer;
+    private final CategoryCorrector corrector;
+    private final Map<String, Integer> remembered = new HashMap<>();
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param dictionary    The known categories.  Presumed to be non-null.
+     * @param normalizer    Matches variants of known categories.  If null,
+     *                      nothing is normalized.
+     * @param corrector     Finds the known category nearest an unknown one.
+     *                      If null, nothing is corrected.
+     */
+    CategoryResolver(CategoryDictionary dictionary,
+                     CategoryNormalizer normalizer,
+                     CategoryCorrector corrector) {
+        this.dictionary = dictionary;
+        this.normalizer = normalizer;
+        this.corrector = corrector;
+    }
+
+    /**
+     * Retrieves whether this resolver can resolve anything at all
+     *
+     * @return  true if categories are either normalized or corrected
+     */
+    boolean isEnabled() {
+        return normalizer != null || corrector != null;
+    }
+
+    /**
+     * Resolves a category which isn't known as it is
+     *
+     * @param category  The category in question
+     *
+     * @return  The id of the known category it was meant to be, or
+     *          {@link CategoryDictionary#UNKNOWN} if it can't be resolved
+     */
+    int idOf(String category) {
+        if (!isEnabled() || category == null) {
+            return CategoryDictionary.UNKNOWN;
+        }
+
+        Integer id = remembered.get(category);
+        if (id == null) {
+            id = lookUp(category);
+            if (remembered.size() < MAX_REMEMBERED) {
+                remembered.put(category, id);
+            }
+        }
+        return id;
+    }
+
+    private int lookUp(String category) {
+        if (normalizer == null) {
+            return corrector.correct(category);
+        }
+
+        int id = normalizer.idOf(category);
+        if (id == CategoryDictionary.UNKNOWN && corrector != null) {
+            // Misspelt variants are nearer their category once normalized
+            id = corrector.correct(normalizer.normalize(category));
+        }
+        return id;
+    }
+
+    /**
+     * Resolves the category of the given record to a known one
+     *
+     * @param record    The record in question.  Presumed to be non-null.
+     *
+     * @return  The record itself if its category is known, a copy with its
+     *          category resolved if it can be, or null if not
+     */
+    CategoryAndSubcat resolve(CategoryAndSubcat record) {
+        if (dictionary.idOf(record.getCategory()) != CategoryDictionary.UNKNOWN) {
+            return record;
+        }
+
+        int id = idOf(record.getCategory());
+        if (id == CategoryDictionary.UNKNOWN) {
+            return null;
+        }
+        return new CategoryAndSubcat(dictionary.categoryOf(id),
+                                     record.getSubcategory());
+    }
+}
@@ -1,5 +1,6 @@
 package org.dbrinker.dataCleaner.service;
 
+import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -15,10 +16,21 @@ public interface CategoryService {
      * Retrieves a collection of all categories known by the system.  If none
      * have been defined, an empty list will be returned
      *
-     * @return  The known categories.
+     * @return  The known categories.  This is an unmodifiable view of the
+     *          categories at the time of the call.
      */
     Set<String> getCategories();
 
+    /**
+     * Retrieves an immutable snapshot of the categories known by the system.
+     * A snapshot remains valid (if possibly out of date) however the
+     * categories change afterwards, and is tagged with a version which
+     * increases with every change.
+     *
+     * @return  The current snapshot
+     */
+    CategorySnapshot getSnapshot();
+
     /**
      * Adds the given category to the system's known categories.  If the
      * category already exists, this will essentially be a no-op.
@@ -34,4 +46,35 @@ public interface CategoryService {
      * @param categoryToDelete  The category in question
      */
     void deleteCategory(String categoryToDelete);
+
+    /**
+     * Adds all of the given categories to the system's known categories, as a
+     * single change.  Either all of them are added or none are, and readers
+     * never see some added without the others.  Categories which already
+     * exist are skipped.
+     *
+     * @param categoriesToAdd   The categories in question
+     *
+     * @return  The number of categories actually added
+     */
+    int addCategories(Collection<String> categoriesToAdd);
+
+    /**
+     * Deletes all of the given categories from the system, as a single
+     * change.  Categories which have not been previously defined are
+     * skipped.
+     *
+     * @param categoriesToDelete    The categories in question
+     *
+     * @return  The number of categories actually deleted
+     */
+    int deleteCategories(Collection<String> categoriesToDelete);
+
+    /**
+     * Replaces all of the system's known categories with the given ones, as
+     * a single change
+     *
+     * @param categories    The new categories
+     */
+    void replaceCategories(Collection<String> categories);
 }
@@ -1,33 +1,64 @@
 package org.dbrinker.dataCleaner.service;
 
-import org.dbrinker.dataCleaner.annotation.ReadLocked;
+import com.google.common.collect.ImmutableSet;
 import org.dbrinker.dataCleaner.annotation.WriteLocked;
+import org.dbrinker.dataCleaner.aspect.LockTimeoutException;
+import org.dbrinker.dataCleaner.dao.CategoryStore;
+import org.dbrinker.dataCleaner.dao.InMemoryCategoryStore;
+import org.dbrinker.dataCleaner.dao.StoredCategories;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Defines a (very) simple in-memory implementation of the Category Service
- * API.  Note that a traditional service would probably delegate to a Data
- * Access Object, but for simplicity and time's sake, that will be skipped here.
+ * API.  The categories are served from memory, but every change is also
+ * handed to a {@link CategoryStore}, so that (given a store which keeps them
+ * on disk) they survive restarts.
  *
  * @author Don Brinker
  */
 @Service
 public class CategoryServiceImpl implements CategoryService {
-    private Set<String> categories;
+    /**
+     * The default time a change waits for another change to finish, in
+     * seconds
+     */
+    public static final long DEFAULT_WRITE_TIMEOUT_SECONDS = 10L;
+
+    // Changes come from requests, so rather than have request threads pile
+    // up behind a stuck change, give up after a while
+    private static final String WRITE_TIMEOUT_SECONDS
+        = "${dataCleaner.categories.writeTimeoutSeconds:"
+          + DEFAULT_WRITE_TIMEOUT_SECONDS + "}";
+
+    private final CategoryStore store;
+
+    private volatile CategorySnapshot snapshot;
 
     // NOTE: Since the categories are stored in memory, and since we could
     // conceivably have requests coming in to both get and change categories
-    // simultaneously, we'll need to do some locking of the resource.  Since
-    // the majority of our accesses will be reads, we'll use a read-write lock
-    // (to allow multiple readers but only one writer).
+    // simultaneously, we need to make sure readers never see a change half
+    // made.  The categories are read on every cleaning request but change
+    // rarely, so rather than lock them, we use copy-on-write: the current
+    // categories are held in an immutable snapshot, and each change builds a
+    // new snapshot (with a new version) and publishes it with a single
+    // volatile write.  Readers just grab whatever snapshot is current, with
+    // no locking at all, and keep a consistent view for as long as they hang
+    // on to it.
     //
-    // With that said, using a read-write lock is boilerplate city, so we'll
-    // use annotations and aspects to simplify the code.
+    // Writers still need to be kept from trampling on each other, though -
+    // two simultaneous adds could otherwise each copy the same snapshot, and
+    // one add would be lost.  Using a lock for that is boilerplate city, so
+    // we'll use annotations and aspects to simplify the code.
     //
     // If we were to cluster this service but retain the in-memory model for
     // categories, we'd probably need to use something like Zookeeper to
@@ -35,28 +66,52 @@ public class CategoryServiceImpl implements CategoryService {
     // in that case just using a RDBMS or similar with a distributed cache in
     // front.
 
-    // Note that if we were to use a RDBMS or other data store to hold
-    // categories, we'd DEFINITELY want to have that access encapsulated in a
-    // DAO.  This would also result in us starting from scratch with a database
-    // intialization script rather than just injecting a collection of
-    // categories.
+    // Each change is stored before it's published, so if storing it fails,
+    // nobody ever sees it.  Since changes are made under the write lock, the
+    // store sees them one at a time, in version order.
 
     /**
-     * Creates a new instance of this class
+     * Creates a new instance of this class, whose categories are kept in
+     * memory only
      */
     public CategoryServiceImpl() {
+        this(new InMemoryCategoryStore());
+    }
+
+    /**
+     * Creates a new instance of this class, starting from whatever categories
+     * the given store holds
+     *
+     * @param store     The store in which to keep the categories
+     */
+    @Autowired
+    public CategoryServiceImpl(CategoryStore store) {
+        this.store = store;
+
+        StoredCategories stored = store.load();
+        snapshot = new CategorySnapshot(stored.getVersion(),
+                                        stored.getCategories());
     }
 
     /**
      * Retrieves a collection of all categories known by the system.  If none
      * have been defined, an empty list will be returned
      *
-     * @return The known categories.
+     * @return The known categories, as an unmodifiable set.
      */
     @Override
-    @ReadLocked("categories")
     public Set<String> getCategories() {
-        return categories;
+        return snapshot.getCategories();
+    }
+
+    /**
+     * Retrieves an immutable snapshot of the current categories.
+     *
+     * @return  The current snapshot
+     */
+    @Override
+    public CategorySnapshot getSnapshot() {
+        return snapshot;
     }
 
     // Note that we're using @Resource below because it's not possible to
@@ -65,16 +120,30 @@ public class CategoryServiceImpl implements CategoryService {
     // inject the beans into the constructor because @Resource is broken by
     // design to not allow constructor injection.  Go figure...
 
+    /**
+     * Sets the initial collection of categories, if nothing has been stored
+     * yet.  Once anything has been stored, the stored categories win.
+     *
+     * @param validCategories   The initial valid categories
+     */
+    @Resource(name="validCategories")
+    @WriteLocked("categories")
+    public void seedCategories(Set<String> validCategories) {
+        if (snapshot.getVersion() == 0L) {
+            replace(validCategories);
+        }
+    }
+
     /**
      * Sets the collection of categories associated with this service to the
-     * given value.  This will overwrite any previously set categories
+     * given value.  This will overwrite any previously set categories.  The
+     * given set is copied, so later changes to it will have no effect.
      *
      * @param validCategories   The new valid categories
      */
-    @Resource(name="validCategories")
     @WriteLocked("categories")
     public void setCategories(Set<String> validCategories) {
-        this.categories = validCategories;
+        replace(validCategories);
     }
 
     /**
@@ -83,13 +152,18 @@ public class CategoryServiceImpl implements CategoryService {
      *
      * @param categoryToAdd     The category in question.  Presumed to be
      *                          non-null.
+     *
+     * @throws  LockTimeoutException if another change to the categories
+     *          holds them for too long
      */
     @Override
-    @WriteLocked("categories")
+    @WriteLocked(value = "categories",
+                 timeoutString = WRITE_TIMEOUT_SECONDS,
+                 timeoutUnit = TimeUnit.SECONDS)
     public void addCategory(String categoryToAdd) {
         Objects.requireNonNull(categoryToAdd,
                                "Category to add must not be null");
-        categories.add(categoryToAdd);
+        add(Collections.singleton(categoryToAdd));
     }
 
     /**
@@ -98,12 +172,140 @@ public class CategoryServiceImpl implements CategoryService {
      *
      * @param categoryToDelete  The category in question.  Presumed to be
      *                          non-null.
+     *
+     * @throws  LockTimeoutException if another change to the categories
+     *          holds them for too long
      */
     @Override
-    @WriteLocked("categories")
+    @WriteLocked(value = "categories",
+                 timeoutString = WRITE_TIMEOUT_SECONDS,
+                 timeoutUnit = TimeUnit.SECONDS)
     public void deleteCategory(String categoryToDelete) {
         Objects.requireNonNull(categoryToDelete,
                                "Category to delete must not be null");
-        categories.remove(categoryToDelete);
+        delete(Collections.singleton(categoryToDelete));
+    }
+
+    /**
+     * Adds all of the given categories to the system's known categories, as a
+     * single change with a single new version.  Categories which already
+     * exist are skipped; if they all exist, this is a no-op.
+     *
+     * @param categoriesToAdd   The categories in question.  Presumed to be
+     *                          non-null, and must not contain null.
+     *
+     * @return  The number of categories actually added
+     *
+     * @throws  LockTimeoutException if another change to the categories
+     *          holds them for too long
+     */
+    @Override
+    @WriteLocked(value = "categories",
+                 timeoutString = WRITE_TIMEOUT_SECONDS,
+                 timeoutUnit = TimeUnit.SECONDS)
+    public int addCategories(Collection<String> categoriesToAdd) {
+        categoriesToAdd.forEach(category -> Objects.requireNonNull(
+            category, "Categories to add must not contain null"));
+        return add(categoriesToAdd);
+    }
+
+    /**
+     * Deletes all of the given categories from the system, as a single
+     * change with a single new version.  Categories which have not been
+     * previously defined are skipped; if none have, this is a no-op.
+     *
+     * @param categoriesToDelete    The categories in question.  Presumed to
+     *                              be non-null, and must not contain null.
+     *
+     * @return  The number of categories actually deleted
+     *
+     * @throws  LockTimeoutException if another change to the categories
+     *          holds them for too long
+     */
+    @Override
+    @WriteLocked(value = "categories",
+                 timeoutString = WRITE_TIMEOUT_SECONDS,
+                 timeoutUnit = TimeUnit.SECONDS)
+    public int deleteCategories(Collection<String> categoriesToDelete) {
+        categoriesToDelete.forEach(category -> Objects.requireNonNull(
+            category, "Categories to delete must not contain null"));
+        return delete(categoriesToDelete);
+    }
+
+    /**
+     * Replaces all of the system's known categories with the given ones, as
+     * a single change with a single new version.  If the categories are
+     * unchanged, this is a no-op.
+     *
+     * @param categories    The new categories.  Presumed to be non-null, and
+     *                      must not contain null.
+     *
+     * @throws  LockTimeoutException if another change to the categories
+     *          holds them for too long
+     */
+    @Override
+    @WriteLocked(value = "categories",
+                 timeoutString = WRITE_TIMEOUT_SECONDS,
+                 timeoutUnit = TimeUnit.SECONDS)
+    public void replaceCategories(Collection<String> categories) {
+        categories.forEach(category -> Objects.requireNonNull(
+            category, "Categories must not contain null"));
+        ImmutableSet<String> replacement = ImmutableSet.copyOf(categories);
+        if (!replacement.equals(snapshot.getCategories())) {
+            replace(replacement);
+        }
+    }
+
+    // The following should only be called while holding the write lock
+
+    private int add(Collection<String> categoriesToAdd) {
+        Set<String> categories = snapshot.getCategories();
+        Set<String> added = new LinkedHashSet<>();
+        for (String category : categoriesToAdd) {
+            if (!categories.contains(category)) {
+                added.add(category);
+            }
+        }
+
+        if (!added.isEmpty()) {
+            CategorySnapshot next = next(ImmutableSet.<String>builder()
+                                                     .addAll(categories)
+                                                     .addAll(added)
+                                                     .build());
+            store.add(added, next.getVersion(), next.getCategories());
+            snapshot = next;
+        }
+        return added.size();
+    }
+
+    private int delete(Collection<String> categoriesToDelete) {
+        Set<String> categories = snapshot.getCategories();
+        Set<String> deleted = new LinkedHashSet<>();
+        for (String category : categoriesToDelete) {
+            if (categories.contains(category)) {
+                deleted.add(category);
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            CategorySnapshot next
+                = next(categories.stream()
+                                 .filter(category -> !deleted.contains(category))
+                                 .collect(Collectors.toSet()));
+            store.delete(deleted, next.getVersion(), next.getCategories());
+            snapshot = next;
+        }
+        return deleted.size();
+    }
+
+    private void replace(Set<String> categories) {
+        CategorySnapshot next = next(categories);
+        store.replace(next.getVersion(), next.getCategories());
+        snapshot = next;
+    }
+
+    // Holding the write lock means the version can't go backwards
+    private CategorySnapshot next(Set<String> categories) {
+        return new CategorySnapshot(snapshot.getVersion() + 1, categories);
     }
 }
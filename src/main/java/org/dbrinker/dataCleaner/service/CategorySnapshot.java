@@ -0,0 +1,68 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the known categories, as of a particular version.
+ * Every change to the categories produces a new snapshot with a higher
+ * version, so two snapshots with the same version always hold the same
+ * categories.
+ *
+ * Since a snapshot never changes, it can be read freely without any locking,
+ * and anything which needs a consistent view of the categories across several
+ * steps can simply hang on to one.
+ *
+ * @author Don Brinker
+ */
+public final class CategorySnapshot {
+    private final long version;
+    private final ImmutableSet<String> categories;
+    private final CategoryDictionary dictionary;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param version       The version of the categories
+     * @param categories    The categories themselves.  Presumed to be
+     *                      non-null; copied, so later changes to the
+     *                      collection won't affect the snapshot.
+     */
+    public CategorySnapshot(long version, Collection<String> categories) {
+        Objects.requireNonNull(categories, "Categories must not be null");
+
+        this.version = version;
+        this.categories = ImmutableSet.copyOf(categories);
+        this.dictionary = new CategoryDictionary(version, this.categories);
+    }
+
+    /**
+     * Retrieves the version of the snapshot
+     *
+     * @return  The version in question
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the categories in the snapshot
+     *
+     * @return  The categories, as an unmodifiable set
+     */
+    public Set<String> getCategories() {
+        return categories;
+    }
+
+    /**
+     * Retrieves the categories in the snapshot, encoded as dense integer ids
+     *
+     * @return  The dictionary for the categories
+     */
+    public CategoryDictionary getDictionary() {
+        return dictionary;
+    }
+}
@@ -0,0 +1,441 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the results of recently cleaned data sets, so that a data set
+ * sent more than once (as happens with retries, or with the same data fanned
+ * out to several places) is only cleaned the first time.
+ *
+ * Results are keyed by a hash of the data set's content, supplied by the
+ * caller, along with the version of the categories it was cleaned against.
+ * Every count is cached, and each request cuts the page of counts it asked
+ * for out of them, so paging through a data set only cleans it once.
+ * A lookup pins the current snapshot of the categories, and on a miss, the
+ * data set is cleaned against that very snapshot, so a result is only ever
+ * found again while its categories are still current: once they change, the
+ * old results simply stop being asked for, and age out.
+ *
+ * The cache is bounded by the number of records held in the results, rather
+ * than by the number of results, since one big data set can take more room
+ * than thousands of small ones.  Results are also dropped once they have been
+ * cached for a while, regardless.
+ *
+ * Identical requests which arrive together (as when a batch job fires the
+ * same data from many workers at once) would all miss the cache, so while a
+ * data set is being cleaned, any identical request simply waits for that
+ * cleaning and shares its result.  Each waiting request keeps its own
+ * timeout, and can be cancelled (by interrupting it) without disturbing the
+ * others.  If the request doing the cleaning is cancelled, one of those
+ * waiting takes over.
+ *
+ * @author Don Brinker
+ */
+@Component
+public class CleanResultCache {
+    /**
+     * The default maximum number of records held in cached results
+     */
+    public static final long DEFAULT_MAX_RECORDS = 500000L;
+
+    /**
+     * The default time for which a result is cached, in seconds
+     */
+    public static final long DEFAULT_TTL_SECONDS = 300L;
+
+    /**
+     * The default time for which a request waits for an identical request to
+     * be cleaned, in seconds
+     */
+    public static final long DEFAULT_WAIT_TIMEOUT_SECONDS = 30L;
+
+    private final DataCleaner cleaner;
+    private final CategoryService categoryService;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder coalesced;
+    private final LongAdder waitTimeouts;
+
+    // The data sets being cleaned right now, with the results to come
+    private final ConcurrentMap<Key, CompletableFuture<CategoryCleanResponse>> inFlight
+        = new ConcurrentHashMap<>();
+
+    private long maxRecords = DEFAULT_MAX_RECORDS;
+    private long ttlSeconds = DEFAULT_TTL_SECONDS;
+    private boolean coalesce = true;
+    private long waitTimeoutNanos
+        = TimeUnit.SECONDS.toNanos(DEFAULT_WAIT_TIMEOUT_SECONDS);
+    private Ticker ticker = Ticker.systemTicker();
+
+    // Null if caching is switched off
+    private Cache<Key, CategoryCleanResponse> results;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param cleaner           Cleans the data sets which aren't cached
+     * @param categoryService   Supplies the categories to clean against
+     * @param registry          The registry in which to register the cache's
+     *                          metrics
+     */
+    @Autowired
+    public CleanResultCache(DataCleaner cleaner,
+                            CategoryService categoryService,
+                            MetricsRegistry registry) {
+        this.cleaner = cleaner;
+        this.categoryService = categoryService;
+
+        String requestsName = "datacleaner_clean_cache_requests_total";
+        String requestsHelp = "Number of cleaning requests looked up in the "
+                              + "result cache, by result";
+        hits = registry.counter(requestsName, requestsHelp, "result", "hit");
+        misses = registry.counter(requestsName, requestsHelp, "result", "miss");
+        evictions = registry.counter("datacleaner_clean_cache_evictions_total",
+                                     "Number of results evicted from the "
+                                     + "result cache for lack of room or age");
+        coalesced = registry.counter("datacleaner_clean_coalesced_total",
+                                     "Number of times a cleaning request waited "
+                                     + "for an identical one to be cleaned");
+        waitTimeouts = registry.counter("datacleaner_clean_coalesce_timeouts_total",
+                                        "Number of cleaning requests which gave "
+                                        + "up waiting for an identical request "
+                                        + "to be cleaned");
+        registry.gauge("datacleaner_clean_cache_entries",
+                       "Number of results in the result cache",
+                       () -> results == null ? 0L : results.size());
+    }
+
+    /**
+     * Sets the maximum number of records held in cached results.  Zero
+     * switches caching off.
+     *
+     * @param maxRecords    The maximum number of records
+     */
+    @Value("${dataCleaner.cache.maxRecords:" + DEFAULT_MAX_RECORDS + "}")
+    public void setMaxRecords(long maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Sets how long a result is cached for
+     *
+     * @param ttlSeconds    The time to cache a result, in seconds
+     */
+    @Value("${dataCleaner.cache.ttlSeconds:" + DEFAULT_TTL_SECONDS + "}")
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * Sets whether identical requests being cleaned at the same time share
+     * one cleaning
+     *
+     * @param coalesce  Whether to share the cleaning
+     */
+    @Value("${dataCleaner.cache.coalesce:true}")
+    public void setCoalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Sets how long a request waits for an identical request to be cleaned
+     * before giving up
+     *
+     * @param waitTimeoutSeconds    The time to wait, in seconds
+     */
+    @Value("${dataCleaner.cache.waitTimeoutSeconds:"
+           + DEFAULT_WAIT_TIMEOUT_SECONDS + "}")
+    public void setWaitTimeoutSeconds(long waitTimeoutSeconds) {
+        this.waitTimeoutNanos = TimeUnit.SECONDS.toNanos(waitTimeoutSeconds);
+    }
+
+    /**
+     * Sets the source of time for expiring results (for testing)
+     *
+     * @param ticker    The source of time
+     */
+    void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Builds the cache, once it has been configured
+     */
+    @PostConstruct
+    public void start() {
+        if (maxRecords <= 0L) {
+            results = null;
+            return;
+        }
+
+        results = CacheBuilder.newBuilder()
+                              .maximumWeight(maxRecords)
+                              .weigher(CleanResultCache::weigh)
+                              .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                              .ticker(ticker)
+                              .removalListener(notification -> {
+                                  if (notification.wasEvicted()) {
+                                      evictions.increment();
+                                  }
+                              })
+                              .build();
+    }
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data, as
+     * {@link DataCleaner#cleanAndCount(List)} does, unless the same input
+     * has been cleaned against the current categories recently, or is being
+     * cleaned right now
+     *
+     * @param contentHash   A hash of the input's content.  Inputs with the
+     *                      same hash are presumed to be the same.
+     * @param input         The collection of category/subcategory pairs.
+     *                      Presumed to be non-null.
+     *
+     * @return  The cleaned input and the category counts.  May be shared with
+     *          other callers, so must not be changed.
+     *
+     * @throws  CleanTimeoutException if the same input was being cleaned, and
+     *          that took too long
+     * @throws  CancellationException if the calling thread is interrupted
+     */
+    public CategoryCleanResponse cleanAndCount(HashCode contentHash,
+                                               List<CategoryAndSubcat> input) {
+        return cleanAndCount(contentHash, input, CountPage.ALL);
+    }
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data, as
+     * {@link #cleanAndCount(HashCode, List)} does, but returns only the given
+     * page of the counts.  Different pages of the same input share one cached
+     * result; only if caching is switched off is just the page cleaned.
+     *
+     * @param contentHash   A hash of the input's content.  Inputs with the
+     *                      same hash are presumed to be the same.  If null,
+     *                      the input is simply cleaned.
+     * @param input         The collection of category/subcategory pairs.
+     *                      Presumed to be non-null.
+     * @param page          The category counts to return.  Presumed to be
+     *                      non-null.
+     *
+     * @return  The cleaned input and the page of category counts.  May be
+     *          shared with other callers, so must not be changed.
+     *
+     * @throws  CleanTimeoutException if the same input was being cleaned, and
+     *          that took too long
+     * @throws  CancellationException if the calling thread is interrupted
+     */
+    public CategoryCleanResponse cleanAndCount(HashCode contentHash,
+                                               List<CategoryAndSubcat> input,
+                                               CountPage page) {
+        Cache<Key, CategoryCleanResponse> cache = results;
+        CategorySnapshot snapshot = categoryService.getSnapshot();
+        if (contentHash == null || (cache == null && !coalesce)) {
+            return cleaner.cleanAndCount(input, snapshot, page);
+        }
+
+        // A cached result has to serve every page, so has every count
+        CountPage cleaned = cache == null ? page : CountPage.ALL;
+        Key key = new Key(contentHash, snapshot.getVersion(), cleaned);
+        CategoryCleanResponse response;
+        if (cache != null) {
+            response = cache.getIfPresent(key);
+            if (response != null) {
+                hits.increment();
+                return cut(response, cleaned, page);
+            }
+            misses.increment();
+        }
+
+        if (!coalesce) {
+            return cut(clean(cache, key, input, snapshot, cleaned), cleaned, page);
+        }
+
+        long deadline = System.nanoTime() + waitTimeoutNanos;
+        while (true) {
+            CompletableFuture<CategoryCleanResponse> flight
+                = new CompletableFuture<>();
+            CompletableFuture<CategoryCleanResponse> leader
+                = inFlight.putIfAbsent(key, flight);
+            if (leader == null) {
+                return cut(lead(cache, key, flight, input, snapshot, cleaned),
+                           cleaned, page);
+            }
+
+            coalesced.increment();
+            response = await(leader, deadline);
+            if (response != null) {
+                return cut(response, cleaned, page);
+            }
+            // Otherwise, the leader was cancelled, so try to take over
+        }
+    }
+
+    /**
+     * Forgets every cached result
+     */
+    public void clear() {
+        Cache<Key, CategoryCleanResponse> cache = results;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    // Cleans the input on behalf of any identical requests which come along
+    // in the meantime
+    private CategoryCleanResponse lead(Cache<Key, CategoryCleanResponse> cache,
+                                       Key key,
+                                       CompletableFuture<CategoryCleanResponse> flight,
+                                       List<CategoryAndSubcat> input,
+                                       CategorySnapshot snapshot,
+                                       CountPage page) {
+        try {
+            // An identical request may have finished between missing the
+            // cache and getting here
+            CategoryCleanResponse response = lookUp(cache, key);
+            if (response == null) {
+                response = clean(cache, key, input, snapshot, page);
+            }
+            flight.complete(response);
+            return response;
+        }
+        catch (RuntimeException | Error e) {
+            // If this request was cancelled, so is the flight, and the
+            // requests waiting on it will try again
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    // Waits for an identical request to be cleaned, returning null if that
+    // request was cancelled
+    private CategoryCleanResponse await(CompletableFuture<CategoryCleanResponse> leader,
+                                        long deadline) {
+        try {
+            return leader.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        catch (CancellationException e) {
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CancellationException cancelled
+                = new CancellationException("Cleaning was cancelled");
+            cancelled.initCause(e);
+            throw cancelled;
+        }
+        catch (TimeoutException e) {
+            waitTimeouts.increment();
+            throw new CleanTimeoutException(waitTimeoutNanos);
+        }
+        catch (ExecutionException e) {
+            // The same input will fail the same way here
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Cuts the page asked for out of a result cleaned for another page
+    private static CategoryCleanResponse cut(CategoryCleanResponse response,
+                                             CountPage cleaned,
+                                             CountPage page) {
+        if (cleaned.equals(page)) {
+            return response;
+        }
+        return new CategoryCleanResponse(response.getCategories(),
+                                         page.cut(response.getCounts()));
+    }
+
+    private static CategoryCleanResponse lookUp(Cache<Key, CategoryCleanResponse> cache,
+                                                Key key) {
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    private CategoryCleanResponse clean(Cache<Key, CategoryCleanResponse> cache,
+                                        Key key,
+                                        List<CategoryAndSubcat> input,
+                                        CategorySnapshot snapshot,
+                                        CountPage page) {
+        CategoryCleanResponse response
+            = cleaner.cleanAndCount(input, snapshot, page);
+        if (cache != null) {
+            cache.put(key, response);
+        }
+        return response;
+    }
+
+    // A result costs roughly a record for each pair and count in it
+    private static int weigh(Key key, CategoryCleanResponse response) {
+        long records = 1L + response.getCategories().size()
+                       + response.getCounts().size();
+        return (int) Math.min(records, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The key of a result: what was cleaned, against which categories, and
+     * which of the counts were cleaned
+     */
+    private static final class Key {
+        private final HashCode contentHash;
+        private final long categoryVersion;
+        private final CountPage page;
+
+        private Key(HashCode contentHash, long categoryVersion, CountPage page) {
+            this.contentHash = Objects.requireNonNull(contentHash,
+                                                      "Content hash must not be null");
+            this.categoryVersion = categoryVersion;
+            this.page = Objects.requireNonNull(page, "Count page must not be null");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return categoryVersion == that.categoryVersion &&
+                   contentHash.equals(that.contentHash) &&
+                   page.equals(that.page);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(contentHash, categoryVersion, page);
+        }
+    }
+}
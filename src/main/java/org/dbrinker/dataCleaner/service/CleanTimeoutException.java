@@ -0,0 +1,25 @@
+package org.dbrinker.dataCleaner.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown when a request gives up waiting for an identical request, which is
+ * already being cleaned, to finish.  The cleaning carries on regardless, so
+ * callers should back off and try again later, when the result will most
+ * likely be cached.
+ *
+ * @author Don Brinker
+ */
+public class CleanTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param timeoutNanos  How long the caller waited, in nanoseconds
+     */
+    public CleanTimeoutException(long timeoutNanos) {
+        super("Timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+              + " ms waiting for the same data to be cleaned");
+    }
+}
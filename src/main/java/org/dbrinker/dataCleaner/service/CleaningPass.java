@@ -0,0 +1,168 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single cleaning pass over a data set.  Each record offered to the pass is
+ * checked for duplication and validity and, if it survives both checks,
+ * counted against its category - all in one step, and all against the same
+ * set of valid categories.  A record with a variant or misspelling of a known
+ * category may have its category normalized or corrected, in which case it is
+ * checked and counted as corrected.
+ *
+ * Instances are not thread safe, and are intended to be used for the
+ * duration of a single request.  They should be closed once done with, to
+ * release the memory used to recognize duplicates.
+ *
+ * @author Don Brinker
+ */
+class CleaningPass implements AutoCloseable {
+    private final CategoryDictionary dictionary;
+    private final DuplicateFilter duplicates;
+    private final CategoryCounter counter;
+    private final CategoryResolver resolver;
+    private final CleaningMetrics metrics;
+
+    // What has happened to the records offered so far
+    private long recordCount;
+    private long invalidCount;
+    private long duplicateCount;
+    private long correctedCount;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param dictionary    The categories considered valid for the duration
+     *                      of the pass.  Presumed to be non-null.
+     * @param duplicates    Recognizes pairs seen earlier in the pass.
+     *                      Presumed to be non-null, and will be closed along
+     *                      with the pass.
+     * @param normalizer    Normalizes variants of categories.  If null,
+     *                      categories aren't normalized.
+     * @param corrector     Corrects misspelt categories.  If null,
+     *                      categories aren't corrected.  If both are null,
+     *                      records with unknown categories are simply
+     *                      dropped.
+     * @param metrics       Records how the pass went.  Presumed to be
+     *                      non-null.
+     */
+    CleaningPass(CategoryDictionary dictionary,
+                 DuplicateFilter duplicates,
+                 CategoryNormalizer normalizer,
+                 CategoryCorrector corrector,
+                 CleaningMetrics metrics) {
+        this.dictionary = Objects.requireNonNull(dictionary,
+                                                 "Category dictionary must not be null");
+        this.duplicates = Objects.requireNonNull(duplicates,
+                                                 "Duplicate filter must not be null");
+        this.counter = new CategoryCounter(dictionary);
+        this.resolver = new CategoryResolver(dictionary, normalizer, corrector);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Offers a record to the pass.
+     *
+     * @param record    The record in question
+     *
+     * @return  The record (or a copy of it, with its category resolved) if
+     *          it is valid and has not been seen before in this pass, in
+     *          which case it has also been counted; null if it should be
+     *          dropped
+     */
+    CategoryAndSubcat accept(CategoryAndSubcat record) {
+        recordCount++;
+
+        // Check validity first - it's cheaper than the duplicate check, and
+        // keeps invalid records out of the duplicate filter entirely.  It
+        // also gets us the category's id for counting.
+        int id = dictionary.idOf(record.getCategory());
+        if (id == CategoryDictionary.UNKNOWN) {
+            id = resolver.idOf(record.getCategory());
+            if (id == CategoryDictionary.UNKNOWN) {
+                invalidCount++;
+                return null;
+            }
+            record = new CategoryAndSubcat(dictionary.categoryOf(id),
+                                           record.getSubcategory());
+            correctedCount++;
+        }
+        if (!duplicates.firstOccurrence(record)) {
+            duplicateCount++;
+            return null;
+        }
+
+        counter.increment(id);
+        return record;
+    }
+
+    /**
+     * Retrieves the number of records offered to the pass so far
+     *
+     * @return  The number of records
+     */
+    long getRecords() {
+        return recordCount;
+    }
+
+    /**
+     * Retrieves the number of records dropped so far for having unknown
+     * categories
+     *
+     * @return  The number of records
+     */
+    long getInvalid() {
+        return invalidCount;
+    }
+
+    /**
+     * Retrieves the number of records dropped so far as duplicates
+     *
+     * @return  The number of records
+     */
+    long getDuplicates() {
+        return duplicateCount;
+    }
+
+    /**
+     * Retrieves the number of records whose categories have been normalized
+     * or corrected so far
+     *
+     * @return  The number of records
+     */
+    long getCorrected() {
+        return correctedCount;
+    }
+
+    /**
+     * Retrieves the counts gathered so far.  Counted categories come first,
+     * ordered by decreasing number of occurrences, followed by every other
+     * valid category with a zero count.
+     *
+     * @return  The categories and counts
+     */
+    List<CategoryCount> getCounts() {
+        return counter.getCounts(metrics);
+    }
+
+    /**
+     * Retrieves a page of the counts gathered so far, ordered as with
+     * {@link #getCounts()}
+     *
+     * @param page  The counts to retrieve
+     *
+     * @return  The categories and counts on the page
+     */
+    List<CategoryCount> getCounts(CountPage page) {
+        return counter.getCounts(metrics, page);
+    }
+
+    @Override
+    public void close() {
+        duplicates.close();
+    }
+}
@@ -0,0 +1,57 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Cleans a single data set which arrives in several batches.  Duplicates are
+ * recognized across every batch cleaned by the session, not just within each
+ * one, and counts accumulate from batch to batch - so the session as a whole
+ * gives the same results as cleaning all of the batches in one go.
+ *
+ * Every batch is validated against the categories as they were when the
+ * session was opened, so the counts stay consistent even if the categories
+ * change part way through.
+ *
+ * Sessions are not thread safe, and should be closed once no longer needed.
+ *
+ * @author Don Brinker
+ */
+public interface CleaningSession extends AutoCloseable {
+    /**
+     * Cleans the next batch of the data set
+     *
+     * @param batch     The batch's category/subcategory pairs.  Presumed to
+     *                  be non-null.
+     * @param output    Receives the pairs in the batch which are clean and
+     *                  were not seen in any earlier batch, in the same order
+     *                  as the batch.  Presumed to be non-null.
+     */
+    void clean(Iterator<? extends CategoryAndSubcat> batch,
+               Consumer<? super CategoryAndSubcat> output);
+
+    /**
+     * Retrieves the counts of every batch cleaned so far
+     *
+     * @return  The category counts (ordered by frequency of occurrence)
+     */
+    List<CategoryCount> getCounts();
+
+    /**
+     * Retrieves the version of the categories the session validates against
+     *
+     * @return  The version in question
+     */
+    long getCategoryVersion();
+
+    /**
+     * Releases the memory used to recognize duplicates.  The session must not
+     * be used afterwards.
+     */
+    @Override
+    void close();
+}
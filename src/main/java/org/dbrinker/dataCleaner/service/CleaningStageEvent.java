@@ -0,0 +1,47 @@
+package org.dbrinker.dataCleaner.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a single stage of cleaning a data set: cleaning
+ * the records, ordering the categories by count, or building the counts.
+ *
+ * @author Don Brinker
+ */
+@Name("org.dbrinker.dataCleaner.CleaningStage")
+@Label("Cleaning Stage")
+@Category({"Data Cleaner", "Cleaning"})
+@Description("A stage of cleaning a data set")
+@StackTrace(false)
+class CleaningStageEvent extends Event {
+    static final String CLEAN = "clean";
+    static final String SORT = "sort";
+    static final String COUNT = "count";
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Records")
+    @Description("The number of records cleaned, or of categories sorted or "
+                 + "counted")
+    long records;
+
+    /**
+     * Finishes the event, and commits it if it's being recorded
+     *
+     * @param stage     The stage in question
+     * @param records   The number of records the stage handled
+     */
+    void finish(String stage, long records) {
+        if (shouldCommit()) {
+            this.stage = stage;
+            this.records = records;
+            commit();
+        }
+    }
+}
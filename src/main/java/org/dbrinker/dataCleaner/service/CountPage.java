@@ -0,0 +1,147 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryCount;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Selects which of the category counts of a data set to return.  The counts
+ * are always ordered the same way - counted categories by decreasing count,
+ * then (optionally) every other category with a zero count - and a page is
+ * a window onto that order, skipping some counts and returning at most a
+ * given number of the rest.
+ *
+ * With tens of thousands of categories, a client which only wants the top
+ * few shouldn't pay for (or have to read) all of them, so a page is chosen
+ * before the counts are ordered, rather than cut out of them afterwards.
+ *
+ * @author Don Brinker
+ */
+public final class CountPage {
+    /**
+     * The limit of a page with no limit
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * Every count, including the zero counts
+     */
+    public static final CountPage ALL = new CountPage(0, UNLIMITED, true);
+
+    private final int offset;
+    private final int limit;
+    private final boolean includeZero;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param offset        The number of counts to skip
+     * @param limit         The most counts to return, or {@link #UNLIMITED}
+     * @param includeZero   Whether categories which weren't counted are
+     *                      included (after all of those which were)
+     *
+     * @throws  IllegalArgumentException if the offset or limit is negative
+     */
+    public CountPage(int offset, int limit, boolean includeZero) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        this.offset = offset;
+        this.limit = limit;
+        this.includeZero = includeZero;
+    }
+
+    /**
+     * Retrieves the number of counts to skip
+     *
+     * @return  The offset in question
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Retrieves the most counts to return
+     *
+     * @return  The limit in question, or {@link #UNLIMITED}
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Retrieves whether categories which weren't counted are included
+     *
+     * @return  true if they are
+     */
+    public boolean isIncludeZero() {
+        return includeZero;
+    }
+
+    /**
+     * Retrieves the position just past the last count on the page
+     *
+     * @return  The position in question, or Long.MAX_VALUE if the page has
+     *          no end
+     */
+    long getEnd() {
+        return limit == UNLIMITED ? Long.MAX_VALUE : (long) offset + limit;
+    }
+
+    /**
+     * Cuts this page out of every count of a data set
+     *
+     * @param counts    Every count, in order, including the zero counts.
+     *                  Presumed to be non-null.
+     *
+     * @return  The counts on this page.  A view of the given counts, so must
+     *          not outlive them.
+     */
+    List<CategoryCount> cut(List<CategoryCount> counts) {
+        int end = counts.size();
+        if (!includeZero) {
+            // The zero counts all come last, so find where they start
+            int low = 0;
+            while (low < end) {
+                int middle = (low + end) >>> 1;
+                if (counts.get(middle).getNumOccurrences() > 0L) {
+                    low = middle + 1;
+                }
+                else {
+                    end = middle;
+                }
+            }
+        }
+        return counts.subList(Math.min(offset, end),
+                              (int) Math.min(getEnd(), end));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        CountPage that = (CountPage) obj;
+        return offset == that.offset &&
+               limit == that.limit &&
+               includeZero == that.includeZero;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, limit, includeZero);
+    }
+
+    @Override
+    public String toString() {
+        return "CountPage{offset=" + offset + ", limit=" + limit
+               + ", includeZero=" + includeZero + "}";
+    }
+}
@@ -1,10 +1,12 @@
 package org.dbrinker.dataCleaner.service;
 
 import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
 import org.dbrinker.dataCleaner.model.CategoryCount;
 
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Defines a service which cleans a set of incoming categories and
@@ -14,6 +16,94 @@ import java.util.Map;
  * @author Don Brinker
  */
 public interface DataCleaner {
+    /**
+     * Cleans the input and counts the categories of the cleaned data in a
+     * single pass.  Duplicates and invalid categories are stripped out exactly
+     * as with {@link #cleanData(List)}, and the counts are those that
+     * {@link #getCategoryCounts(List)} would produce for the cleaned data.
+     * All validation is done against a single view of the known categories.
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     *
+     * @return  The cleaned input (in the same order as the input) and the
+     *          category counts (ordered by frequency of occurrence)
+     */
+    CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input);
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data, exactly
+     * as {@link #cleanAndCount(List)} does, but against the given snapshot of
+     * the categories rather than the current one.  This lets the caller know
+     * exactly which version of the categories the result reflects.
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     * @param snapshot  The categories to clean against.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The cleaned input (in the same order as the input) and the
+     *          category counts (ordered by frequency of occurrence)
+     */
+    CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input,
+                                        CategorySnapshot snapshot);
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data, exactly
+     * as {@link #cleanAndCount(List, CategorySnapshot)} does, but returns only
+     * the given page of the counts.
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     * @param snapshot  The categories to clean against.  Presumed to be
+     *                  non-null.
+     * @param page      The category counts to return.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The cleaned input (in the same order as the input) and the
+     *          page of category counts (ordered by frequency of occurrence)
+     */
+    CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input,
+                                        CategorySnapshot snapshot,
+                                        CountPage page);
+
+    /**
+     * Cleans and counts the input as it is read.  Each record which survives
+     * cleaning is handed to the given consumer as soon as it is known to be
+     * clean, and nothing else is kept beyond what is needed to recognize
+     * duplicates.  This allows inputs which are never materialized as a whole
+     * to be cleaned.
+     *
+     * @param input     The category/subcategory pairs to clean.  Presumed to
+     *                  be non-null.
+     * @param output    Receives the cleaned pairs, in the same order as the
+     *                  input.  Presumed to be non-null.
+     *
+     * @return  The category counts of the cleaned data (ordered by frequency
+     *          of occurrence)
+     */
+    List<CategoryCount> cleanAndCount(Iterator<? extends CategoryAndSubcat> input,
+                                      Consumer<? super CategoryAndSubcat> output);
+
+    /**
+     * Cleans and counts the input as it is read, exactly as
+     * {@link #cleanAndCount(Iterator, Consumer)} does, but returns only the
+     * given page of the counts.
+     *
+     * @param input     The category/subcategory pairs to clean.  Presumed to
+     *                  be non-null.
+     * @param output    Receives the cleaned pairs, in the same order as the
+     *                  input.  Presumed to be non-null.
+     * @param page      The category counts to return.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The page of category counts of the cleaned data (ordered by
+     *          frequency of occurrence)
+     */
+    List<CategoryCount> cleanAndCount(Iterator<? extends CategoryAndSubcat> input,
+                                      Consumer<? super CategoryAndSubcat> output,
+                                      CountPage page);
+
     /**
      * Cleans the input, stripping out duplicates and invalid categories
      *
@@ -26,7 +116,8 @@ public interface DataCleaner {
 
     /**
      * Retrieves the categories known by the system, along with the number of
-     * occurrences of each in the given collection.
+     * occurrences of each in the given collection.  The input is cleaned
+     * before it is counted, so duplicates and invalid categories are ignored.
      *
      * @param input     The collection of category/subcategory pairs.  Presumed
      *                  to be non-null.
@@ -34,4 +125,12 @@ public interface DataCleaner {
      * @return  The categories and counts
      */
     List<CategoryCount> getCategoryCounts(List<CategoryAndSubcat> input);
+
+    /**
+     * Opens a session for cleaning a data set which arrives in several
+     * batches, rather than all at once.
+     *
+     * @return  The new session
+     */
+    CleaningSession openSession();
 }
@@ -1,19 +1,25 @@
 package org.dbrinker.dataCleaner.service;
 
+import com.google.common.base.Splitter;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
 import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
 import org.dbrinker.dataCleaner.model.CategoryCount;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.Comparator;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
-import java.util.stream.Collectors;
-
-import static java.util.stream.Collectors.counting;
-import static java.util.stream.Collectors.groupingBy;
+import java.util.RandomAccess;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * A simple implementation of the Data Cleaner API
@@ -22,36 +28,480 @@ import static java.util.stream.Collectors.groupingBy;
  */
 @Service
 public class DataCleanerImpl implements DataCleaner {
+    /**
+     * The default minimum input size for which cleaning is done in parallel
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+    /**
+     * The default amount of direct memory used to recognize duplicates in a
+     * streamed input before spilling to disk
+     */
+    public static final long DEFAULT_DEDUP_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    // How often (in records) a long-running clean checks whether it has been
+    // cancelled
+    private static final int CANCELLATION_CHECK_INTERVAL = 4096;
+
     private CategoryService categoryService;
+    private CleaningMetrics metrics;
 
-    @Autowired
+    // Splitting up the work has its own costs, so small inputs are always
+    // cleaned on the calling thread.  Larger ones get spread across a pool
+    // of our own (rather than the common pool), so cleaning can't starve
+    // anything else in the JVM which happens to use parallel streams.
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private ForkJoinPool pool;
+
+    // A streamed input could be far bigger than the heap, so its duplicates
+    // are tracked by fingerprint, off the heap, and spilled to disk if there
+    // are enough of them.  An input that arrives as a list is on the heap
+    // already, so holding references to its pairs costs next to nothing.
+    // The memory budget is shared by every stream and session at once.
+    private MemoryBudget dedupMemoryBudget
+        = new MemoryBudget(DEFAULT_DEDUP_MEMORY_BUDGET);
+    private File dedupSpillDirectory;
+
+    // Records with misspelt categories are dropped like any other invalid
+    // record, unless correction is switched on
+    private int maxCorrectionDistance;
+
+    // Likewise, records whose categories differ from known ones only in case,
+    // whitespace or Unicode form are dropped, unless normalization is
+    // switched on
+    private NormalizationRules normalizationRules = NormalizationRules.NONE;
+
+    /**
+     * Creates a new instance of this class, whose metrics aren't reported
+     *
+     * @param categoryService   The source of the valid categories
+     */
     public DataCleanerImpl(CategoryService categoryService) {
+        this(categoryService, new MetricsRegistry());
+    }
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param categoryService   The source of the valid categories
+     * @param metricsRegistry   The registry in which to record how long each
+     *                          stage of cleaning takes, and how many records
+     *                          are dropped
+     */
+    @Autowired
+    public DataCleanerImpl(CategoryService categoryService,
+                           MetricsRegistry metricsRegistry) {
         this.categoryService = categoryService;
+        this.metrics = new CleaningMetrics(metricsRegistry);
+        this.pool = new ForkJoinPool(Runtime.getRuntime()
+                                            .availableProcessors());
     }
 
     /**
-     * Cleans the input, stripping out duplicates and invalid categories
+     * Sets the minimum input size for which cleaning will be done in
+     * parallel.  Smaller inputs will be cleaned sequentially.
+     *
+     * @param parallelThreshold     The minimum size in question
+     */
+    @Value("${dataCleaner.parallel.threshold:" + DEFAULT_PARALLEL_THRESHOLD + "}")
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Sets the number of threads used to clean large inputs in parallel.
+     *
+     * @param parallelism   The number of threads.  If not positive, one thread
+     *                      per available processor will be used.
+     */
+    @Value("${dataCleaner.parallel.threads:0}")
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelism != pool.getParallelism()) {
+            ForkJoinPool oldPool = pool;
+            pool = new ForkJoinPool(parallelism);
+            oldPool.shutdown();
+        }
+    }
+
+    /**
+     * Sets the amount of direct memory which may be used to recognize
+     * duplicates in streamed inputs and sessions - between all of them, not
+     * each.  Beyond this, the duplicate tracking will spill to temporary
+     * files.
+     *
+     * @param dedupMemoryBudget     The number of bytes in question
+     */
+    @Value("${dataCleaner.dedup.memoryBudget:" + DEFAULT_DEDUP_MEMORY_BUDGET + "}")
+    public void setDedupMemoryBudget(long dedupMemoryBudget) {
+        this.dedupMemoryBudget = new MemoryBudget(dedupMemoryBudget);
+    }
+
+    /**
+     * Sets the directory in which duplicate tracking will spill temporary
+     * files
+     *
+     * @param dedupSpillDirectory   The directory in question.  If empty, the
+     *                              system temporary directory will be used.
+     */
+    @Value("${dataCleaner.dedup.spillDirectory:}")
+    public void setDedupSpillDirectory(String dedupSpillDirectory) {
+        this.dedupSpillDirectory = dedupSpillDirectory.isEmpty()
+                                   ? null
+                                   : new File(dedupSpillDirectory);
+    }
+
+    /**
+     * Sets how far a category may be from a known one (in insertions,
+     * deletions, substitutions and transpositions, ignoring case) and still
+     * be corrected to it, rather than the record being dropped.
+     *
+     * @param maxCorrectionDistance     The distance in question.  If not
+     *                                  positive, categories aren't corrected.
+     */
+    @Value("${dataCleaner.correction.maxDistance:0}")
+    public void setMaxCorrectionDistance(int maxCorrectionDistance) {
+        this.maxCorrectionDistance = maxCorrectionDistance;
+    }
+
+    /**
+     * Sets whether whitespace at either end of a category is ignored in
+     * matching it to a known one
+     *
+     * @param trim  Whether whitespace is ignored
+     */
+    @Value("${dataCleaner.normalization.trim:false}")
+    public void setNormalizationTrim(boolean trim) {
+        normalizationRules = normalizationRules.withTrim(trim);
+    }
+
+    /**
+     * Sets whether case is ignored in matching a category to a known one
+     *
+     * @param caseFold  Whether case is ignored
+     */
+    @Value("${dataCleaner.normalization.caseFold:false}")
+    public void setNormalizationCaseFold(boolean caseFold) {
+        normalizationRules = normalizationRules.withCaseFold(caseFold);
+    }
+
+    /**
+     * Sets whether categories are put into Unicode normalization form C (so
+     * that, say, an accented letter matches the same letter followed by a
+     * combining accent) in matching them to known ones
+     *
+     * @param nfc   Whether categories are put into form C
+     */
+    @Value("${dataCleaner.normalization.nfc:false}")
+    public void setNormalizationNfc(boolean nfc) {
+        normalizationRules = normalizationRules.withNfc(nfc);
+    }
+
+    /**
+     * Sets alternative names for known categories, as a comma separated list
+     * of alias:category pairs, such as "PEOPLE:PERSON,LOCATION:PLACE".  The
+     * other normalization rules apply to aliases too.
+     *
+     * @param aliases   The aliases in question.  If empty, there are none.
+     *
+     * @throws  IllegalArgumentException if the aliases are malformed, or an
+     *          alias is given more than once
+     */
+    @Value("${dataCleaner.normalization.aliases:}")
+    public void setNormalizationAliases(String aliases) {
+        normalizationRules = normalizationRules.withAliases(
+            Splitter.on(',')
+                    .trimResults()
+                    .omitEmptyStrings()
+                    .withKeyValueSeparator(Splitter.on(':').trimResults())
+                    .split(aliases));
+    }
+
+    /**
+     * Sets how many distinct raw categories have what they normalize to
+     * remembered, for each version of the categories
+     *
+     * @param maxCached     The number of raw categories
+     */
+    @Value("${dataCleaner.normalization.maxCached:" + NormalizationRules.DEFAULT_MAX_CACHED + "}")
+    public void setNormalizationMaxCached(int maxCached) {
+        normalizationRules = normalizationRules.withMaxCached(maxCached);
+    }
+
+    /**
+     * Releases the threads used for parallel cleaning
+     */
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data in a
+     * single pass.
      *
      * @param input     The collection of category/subcategory pairs.  Presumed
      *                  to be non-null.
      *
-     * @return The cleaned input
+     * @return  The cleaned input and the category counts
      */
     @Override
-    public List<CategoryAndSubcat> cleanData(List<CategoryAndSubcat> input) {
+    public CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input) {
+        return cleanAndCount(input, categoryService.getSnapshot());
+    }
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data in a
+     * single pass, against the given categories.
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     * @param snapshot  The categories to clean against.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The cleaned input and the category counts
+     */
+    @Override
+    public CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input,
+                                               CategorySnapshot snapshot) {
+        return cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    /**
+     * Cleans the input and counts the categories of the cleaned data in a
+     * single pass, against the given categories, returning only a page of
+     * the counts.
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     * @param snapshot  The categories to clean against.  Presumed to be
+     *                  non-null.
+     * @param page      The category counts to return.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The cleaned input and the page of category counts
+     */
+    @Override
+    public CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input,
+                                               CategorySnapshot snapshot,
+                                               CountPage page) {
+        Objects.requireNonNull(input, "Input must not be null");
+        Objects.requireNonNull(snapshot, "Snapshot must not be null");
+        Objects.requireNonNull(page, "Count page must not be null");
+        DataSetCleanedEvent event = new DataSetCleanedEvent();
+        event.begin();
+
+        CategoryDictionary dictionary = snapshot.getDictionary();
+
+        // Big inputs are worth splitting up, as long as we can get at any
+        // part of them cheaply
+        if (input.size() >= parallelThreshold &&
+            input instanceof RandomAccess &&
+            pool.getParallelism() > 1) {
+            CategoryCleanResponse response
+                = new ParallelCleaner(pool, metrics)
+                      .cleanAndCount(input, dictionary,
+                                     normalizerFor(dictionary),
+                                     correctorFor(dictionary),
+                                     page, event);
+            event.finish(DataSetCleanedEvent.PARALLEL, dictionary);
+            return response;
+        }
+
+        List<CategoryAndSubcat> cleaned = new ArrayList<>();
+        List<CategoryCount> counts = cleanAndCount(input.iterator(),
+                                                   cleaned::add,
+                                                   dictionary,
+                                                   page,
+                                                   DuplicateFilter::onHeap,
+                                                   event,
+                                                   DataSetCleanedEvent.LIST);
+
+        return new CategoryCleanResponse(cleaned, counts);
+    }
+
+    /**
+     * Cleans and counts the input as it is read, handing each clean record to
+     * the given consumer.
+     *
+     * @param input     The category/subcategory pairs to clean.  Presumed to
+     *                  be non-null.
+     * @param output    Receives the cleaned pairs, in the same order as the
+     *                  input.  Presumed to be non-null.
+     *
+     * @return  The category counts of the cleaned data
+     */
+    @Override
+    public List<CategoryCount> cleanAndCount(Iterator<? extends CategoryAndSubcat> input,
+                                             Consumer<? super CategoryAndSubcat> output) {
+        return cleanAndCount(input, output, CountPage.ALL);
+    }
+
+    /**
+     * Cleans and counts the input as it is read, handing each clean record to
+     * the given consumer, and returning only a page of the counts.
+     *
+     * @param input     The category/subcategory pairs to clean.  Presumed to
+     *                  be non-null.
+     * @param output    Receives the cleaned pairs, in the same order as the
+     *                  input.  Presumed to be non-null.
+     * @param page      The category counts to return.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The page of category counts of the cleaned data
+     */
+    @Override
+    public List<CategoryCount> cleanAndCount(Iterator<? extends CategoryAndSubcat> input,
+                                             Consumer<? super CategoryAndSubcat> output,
+                                             CountPage page) {
         Objects.requireNonNull(input, "Input must not be null");
+        Objects.requireNonNull(output, "Output must not be null");
+        Objects.requireNonNull(page, "Count page must not be null");
+        DataSetCleanedEvent event = new DataSetCleanedEvent();
+        event.begin();
+
+        // Grab the valid categories once, so that the cleaning and counting
+        // both see the same view of them.
+        return cleanAndCount(input, output,
+                             categoryService.getSnapshot().getDictionary(),
+                             page,
+                             this::newOffHeapFilter,
+                             event,
+                             DataSetCleanedEvent.STREAM);
+    }
+
+    /**
+     * Opens a session for cleaning a data set which arrives in several
+     * batches.  As with a streamed input, the whole data set need never be in
+     * memory, so duplicates are tracked off the heap.
+     *
+     * @return  The new session
+     */
+    @Override
+    public CleaningSession openSession() {
+        // The session pins the categories as of its opening, so that every
+        // batch is cleaned against the same ones.
+        CategoryDictionary dictionary
+            = categoryService.getSnapshot().getDictionary();
+        CleaningPass pass = newPass(dictionary, this::newOffHeapFilter);
+
+        return new CleaningSession() {
+            @Override
+            public void clean(Iterator<? extends CategoryAndSubcat> batch,
+                              Consumer<? super CategoryAndSubcat> output) {
+                Objects.requireNonNull(batch, "Batch must not be null");
+                Objects.requireNonNull(output, "Output must not be null");
+                DataSetCleanedEvent event = new DataSetCleanedEvent();
+                event.begin();
+                feed(pass, batch, output, event);
+                event.finish(DataSetCleanedEvent.SESSION, dictionary);
+            }
+
+            @Override
+            public List<CategoryCount> getCounts() {
+                return pass.getCounts();
+            }
+
+            @Override
+            public long getCategoryVersion() {
+                return dictionary.getVersion();
+            }
+
+            @Override
+            public void close() {
+                pass.close();
+            }
+        };
+    }
+
+    private List<CategoryCount> cleanAndCount(Iterator<? extends CategoryAndSubcat> input,
+                                              Consumer<? super CategoryAndSubcat> output,
+                                              CategoryDictionary dictionary,
+                                              CountPage page,
+                                              Supplier<DuplicateFilter> duplicates,
+                                              DataSetCleanedEvent event,
+                                              String mode) {
+        try (CleaningPass pass = newPass(dictionary, duplicates)) {
+            feed(pass, input, output, event);
+            List<CategoryCount> counts = pass.getCounts(page);
+            event.finish(mode, dictionary);
+            return counts;
+        }
+    }
+
+    // The pass owns its duplicate filter, and closes it along with itself.
+    // Until the pass exists, though, nothing would close the filter, and an
+    // off-heap one would leak its memory; so the filter is created last, and
+    // closed again if the pass can't be built.
+    private CleaningPass newPass(CategoryDictionary dictionary,
+                                 Supplier<DuplicateFilter> duplicates) {
+        CategoryNormalizer normalizer = normalizerFor(dictionary);
+        CategoryCorrector corrector = correctorFor(dictionary);
+        DuplicateFilter filter = duplicates.get();
+        try {
+            return new CleaningPass(dictionary, filter, normalizer, corrector,
+                                    metrics);
+        }
+        catch (RuntimeException | Error e) {
+            filter.close();
+            throw e;
+        }
+    }
+
+    private DuplicateFilter newOffHeapFilter() {
+        return DuplicateFilter.offHeap(dedupMemoryBudget, dedupSpillDirectory);
+    }
 
-        // Get our valid categories.
-        Set<String> validCategories = categoryService.getCategories();
+    // Each record is checked for validity and duplication, and counted, as it
+    // goes by - there's no need for a second trip through the data.
+    private void feed(CleaningPass pass,
+                      Iterator<? extends CategoryAndSubcat> input,
+                      Consumer<? super CategoryAndSubcat> output,
+                      DataSetCleanedEvent event) {
+        long records = pass.getRecords();
+        long invalid = pass.getInvalid();
+        long duplicates = pass.getDuplicates();
+        long corrected = pass.getCorrected();
+        CleaningStageEvent stageEvent = new CleaningStageEvent();
+        stageEvent.begin();
+        long started = System.nanoTime();
+        int untilCancellationCheck = CANCELLATION_CHECK_INTERVAL;
+        while (input.hasNext()) {
+            CategoryAndSubcat cleaned = pass.accept(input.next());
+            if (cleaned != null) {
+                output.accept(cleaned);
+            }
 
-        // Okay, stripping out duplicates can be done with Java 8 streams.
-        // Filtering out invalid categories will require actively checking the
-        // set of valid categories
-        return input.stream()
-                    .distinct()
-                    .filter(cat -> validCategories.contains(cat.getCategory()))
-                    .collect(Collectors.toList());
+            if (--untilCancellationCheck == 0) {
+                checkCancelled();
+                untilCancellationCheck = CANCELLATION_CHECK_INTERVAL;
+            }
+        }
+        long elapsed = System.nanoTime() - started;
 
+        // A session's pass sees several batches, so only count this one
+        records = pass.getRecords() - records;
+        invalid = pass.getInvalid() - invalid;
+        duplicates = pass.getDuplicates() - duplicates;
+        corrected = pass.getCorrected() - corrected;
+        metrics.cleaned(elapsed, records, invalid, duplicates, corrected);
+        event.cleaned(records, invalid, duplicates);
+        stageEvent.finish(CleaningStageEvent.CLEAN, records);
+    }
+
+    /**
+     * Cleans the input, stripping out duplicates and invalid categories
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     *
+     * @return The cleaned input
+     */
+    @Override
+    public List<CategoryAndSubcat> cleanData(List<CategoryAndSubcat> input) {
+        return cleanAndCount(input).getCategories();
     }
 
     /**
@@ -65,40 +515,29 @@ public class DataCleanerImpl implements DataCleaner {
      */
     @Override
     public List<CategoryCount> getCategoryCounts(List<CategoryAndSubcat> input) {
-        Objects.requireNonNull(input, "Input must not be null");
+        return cleanAndCount(input).getCounts();
+    }
+
+    // The normalizer and corrector are built along with (and kept by) each
+    // version of the categories, so only the first request for a version pays
+    // for them
+    private CategoryNormalizer normalizerFor(CategoryDictionary dictionary) {
+        return normalizationRules.isEnabled()
+               ? dictionary.getNormalizer(normalizationRules)
+               : null;
+    }
+
+    private CategoryCorrector correctorFor(CategoryDictionary dictionary) {
+        return maxCorrectionDistance > 0
+               ? dictionary.getCorrector(maxCorrectionDistance)
+               : null;
+    }
 
-        // All in all, this is pretty simple.  A Java 8 stream can group and
-        // count the results
-        Map<String, Long> countingResult
-            = input.stream()
-                   .collect(groupingBy(CategoryAndSubcat::getCategory,
-                                       counting()));
-
-        // Now convert the results to a collection of CategoryCounts.
-        List<CategoryCount> counts
-            = countingResult.entrySet()
-                            .stream()
-                            .map(e -> new CategoryCount(e.getKey(),
-                                                        e.getValue()))
-                            .collect(Collectors.toList());
-
-        // Sort the resulting mess by number of occurrences.  Note that for
-        // whatever reason, the numerical count is ordered in INCREASING order.
-        // Make sure we flip it to decreasing.
-        Comparator<CategoryCount> countComparator
-            = (p1, p2) -> Long.compare(p1.getNumOccurrences(),
-                                       p2.getNumOccurrences());
-        counts.sort(countComparator.reversed());
-
-        // One more thing: we need all the OTHER categories as well.  Just add
-        // them to the results with a zero count.  We don't have to worry about
-        // ordering, since by definition add() adds the element to the end of
-        // the list
-        categoryService.getCategories()
-                       .stream()
-                       .filter(cat->!countingResult.containsKey(cat))
-                       .forEach(cat -> counts.add(new CategoryCount(cat, 0L)));
-
-        return counts;
+    // A clean running in the background (as part of a job, say) is cancelled
+    // by interrupting its thread
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Cleaning was cancelled");
+        }
     }
 }
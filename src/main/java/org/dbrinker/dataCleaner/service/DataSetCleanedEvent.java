@@ -0,0 +1,77 @@
+package org.dbrinker.dataCleaner.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the cleaning of a whole data set (or of one batch
+ * of a data set being cleaned in a session), so that individual requests can
+ * be lined up against everything else going on in the JVM.
+ *
+ * @author Don Brinker
+ */
+@Name("org.dbrinker.dataCleaner.DataSetCleaned")
+@Label("Data Set Cleaned")
+@Category({"Data Cleaner", "Cleaning"})
+@Description("The cleaning of a data set, or of one batch of a data set")
+@StackTrace(false)
+class DataSetCleanedEvent extends Event {
+    static final String LIST = "list";
+    static final String PARALLEL = "parallel";
+    static final String STREAM = "stream";
+    static final String SESSION = "session";
+
+    @Label("Mode")
+    @Description("How the data set was cleaned: all at once (\"list\" or "
+                 + "\"parallel\"), as it was read (\"stream\"), or in batches "
+                 + "(\"session\")")
+    String mode;
+
+    @Label("Category Version")
+    long categoryVersion;
+
+    @Label("Input Size")
+    long inputSize;
+
+    @Label("Output Size")
+    long outputSize;
+
+    @Label("Duplicates")
+    long duplicates;
+
+    @Label("Invalid")
+    @Description("The number of records with unknown categories")
+    long invalid;
+
+    /**
+     * Adds a run of cleaned records to the totals
+     *
+     * @param records       The number of records in the run
+     * @param invalid       How many of them had unknown categories
+     * @param duplicates    How many of them duplicated earlier records
+     */
+    void cleaned(long records, long invalid, long duplicates) {
+        this.inputSize += records;
+        this.outputSize += records - invalid - duplicates;
+        this.invalid += invalid;
+        this.duplicates += duplicates;
+    }
+
+    /**
+     * Finishes the event, and commits it if it's being recorded
+     *
+     * @param mode          How the data set was cleaned
+     * @param dictionary    The categories it was cleaned against
+     */
+    void finish(String mode, CategoryDictionary dictionary) {
+        if (shouldCommit()) {
+            this.mode = mode;
+            this.categoryVersion = dictionary.getVersion();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.DataSetJob;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Defines a service which cleans data sets in the background.  A data set is
+ * submitted as a job, which can then be polled for its status and, once it
+ * has finished, its result.  Finished jobs are only retained for a limited
+ * time.
+ *
+ * @author Don Brinker
+ */
+public interface DataSetJobService {
+    /**
+     * Submits a data set to be cleaned
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     *
+     * @return  The status of the newly submitted job
+     *
+     * @throws  RejectedExecutionException if there are already too many jobs
+     *          waiting to be run
+     */
+    DataSetJob submit(List<CategoryAndSubcat> input);
+
+    /**
+     * Retrieves the status of a job
+     *
+     * @param id    The id of the job in question
+     *
+     * @return  The job's status, or null if no such job is known (either it
+     *          never existed, or it has since been removed)
+     */
+    DataSetJob getJob(String id);
+
+    /**
+     * Retrieves the result of a job
+     *
+     * @param id    The id of the job in question
+     *
+     * @return  The cleaned data and counts, or null if the job is unknown or
+     *          has not (successfully) finished
+     */
+    CategoryCleanResponse getResult(String id);
+
+    /**
+     * Removes a job, cancelling it first if it hasn't finished yet.
+     *
+     * @param id    The id of the job in question
+     *
+     * @return  true if the job was known (and has now been removed)
+     */
+    boolean remove(String id);
+}
@@ -0,0 +1,326 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.DataSetJob;
+import org.dbrinker.dataCleaner.model.JobStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory implementation of the Data Set Job Service API.  Jobs are run
+ * on a fixed-size pool of worker threads, with a bounded queue in front of
+ * it.  Finished jobs (and their results) are evicted once they have been
+ * kept for the retention period, or sooner if too many pile up.
+ *
+ * @author Don Brinker
+ */
+@Service
+public class DataSetJobServiceImpl implements DataSetJobService {
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final long DEFAULT_RETENTION_SECONDS = 600;
+    private static final int DEFAULT_MAX_RETAINED = 1000;
+
+    private DataCleaner cleaner;
+
+    private int threads = DEFAULT_THREADS;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private long retentionMillis = TimeUnit.SECONDS.toMillis(DEFAULT_RETENTION_SECONDS);
+    private int maxRetained = DEFAULT_MAX_RETAINED;
+
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor workers;
+    private ScheduledExecutorService sweeper;
+
+    // Like the categories, jobs live in memory, so this won't survive a
+    // restart, and won't work as-is behind a load balancer unless requests
+    // for a job are routed back to the node that accepted it.
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param cleaner   The cleaner used to run the jobs
+     */
+    @Autowired
+    public DataSetJobServiceImpl(DataCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Sets the number of jobs which may run at the same time
+     *
+     * @param threads   The number of worker threads
+     */
+    @Value("${dataCleaner.jobs.threads:" + DEFAULT_THREADS + "}")
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of jobs which may wait for a worker.  Submissions
+     * beyond this are rejected.
+     *
+     * @param queueCapacity     The maximum number of waiting jobs
+     */
+    @Value("${dataCleaner.jobs.queueCapacity:" + DEFAULT_QUEUE_CAPACITY + "}")
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets how long finished jobs are kept before being evicted
+     *
+     * @param retentionSeconds  The retention period, in seconds
+     */
+    @Value("${dataCleaner.jobs.retentionSeconds:" + DEFAULT_RETENTION_SECONDS + "}")
+    public void setRetentionSeconds(long retentionSeconds) {
+        this.retentionMillis = TimeUnit.SECONDS.toMillis(retentionSeconds);
+    }
+
+    /**
+     * Sets the maximum number of finished jobs to keep.  Beyond this, the
+     * oldest are evicted early.
+     *
+     * @param maxRetained   The maximum number of finished jobs
+     */
+    @Value("${dataCleaner.jobs.maxRetained:" + DEFAULT_MAX_RETAINED + "}")
+    public void setMaxRetained(int maxRetained) {
+        this.maxRetained = maxRetained;
+    }
+
+    /**
+     * Starts the worker threads, along with a background sweep for finished
+     * jobs which have outstayed their welcome
+     */
+    @PostConstruct
+    public void start() {
+        workers = new ThreadPoolExecutor(threads, threads,
+                                         0L, TimeUnit.MILLISECONDS,
+                                         new LinkedBlockingQueue<>(queueCapacity),
+                                         new ThreadFactoryBuilder()
+                                             .setNameFormat("data-set-job-%d")
+                                             .setDaemon(true)
+                                             .build());
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("data-set-job-sweeper")
+                                      .setDaemon(true)
+                                      .build());
+        long sweepInterval = Math.max(1000L, retentionMillis / 10);
+        sweeper.scheduleWithFixedDelay(this::evictExpiredJobs,
+                                       sweepInterval, sweepInterval,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the worker threads, cancelling any jobs still running
+     */
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Submits a data set to be cleaned
+     *
+     * @param input     The collection of category/subcategory pairs.  Presumed
+     *                  to be non-null.
+     *
+     * @return  The status of the newly submitted job
+     */
+    @Override
+    public DataSetJob submit(List<CategoryAndSubcat> input) {
+        Objects.requireNonNull(input, "Input must not be null");
+
+        // The future is published before the job can start, so a removal
+        // can always interrupt a running job
+        Job job = new Job(UUID.randomUUID().toString(), input);
+        FutureTask<Void> task = new FutureTask<>(() -> run(job), null);
+        job.future = task;
+        jobs.put(job.id, job);
+        try {
+            workers.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw e;
+        }
+
+        return job.toDataSetJob();
+    }
+
+    /**
+     * Retrieves the status of a job
+     *
+     * @param id    The id of the job in question
+     *
+     * @return  The job's status, or null if no such job is known
+     */
+    @Override
+    public DataSetJob getJob(String id) {
+        Job job = jobs.get(id);
+        return job == null ? null : job.toDataSetJob();
+    }
+
+    /**
+     * Retrieves the result of a job
+     *
+     * @param id    The id of the job in question
+     *
+     * @return  The cleaned data and counts, or null if the job is unknown or
+     *          has not (successfully) finished
+     */
+    @Override
+    public CategoryCleanResponse getResult(String id) {
+        Job job = jobs.get(id);
+        return job == null ? null : job.result;
+    }
+
+    /**
+     * Removes a job, cancelling it first if it hasn't finished yet.
+     *
+     * @param id    The id of the job in question
+     *
+     * @return  true if the job was known (and has now been removed)
+     */
+    @Override
+    public boolean remove(String id) {
+        Job job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+
+        synchronized (job) {
+            if (!job.status.isFinished()) {
+                job.finish(JobStatus.CANCELLED, null);
+                if (job.future != null) {
+                    job.future.cancel(true);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evicts finished jobs which have been kept for longer than the retention
+     * period, then, if there are still too many finished jobs, the oldest of
+     * those as well.
+     */
+    void evictExpiredJobs() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.status.isFinished() &&
+                                      job.finished <= cutoff);
+
+        long numFinished = jobs.values()
+                               .stream()
+                               .filter(job -> job.status.isFinished())
+                               .count();
+        if (numFinished > maxRetained) {
+            jobs.values()
+                .stream()
+                .filter(job -> job.status.isFinished())
+                .sorted(Comparator.comparingLong(job -> job.finished))
+                .limit(numFinished - maxRetained)
+                .forEach(job -> jobs.remove(job.id, job));
+        }
+    }
+
+    private void run(Job job) {
+        List<CategoryAndSubcat> input;
+        synchronized (job) {
+            if (job.status != JobStatus.QUEUED) {
+                return;
+            }
+            job.status = JobStatus.RUNNING;
+            job.started = System.currentTimeMillis();
+            input = job.input;
+        }
+
+        try {
+            CategoryCleanResponse result = cleaner.cleanAndCount(input);
+            synchronized (job) {
+                if (job.status == JobStatus.RUNNING) {
+                    job.result = result;
+                    job.finish(JobStatus.SUCCEEDED, null);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            failed(job, e);
+        }
+        catch (Error e) {
+            // Such as running out of memory on a large job.  The job still
+            // has to finish, or it would be left running (and holding its
+            // input) forever.
+            failed(job, e);
+            throw e;
+        }
+    }
+
+    private static void failed(Job job, Throwable cause) {
+        synchronized (job) {
+            if (job.status == JobStatus.RUNNING) {
+                job.finish(JobStatus.FAILED, String.valueOf(cause.getMessage()));
+            }
+        }
+    }
+
+    // The mutable state of a single job.  Status changes are made while
+    // synchronized on the job, so a cancellation can't race a completion;
+    // the fields are volatile so status checks don't need to synchronize.
+    private static class Job {
+        private final String id;
+        private final int inputSize;
+        private final long submitted = System.currentTimeMillis();
+
+        private volatile List<CategoryAndSubcat> input;
+        private volatile Future<?> future;
+        private volatile JobStatus status = JobStatus.QUEUED;
+        private volatile Long started;
+        private volatile Long finished;
+        private volatile String error;
+        private volatile CategoryCleanResponse result;
+
+        private Job(String id, List<CategoryAndSubcat> input) {
+            this.id = id;
+            this.input = input;
+            this.inputSize = input.size();
+        }
+
+        // Once finished, there's no need to hang on to the input
+        private void finish(JobStatus status, String error) {
+            this.error = error;
+            this.finished = System.currentTimeMillis();
+            this.input = null;
+            this.status = status;
+        }
+
+        private DataSetJob toDataSetJob() {
+            synchronized (this) {
+                return new DataSetJob(id, status, inputSize, submitted,
+                                      started, finished, error);
+            }
+        }
+    }
+}
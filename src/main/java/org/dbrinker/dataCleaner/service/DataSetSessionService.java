@@ -0,0 +1,67 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.DataSetSession;
+
+import java.util.Iterator;
+
+/**
+ * Defines a service for cleaning a single data set which is sent in several
+ * batches (for example, because of limits on request size).  A session is
+ * opened for the data set, each batch is appended to it, and the session
+ * keeps track of what it has seen so far - so duplicates are caught across
+ * batches and the counts always cover the whole data set to date.  Sessions
+ * which sit idle for too long are closed automatically.
+ *
+ * @see CleaningSession
+ *
+ * @author Don Brinker
+ */
+public interface DataSetSessionService {
+    /**
+     * Opens a new session
+     *
+     * @return  The state of the new session
+     *
+     * @throws  IllegalStateException if too many sessions are already open
+     */
+    DataSetSession open();
+
+    /**
+     * Cleans the next batch of a session's data set.  The batch is read in
+     * full before any of it is applied, so if it can't be read (because it is
+     * malformed, say) the session is left as it was, and the batch can be
+     * sent again as is.
+     *
+     * @param id        The id of the session in question
+     * @param batch     The batch's category/subcategory pairs.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The pairs from the batch which are clean and new to the session
+     *          (in the same order as the batch), along with the counts for the
+     *          whole data set so far - or null if there is no such session
+     */
+    CategoryCleanResponse append(String id,
+                                 Iterator<? extends CategoryAndSubcat> batch);
+
+    /**
+     * Retrieves the state of a session, including the counts for the whole
+     * data set so far
+     *
+     * @param id    The id of the session in question
+     *
+     * @return  The state of the session, or null if there is no such session
+     */
+    DataSetSession getSession(String id);
+
+    /**
+     * Closes a session, releasing everything it was keeping track of
+     *
+     * @param id    The id of the session in question
+     *
+     * @return  The final state of the session, or null if there was no such
+     *          session
+     */
+    DataSetSession close(String id);
+}
@@ -0,0 +1,239 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.DataSetSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory implementation of the Data Set Session Service API.  Each
+ * session holds on to a {@link CleaningSession} from the data cleaner, which
+ * does the actual work of tracking duplicates and counts between batches.
+ *
+ * @author Don Brinker
+ */
+@Service
+public class DataSetSessionServiceImpl implements DataSetSessionService {
+    private static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 900;
+    private static final int DEFAULT_MAX_OPEN = 100;
+
+    private DataCleaner cleaner;
+
+    private long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(DEFAULT_IDLE_TIMEOUT_SECONDS);
+    private int maxOpen = DEFAULT_MAX_OPEN;
+
+    private final ConcurrentMap<String, Session> sessions
+        = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param cleaner   The cleaner which will do the work for each session
+     */
+    @Autowired
+    public DataSetSessionServiceImpl(DataCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Sets how long a session may sit unused before it is closed
+     *
+     * @param idleTimeoutSeconds    The idle timeout, in seconds
+     */
+    @Value("${dataCleaner.sessions.idleTimeoutSeconds:" + DEFAULT_IDLE_TIMEOUT_SECONDS + "}")
+    public void setIdleTimeoutSeconds(long idleTimeoutSeconds) {
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+    }
+
+    /**
+     * Sets the maximum number of sessions which may be open at once
+     *
+     * @param maxOpen   The maximum number of sessions
+     */
+    @Value("${dataCleaner.sessions.maxOpen:" + DEFAULT_MAX_OPEN + "}")
+    public void setMaxOpen(int maxOpen) {
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * Starts a background sweep for idle sessions
+     */
+    @PostConstruct
+    public void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("data-set-session-sweeper")
+                                      .setDaemon(true)
+                                      .build());
+        long sweepInterval = Math.max(1000L, idleTimeoutMillis / 10);
+        sweeper.scheduleWithFixedDelay(this::closeIdleSessions,
+                                       sweepInterval, sweepInterval,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background sweep, and closes every open session
+     */
+    @PreDestroy
+    public void stop() {
+        sweeper.shutdownNow();
+        sessions.keySet().forEach(this::close);
+    }
+
+    /**
+     * Opens a new session
+     *
+     * @return  The state of the new session
+     */
+    @Override
+    public DataSetSession open() {
+        // This is a soft limit - a few concurrent opens could overshoot it
+        // slightly, which is fine for its purpose of bounding memory use
+        if (sessions.size() >= maxOpen) {
+            throw new IllegalStateException("Too many open sessions");
+        }
+
+        Session session = new Session(UUID.randomUUID().toString(),
+                                      cleaner.openSession());
+        sessions.put(session.id, session);
+        return session.toDataSetSession();
+    }
+
+    /**
+     * Cleans the next batch of a session's data set
+     *
+     * @param id        The id of the session in question
+     * @param batch     The batch's category/subcategory pairs.  Presumed to be
+     *                  non-null.
+     *
+     * @return  The clean pairs new to the session and the counts so far, or
+     *          null if there is no such session
+     */
+    @Override
+    public CategoryCleanResponse append(String id,
+                                        Iterator<? extends CategoryAndSubcat> batch) {
+        Objects.requireNonNull(batch, "Batch must not be null");
+
+        Session session = sessions.get(id);
+        return session == null ? null : session.append(batch);
+    }
+
+    /**
+     * Retrieves the state of a session
+     *
+     * @param id    The id of the session in question
+     *
+     * @return  The state of the session, or null if there is no such session
+     */
+    @Override
+    public DataSetSession getSession(String id) {
+        Session session = sessions.get(id);
+        return session == null ? null : session.toDataSetSession();
+    }
+
+    /**
+     * Closes a session
+     *
+     * @param id    The id of the session in question
+     *
+     * @return  The final state of the session, or null if there was no such
+     *          session
+     */
+    @Override
+    public DataSetSession close(String id) {
+        Session session = sessions.remove(id);
+        return session == null ? null : session.close();
+    }
+
+    /**
+     * Closes every session which has been idle for longer than the timeout
+     */
+    void closeIdleSessions() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        sessions.values()
+                .stream()
+                .filter(session -> session.lastUpdated <= cutoff)
+                .forEach(session -> {
+                    if (sessions.remove(session.id, session)) {
+                        session.close();
+                    }
+                });
+    }
+
+    // A single open session.  Batches for the same session are cleaned one
+    // at a time, since the underlying cleaning session isn't thread safe.
+    //
+    // A batch is read in full before the session is locked, so a slow client
+    // doesn't hold up anyone else looking at (or closing) the session, and a
+    // batch that can't be read leaves the session untouched.
+    private static class Session {
+        private final String id;
+        private final CleaningSession cleaning;
+        private final long opened = System.currentTimeMillis();
+
+        private volatile long lastUpdated = opened;
+        private int numBatches;
+        private long numReceived;
+        private long numAccepted;
+        private boolean closed;
+
+        private Session(String id, CleaningSession cleaning) {
+            this.id = id;
+            this.cleaning = cleaning;
+        }
+
+        private CategoryCleanResponse append(Iterator<? extends CategoryAndSubcat> batch) {
+            List<CategoryAndSubcat> received = new ArrayList<>();
+            batch.forEachRemaining(received::add);
+            return clean(received);
+        }
+
+        private synchronized CategoryCleanResponse clean(List<CategoryAndSubcat> batch) {
+            // Lost a race with a close
+            if (closed) {
+                return null;
+            }
+
+            List<CategoryAndSubcat> accepted = new ArrayList<>();
+            cleaning.clean(batch.iterator(), accepted::add);
+
+            numBatches++;
+            numReceived += batch.size();
+            numAccepted += accepted.size();
+            lastUpdated = System.currentTimeMillis();
+            return new CategoryCleanResponse(accepted, cleaning.getCounts());
+        }
+
+        private synchronized DataSetSession close() {
+            DataSetSession finalState = toDataSetSession();
+            if (!closed) {
+                closed = true;
+                cleaning.close();
+            }
+            return finalState;
+        }
+
+        private synchronized DataSetSession toDataSetSession() {
+            return new DataSetSession(id, cleaning.getCategoryVersion(),
+                                      opened, lastUpdated, numBatches,
+                                      numReceived, numAccepted,
+                                      closed ? null : cleaning.getCounts());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Releases direct and memory-mapped buffers as soon as they're finished with.
+ *
+ * Left to itself, the JVM only releases such a buffer once the garbage
+ * collector notices it is unreachable - which, since the buffer costs the
+ * heap next to nothing, may not be for a long time.  Until then, the memory
+ * (or the mapped file) stays allocated.  There's no public API for releasing
+ * one sooner, so this uses the JDK's internal one where it can find it (which
+ * differs between Java 8 and later versions), and otherwise leaves it to the
+ * garbage collector as before.
+ *
+ * @author Don Brinker
+ */
+final class DirectBuffers {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectBuffers.class);
+
+    private static final Consumer<ByteBuffer> FREE = findFree();
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Releases the given buffer.  It, and every view of it, must never be
+     * used again, or the JVM may crash.
+     *
+     * @param buffer    The buffer in question.  Ignored unless direct.
+     */
+    static void free(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect()) {
+            FREE.accept(buffer);
+        }
+    }
+
+    private static Consumer<ByteBuffer> findFree() {
+        try {
+            // Java 9 on
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+                                                         ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // Not there, so try the Java 8 way
+        }
+
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer")
+                                  .getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = invoke(cleaner, buffer);
+                if (bufferCleaner != null) {
+                    invoke(clean, bufferCleaner);
+                }
+            };
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Unable to release direct buffers early; they will be "
+                     + "released by garbage collection instead", e);
+            return buffer -> { };
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to release direct buffer", e);
+        }
+        catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to release direct buffer",
+                                            e.getCause());
+        }
+    }
+}
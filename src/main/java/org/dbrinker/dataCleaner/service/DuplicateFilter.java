@@ -0,0 +1,74 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Recognizes category/subcategory pairs which have already been seen.
+ *
+ * Instances are not thread safe, and should be closed once they are no longer
+ * needed.
+ *
+ * @author Don Brinker
+ */
+interface DuplicateFilter extends AutoCloseable {
+    /**
+     * Checks whether the given pair has been seen before, and remembers it if
+     * not
+     *
+     * @param record    The pair in question
+     *
+     * @return  true if this is the first time the pair has been seen
+     */
+    boolean firstOccurrence(CategoryAndSubcat record);
+
+    /**
+     * Releases any resources held by the filter
+     */
+    @Override
+    void close();
+
+    /**
+     * Creates a filter which remembers pairs in an ordinary set.  This is
+     * exact and fast, but holds on to every distinct pair - fine when the
+     * pairs are on the heap anyway.
+     *
+     * @return  The new filter
+     */
+    static DuplicateFilter onHeap() {
+        Set<CategoryAndSubcat> seen = new HashSet<>();
+        return new DuplicateFilter() {
+            @Override
+            public boolean firstOccurrence(CategoryAndSubcat record) {
+                return seen.add(record);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Creates a filter which remembers a 128-bit fingerprint of each pair
+     * rather than the pair itself, in a {@link FingerprintSet} outside the
+     * heap.  The odds of two distinct pairs sharing a fingerprint are
+     * vanishingly small (around one in 10^20 even for a billion distinct
+     * pairs), so for all practical purposes this is exact too.
+     *
+     * @param memoryBudget      The direct memory to draw on before spilling to
+     *                          disk, shared with every other filter using
+     *                          it.  Presumed to be non-null.
+     * @param spillDirectory    The directory in which to create temporary
+     *                          files, or null to use the system default
+     *
+     * @return  The new filter
+     */
+    static DuplicateFilter offHeap(MemoryBudget memoryBudget,
+                                   File spillDirectory) {
+        return new FingerprintFilter(memoryBudget, spillDirectory);
+    }
+}
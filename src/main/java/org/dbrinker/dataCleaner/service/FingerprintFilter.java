@@ -0,0 +1,70 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+
+import java.io.File;
+
+/**
+ * A {@link DuplicateFilter} which remembers a 128-bit fingerprint of each
+ * pair, rather than the pair itself, in a {@link FingerprintSet} outside the
+ * heap.
+ *
+ * @author Don Brinker
+ */
+class FingerprintFilter implements DuplicateFilter {
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    private final FingerprintSet fingerprints;
+
+    FingerprintFilter(MemoryBudget memoryBudget, File spillDirectory) {
+        this.fingerprints = new FingerprintSet(memoryBudget,
+                                               spillDirectory);
+    }
+
+    @Override
+    public boolean firstOccurrence(CategoryAndSubcat record) {
+        Hasher hasher = FINGERPRINT.newHasher();
+        putField(hasher, record.getCategory());
+        putField(hasher, record.getSubcategory());
+        byte[] fingerprint = hasher.hash().asBytes();
+
+        return fingerprints.add(toLong(fingerprint, 0),
+                                toLong(fingerprint, 8));
+    }
+
+    @Override
+    public void close() {
+        fingerprints.close();
+    }
+
+    /**
+     * Retrieves the underlying fingerprints
+     *
+     * @return  The fingerprints
+     */
+    FingerprintSet getFingerprints() {
+        return fingerprints;
+    }
+
+    // Length-prefix each field (with -1 for null) so that, for example,
+    // ("AB", "C") and ("A", "BC") can't run together
+    private static void putField(Hasher hasher, String field) {
+        if (field == null) {
+            hasher.putInt(-1);
+        }
+        else {
+            hasher.putInt(field.length()).putUnencodedChars(field);
+        }
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,256 @@
+package org.dbrinker.dataCleaner.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A set of 128-bit fingerprints, held entirely outside the Java heap.
+ *
+ * Fingerprints are stored in an open-addressed (linear probing) hash table of
+ * 16 byte slots.  The table starts out small, in direct memory, and doubles in
+ * size as it fills up.  Once doubling it would take the table past the given
+ * memory budget, it is moved into memory-mapped temporary files instead, so
+ * the operating system can page it out to disk as needed.  The garbage
+ * collector never sees any of it either way - the set costs the heap a few
+ * objects, however many fingerprints it holds.
+ *
+ * The memory budget is shared with every other set drawing on it, so any
+ * number of sets in use at once still keep within it between them.  Each
+ * table is released as soon as it is outgrown, and the last when the set is
+ * closed, rather than whenever the garbage collector gets round to it.
+ *
+ * The all-zero fingerprint marks an empty slot, so it can't be stored as is;
+ * it is quietly stored as a fingerprint of 1 instead.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Don Brinker
+ */
+class FingerprintSet implements Closeable {
+    private static final int SLOT_BYTES = 16;
+
+    // A single buffer can't be larger than 2GB, so big tables are split into
+    // segments of 1GB each
+    private static final int SEGMENT_SLOT_BITS = 26;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_SLOT_BITS;
+
+    private static final long INITIAL_CAPACITY = 1024;
+
+    private final MemoryBudget memoryBudget;
+    private final File spillDirectory;
+
+    private Table table;
+    private long size;
+    private long resizeAt;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param memoryBudget      The direct memory to draw on before spilling to
+     *                          disk.  Presumed to be non-null.
+     * @param spillDirectory    The directory in which to create temporary
+     *                          files, or null to use the system default
+     */
+    FingerprintSet(MemoryBudget memoryBudget, File spillDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.table = allocate(INITIAL_CAPACITY);
+        this.resizeAt = thresholdFor(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds a fingerprint to the set
+     *
+     * @param high  The high 64 bits of the fingerprint
+     * @param low   The low 64 bits of the fingerprint
+     *
+     * @return  true if the fingerprint was not already in the set
+     */
+    boolean add(long high, long low) {
+        if (high == 0 && low == 0) {
+            low = 1;
+        }
+
+        if (!insert(table, high, low)) {
+            return false;
+        }
+
+        if (++size >= resizeAt) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the number of fingerprints in the set
+     *
+     * @return  The number of fingerprints
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Indicates whether the set has outgrown its memory budget and moved to
+     * disk
+     *
+     * @return  true if the set has been spilled
+     */
+    boolean isSpilled() {
+        return table.mapped;
+    }
+
+    /**
+     * Releases the set's storage.  The set must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (table != null) {
+            free(table);
+            table = null;
+        }
+    }
+
+    private static boolean insert(Table table, long high, long low) {
+        long mask = table.capacity - 1;
+        long slot = low & mask;
+        while (true) {
+            ByteBuffer segment = table.segments[(int) (slot >>> SEGMENT_SLOT_BITS)];
+            int offset = (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_BYTES;
+            long slotHigh = segment.getLong(offset);
+            long slotLow = segment.getLong(offset + 8);
+            if (slotHigh == 0 && slotLow == 0) {
+                segment.putLong(offset, high);
+                segment.putLong(offset + 8, low);
+                return true;
+            }
+            if (slotHigh == high && slotLow == low) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        Table oldTable = table;
+        Table newTable = allocate(oldTable.capacity * 2);
+
+        long oldSegmentSlots = Math.min(oldTable.capacity, SEGMENT_SLOTS);
+        for (ByteBuffer segment : oldTable.segments) {
+            for (int i = 0; i < oldSegmentSlots; i++) {
+                long high = segment.getLong(i * SLOT_BYTES);
+                long low = segment.getLong(i * SLOT_BYTES + 8);
+                if (high != 0 || low != 0) {
+                    insert(newTable, high, low);
+                }
+            }
+        }
+
+        table = newTable;
+        resizeAt = thresholdFor(newTable.capacity);
+        free(oldTable);
+    }
+
+    // Linear probing degrades quickly as the table fills, so keep it at most
+    // five eighths full
+    private static long thresholdFor(long capacity) {
+        return capacity / 8 * 5;
+    }
+
+    private Table allocate(long capacity) {
+        long bytes = capacity * SLOT_BYTES;
+
+        // Once on disk, always on disk.  While growing, the old table is
+        // still held, so the budget has to cover both for a moment.
+        boolean mapped = (table != null && table.mapped) ||
+                         !memoryBudget.tryReserve(bytes);
+
+        int numSegments = (int) Math.max(1, capacity / SEGMENT_SLOTS);
+        int segmentBytes = (int) (Math.min(capacity, SEGMENT_SLOTS) * SLOT_BYTES);
+        Table allocated = new Table(capacity, numSegments, mapped,
+                                    mapped ? 0L : bytes);
+        try {
+            for (int i = 0; i < numSegments; i++) {
+                ByteBuffer segment = mapped ? map(segmentBytes, allocated, i)
+                                            : ByteBuffer.allocateDirect(segmentBytes);
+                allocated.segments[i] = segment.order(ByteOrder.nativeOrder());
+            }
+        }
+        catch (RuntimeException | Error e) {
+            free(allocated);
+            throw e;
+        }
+        return allocated;
+    }
+
+    // Maps a new, zero-filled temporary file into memory.  The file is
+    // unlinked straight away where the platform allows, so it can't be left
+    // behind if the process dies; otherwise it is remembered, to be got rid
+    // of once unmapped.
+    private ByteBuffer map(int bytes, Table table, int segment) {
+        try {
+            File file = File.createTempFile("fingerprints", ".tmp",
+                                            spillDirectory);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(bytes);
+                return raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                                            0, bytes);
+            }
+            finally {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                    table.files[segment] = file;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill fingerprints to disk",
+                                           e);
+        }
+    }
+
+    // Releases a table's memory (or files) and gives back its share of the
+    // budget
+    private void free(Table table) {
+        for (ByteBuffer segment : table.segments) {
+            DirectBuffers.free(segment);
+        }
+        for (File file : table.files) {
+            if (file != null && !file.delete()) {
+                // Couldn't be deleted, so at least give the space back
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(0L);
+                }
+                catch (IOException e) {
+                    // It will be deleted on exit, if nothing else
+                }
+            }
+        }
+        memoryBudget.release(table.reservedBytes);
+    }
+
+    private static class Table {
+        private final long capacity;
+        private final ByteBuffer[] segments;
+        private final File[] files;
+        private final boolean mapped;
+        private final long reservedBytes;
+
+        private Table(long capacity,
+                      int numSegments,
+                      boolean mapped,
+                      long reservedBytes) {
+            this.capacity = capacity;
+            this.segments = new ByteBuffer[numSegments];
+            this.files = new File[numSegments];
+            this.mapped = mapped;
+            this.reservedBytes = reservedBytes;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.dbrinker.dataCleaner.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An amount of memory shared between everything that draws on it, such as
+ * the {@link FingerprintSet}s of every request and session under way at the
+ * same time.  Memory is reserved before it is allocated, and released once it
+ * is freed; a reservation which would take the total past the budget is
+ * refused, and the caller has to make do without (by spilling to disk, say).
+ *
+ * Instances are thread safe.
+ *
+ * @author Don Brinker
+ */
+final class MemoryBudget {
+    private final long limit;
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param limit     The total number of bytes that may be reserved at once
+     */
+    MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Reserves the given amount of memory, if there's room for it
+     *
+     * @param bytes     The number of bytes to reserve
+     *
+     * @return  true if the memory was reserved, in which case it must be
+     *          released later; false if there isn't room
+     */
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long current = reserved.get();
+            if (bytes > limit - current) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases memory reserved earlier
+     *
+     * @param bytes     The number of bytes to release
+     */
+    void release(long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    /**
+     * Retrieves the amount of memory currently reserved
+     *
+     * @return  The number of bytes reserved
+     */
+    long getReserved() {
+        return reserved.get();
+    }
+
+    /**
+     * Retrieves the total amount of memory that may be reserved at once
+     *
+     * @return  The number of bytes in question
+     */
+    long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,207 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The rules by which categories which aren't known as they are may still be
+ * matched to known ones: trimming surrounding whitespace, ignoring case,
+ * putting Unicode text into a canonical form (NFC), and alternative names
+ * (aliases) for known categories.  Each rule is off unless switched on.
+ *
+ * Applying the rules means case conversions and Unicode normalization, which
+ * are far too slow to do for every record.  Rather, they are compiled into a
+ * {@link CategoryNormalizer} once for each version of the categories, and
+ * only ever applied to categories that aren't known as they are.
+ *
+ * Instances are immutable.
+ *
+ * @author Don Brinker
+ */
+final class NormalizationRules {
+    /**
+     * The default number of raw categories whose normalized form is
+     * remembered
+     */
+    static final int DEFAULT_MAX_CACHED = 10000;
+
+    /**
+     * No rules at all
+     */
+    static final NormalizationRules NONE
+        = new NormalizationRules(false, false, false, ImmutableMap.of(),
+                                 DEFAULT_MAX_CACHED);
+
+    private final boolean trim;
+    private final boolean caseFold;
+    private final boolean nfc;
+    private final ImmutableMap<String, String> aliases;
+    private final int maxCached;
+
+    private NormalizationRules(boolean trim,
+                               boolean caseFold,
+                               boolean nfc,
+                               Map<String, String> aliases,
+                               int maxCached) {
+        this.trim = trim;
+        this.caseFold = caseFold;
+        this.nfc = nfc;
+        this.aliases = ImmutableMap.copyOf(aliases);
+        this.maxCached = maxCached;
+    }
+
+    /**
+     * Retrieves a copy of these rules with whitespace trimming switched on or
+     * off
+     *
+     * @param trim  Whether to trim whitespace from the ends of categories
+     *
+     * @return  The rules in question
+     */
+    NormalizationRules withTrim(boolean trim) {
+        return new NormalizationRules(trim, caseFold, nfc, aliases, maxCached);
+    }
+
+    /**
+     * Retrieves a copy of these rules with case folding switched on or off
+     *
+     * @param caseFold  Whether to ignore the case of categories
+     *
+     * @return  The rules in question
+     */
+    NormalizationRules withCaseFold(boolean caseFold) {
+        return new NormalizationRules(trim, caseFold, nfc, aliases, maxCached);
+    }
+
+    /**
+     * Retrieves a copy of these rules with Unicode normalization switched on
+     * or off
+     *
+     * @param nfc   Whether to compare categories in Unicode normalization
+     *              form C
+     *
+     * @return  The rules in question
+     */
+    NormalizationRules withNfc(boolean nfc) {
+        return new NormalizationRules(trim, caseFold, nfc, aliases, maxCached);
+    }
+
+    /**
+     * Retrieves a copy of these rules with the given aliases
+     *
+     * @param aliases   Alternative names for categories, mapped to the
+     *                  categories they stand for.  Presumed to be non-null.
+     *
+     * @return  The rules in question
+     */
+    NormalizationRules withAliases(Map<String, String> aliases) {
+        return new NormalizationRules(trim, caseFold, nfc, aliases, maxCached);
+    }
+
+    /**
+     * Retrieves a copy of these rules remembering the normalized forms of the
+     * given number of raw categories
+     *
+     * @param maxCached     The number of raw categories
+     *
+     * @return  The rules in question
+     */
+    NormalizationRules withMaxCached(int maxCached) {
+        return new NormalizationRules(trim, caseFold, nfc, aliases, maxCached);
+    }
+
+    /**
+     * Retrieves whether there are any rules at all
+     *
+     * @return  true if any rule is switched on
+     */
+    boolean isEnabled() {
+        return trim || caseFold || nfc || !aliases.isEmpty();
+    }
+
+    /**
+     * Retrieves the alternative names for categories
+     *
+     * @return  The aliases, mapped to the categories they stand for
+     */
+    Map<String, String> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * Retrieves the number of raw categories whose normalized form is
+     * remembered
+     *
+     * @return  The number in question
+     */
+    int getMaxCached() {
+        return maxCached;
+    }
+
+    /**
+     * Puts the given category into normal form.  Two categories with the
+     * same normal form are considered to be the same.
+     *
+     * @param category  The category in question.  Presumed to be non-null.
+     *
+     * @return  The normal form of the category
+     */
+    String normalize(String category) {
+        String normalized = category;
+        if (nfc) {
+            normalized = Normalizer.normalize(normalized, Normalizer.Form.NFC);
+        }
+        if (trim) {
+            normalized = trimWhitespace(normalized);
+        }
+        if (caseFold) {
+            // Upper-casing first folds the likes of the German sharp s and
+            // "ss" together
+            normalized = normalized.toUpperCase(Locale.ROOT)
+                                   .toLowerCase(Locale.ROOT);
+        }
+        return normalized;
+    }
+
+    // String.trim() only knows about ASCII control characters and spaces
+    private static String trimWhitespace(String string) {
+        int start = 0;
+        int end = string.length();
+        while (start < end && isWhitespace(string.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(string.charAt(end - 1))) {
+            end--;
+        }
+        return string.substring(start, end);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        NormalizationRules that = (NormalizationRules) obj;
+        return trim == that.trim &&
+               caseFold == that.caseFold &&
+               nfc == that.nfc &&
+               maxCached == that.maxCached &&
+               aliases.equals(that.aliases);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(trim, caseFold, nfc, aliases, maxCached);
+    }
+}
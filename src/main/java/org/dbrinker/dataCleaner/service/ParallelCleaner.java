@@ -0,0 +1,200 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Cleans and counts a data set by splitting it into chunks and processing
+ * the chunks in parallel.  The output is identical to that of a sequential
+ * {@link CleaningPass} over the same data: only the first occurrence of each
+ * clean pair is kept, in input order.
+ *
+ * This works in two phases.  The first records, for each distinct valid pair,
+ * the lowest index at which it occurs anywhere in the input.  The second has
+ * each chunk keep (and count) exactly those pairs found at their recorded
+ * index.  The chunk outputs are then concatenated in order and their counts
+ * merged.
+ *
+ * @author Don Brinker
+ */
+class ParallelCleaner {
+    // Split the input into a few chunks per worker, so a worker that finishes
+    // early can pick up some of the slack
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final ForkJoinPool pool;
+    private final CleaningMetrics metrics;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param pool      The pool on which the chunks will be processed
+     * @param metrics   Records how the cleaning went
+     */
+    ParallelCleaner(ForkJoinPool pool, CleaningMetrics metrics) {
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Cleans and counts the input
+     *
+     * @param input             The pairs to clean.  Presumed to be non-null
+     *                          and to support fast random access.
+     * @param dictionary        The categories considered valid
+     * @param normalizer        Normalizes variants of categories.  If
+     *                          null, categories aren't normalized.
+     * @param corrector         Corrects misspelt categories.  If null,
+     *                          categories aren't corrected.  If both are
+     *                          null, records with unknown categories are
+     *                          simply dropped.
+     * @param page              The category counts to return
+     * @param event             The Flight Recorder event for the clean, to
+     *                          which the outcome is added
+     *
+     * @return  The cleaned input and category counts
+     */
+    CategoryCleanResponse cleanAndCount(List<CategoryAndSubcat> input,
+                                        CategoryDictionary dictionary,
+                                        CategoryNormalizer normalizer,
+                                        CategoryCorrector corrector,
+                                        CountPage page,
+                                        DataSetCleanedEvent event) {
+        int size = input.size();
+        int numChunks = Math.max(1, Math.min(size,
+                                             pool.getParallelism() *
+                                             CHUNKS_PER_WORKER));
+        int chunkSize = (size + numChunks - 1) / Math.max(1, numChunks);
+        CleaningStageEvent stageEvent = new CleaningStageEvent();
+        stageEvent.begin();
+        long started = System.nanoTime();
+
+        // Phase 1: find the first occurrence of every valid pair (counting
+        // the invalid and corrected ones along the way).  Corrected pairs are
+        // recorded as corrected, so they can turn out to be duplicates.
+        ConcurrentMap<CategoryAndSubcat, Integer> firstOccurrences
+            = new ConcurrentHashMap<>(Math.max(16, size / 2));
+        List<Callable<long[]>> indexers = new ArrayList<>(numChunks);
+        for (int start = 0; start < size; start += chunkSize) {
+            int from = start;
+            int to = Math.min(size, start + chunkSize);
+            indexers.add(() -> {
+                CategoryResolver resolver
+                    = new CategoryResolver(dictionary, normalizer, corrector);
+                long invalid = 0L;
+                long corrected = 0L;
+                for (int i = from; i < to; i++) {
+                    CategoryAndSubcat record = input.get(i);
+                    CategoryAndSubcat resolved = resolver.resolve(record);
+                    if (resolved == null) {
+                        invalid++;
+                        continue;
+                    }
+                    if (resolved != record) {
+                        corrected++;
+                    }
+                    firstOccurrences.merge(resolved, i, Math::min);
+                }
+                return new long[]{invalid, corrected};
+            });
+        }
+        long invalid = 0L;
+        long corrected = 0L;
+        for (long[] chunkOutcomes : invokeAll(indexers)) {
+            invalid += chunkOutcomes[0];
+            corrected += chunkOutcomes[1];
+        }
+
+        // Phase 2: have each chunk keep and count just the first occurrences
+        List<Callable<Chunk>> cleaners = new ArrayList<>(numChunks);
+        for (int start = 0; start < size; start += chunkSize) {
+            int from = start;
+            int to = Math.min(size, start + chunkSize);
+            cleaners.add(() -> {
+                Chunk chunk = new Chunk(dictionary);
+                CategoryResolver resolver
+                    = new CategoryResolver(dictionary, normalizer, corrector);
+                for (int i = from; i < to; i++) {
+                    // Without normalization or correction, a record is kept
+                    // as it is (or not at all), so there's nothing to resolve
+                    CategoryAndSubcat record = resolver.isEnabled()
+                                               ? resolver.resolve(input.get(i))
+                                               : input.get(i);
+                    if (record == null) {
+                        continue;
+                    }
+                    Integer first = firstOccurrences.get(record);
+                    if (first != null && first == i) {
+                        chunk.cleaned.add(record);
+                        chunk.counter.increment(
+                            dictionary.idOf(record.getCategory()));
+                    }
+                }
+                return chunk;
+            });
+        }
+
+        // Finally, stitch the chunks back together in their original order
+        List<CategoryAndSubcat> cleaned
+            = new ArrayList<>(firstOccurrences.size());
+        CategoryCounter counter = new CategoryCounter(dictionary);
+        for (Chunk chunk : invokeAll(cleaners)) {
+            cleaned.addAll(chunk.cleaned);
+            counter.addAll(chunk.counter);
+        }
+        long duplicates = size - invalid - cleaned.size();
+        metrics.cleaned(System.nanoTime() - started, size, invalid, duplicates,
+                        corrected);
+        event.cleaned(size, invalid, duplicates);
+        stageEvent.finish(CleaningStageEvent.CLEAN, size);
+
+        return new CategoryCleanResponse(cleaned, counter.getCounts(metrics, page));
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CancellationException cancelled
+                = new CancellationException("Cleaning was cancelled");
+            cancelled.initCause(e);
+            throw cancelled;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+
+    // The output of the second phase for a single chunk
+    private static class Chunk {
+        private final List<CategoryAndSubcat> cleaned = new ArrayList<>();
+        private final CategoryCounter counter;
+
+        private Chunk(CategoryDictionary dictionary) {
+            this.counter = new CategoryCounter(dictionary);
+        }
+    }
+}
@@ -1,38 +1,85 @@
 package org.dbrinker.dataCleaner.web;
 
+import org.dbrinker.dataCleaner.model.CategoryChangeResponse;
 import org.dbrinker.dataCleaner.service.CategoryService;
+import org.dbrinker.dataCleaner.service.CategorySnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * JAX-RS Endpoint for accessing and changing Categories via REST
  *
+ * Besides changing categories one at a time, many categories can be added
+ * ({@code POST /category/bulk}), deleted ({@code POST /category/bulk/delete})
+ * or replaced wholesale ({@code PUT /category}) at once, each as a single
+ * change.  The categories for these can be sent as a JSON array,
+ * newline-delimited JSON strings, or plain text with one category per line
+ * (as in a file of categories), and are read as a stream.
+ *
+ * Clients polling for changes to the categories can make their requests
+ * conditional: each response carries an entity tag for the categories'
+ * current version, and a request whose {@code If-None-Match} header matches
+ * it is answered with a bodiless 304 (Not Modified).  Otherwise, the body is
+ * served (gzipped, if the client accepts that) from a cache of the current
+ * version's serialized categories, so it's only built once per change.
+ *
  * @author Don Brinker
  */
 @Component
 @Path("/category")
 public class CategoryEndpoint extends AbstractEndpoint {
     private static final String SERVICE_NAME = "Category";
+    private static final String GZIP = "gzip";
+
+    // Clients may keep the categories, but should check that they're still
+    // current before using them again
+    private static final CacheControl CACHE_CONTROL = new CacheControl();
+    static {
+        CACHE_CONTROL.setNoCache(true);
+    }
 
     @Context
     private UriInfo uriInfo;
 
+    @Context
+    private HttpHeaders headers;
+
+    @Context
+    private Request request;
+
     private CategoryService service;
 
+    // The representation of the most recent version asked for.  Built by
+    // whichever request first sees a new version; if two requests race to
+    // do so, they build identical representations, so either will do.
+    private volatile CategoryRepresentation representation;
+
     @Autowired
     public CategoryEndpoint(CategoryService service) {
         super(SERVICE_NAME);
@@ -40,10 +87,35 @@ public class CategoryEndpoint extends AbstractEndpoint {
     }
 
 
+    /**
+     * Retrieves all of the categories, unless the client already has the
+     * current version
+     *
+     * @return  The categories, or a 304 (Not Modified) response if the
+     *          request's {@code If-None-Match} header matches them
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Set<String> getAll() {
-        return service.getCategories();
+    public Response getAll() {
+        CategoryRepresentation current = currentRepresentation();
+
+        Response.ResponseBuilder builder
+            = request.evaluatePreconditions(current.getEntityTag());
+        if (builder == null) {
+            if (acceptsGzip(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING))) {
+                builder = Response.ok(current.getGzipped())
+                                  .encoding(GZIP);
+            }
+            else {
+                builder = Response.ok(current.getJson());
+            }
+            builder.type(MediaType.APPLICATION_JSON_TYPE);
+        }
+
+        return builder.tag(current.getEntityTag())
+                      .cacheControl(CACHE_CONTROL)
+                      .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                      .build();
     }
 
     @POST
@@ -67,4 +139,126 @@ public class CategoryEndpoint extends AbstractEndpoint {
         service.deleteCategory(category);
     }
 
+    /**
+     * Adds all of the given categories at once.  Categories which already
+     * exist are skipped.
+     *
+     * @param categories    The categories to add
+     *
+     * @return  The number of categories actually added
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes({MediaType.APPLICATION_JSON,
+               DataSetEndpoint.APPLICATION_NDJSON,
+               MediaType.TEXT_PLAIN})
+    @Produces(MediaType.APPLICATION_JSON)
+    public CategoryChangeResponse addAll(InputStream categories) {
+        return new CategoryChangeResponse(
+            service.addCategories(readCategories(categories)));
+    }
+
+    /**
+     * Deletes all of the given categories at once.  Categories which don't
+     * exist are skipped.
+     *
+     * @param categories    The categories to delete
+     *
+     * @return  The number of categories actually deleted
+     */
+    @POST
+    @Path("/bulk/delete")
+    @Consumes({MediaType.APPLICATION_JSON,
+               DataSetEndpoint.APPLICATION_NDJSON,
+               MediaType.TEXT_PLAIN})
+    @Produces(MediaType.APPLICATION_JSON)
+    public CategoryChangeResponse deleteAll(InputStream categories) {
+        return new CategoryChangeResponse(
+            service.deleteCategories(readCategories(categories)));
+    }
+
+    /**
+     * Replaces all of the categories with the given ones
+     *
+     * @param categories    The new categories
+     */
+    @PUT
+    @Consumes({MediaType.APPLICATION_JSON,
+               DataSetEndpoint.APPLICATION_NDJSON,
+               MediaType.TEXT_PLAIN})
+    public void replaceAll(InputStream categories) {
+        service.replaceCategories(readCategories(categories));
+    }
+
+    private CategoryRepresentation currentRepresentation() {
+        CategorySnapshot snapshot = service.getSnapshot();
+        CategoryRepresentation current = representation;
+        if (current == null || current.getVersion() != snapshot.getVersion()) {
+            current = CategoryRepresentation.of(snapshot);
+            representation = current;
+        }
+
+        return current;
+    }
+
+    // Whether the given Accept-Encoding header allows gzip.  A coding with a
+    // quality of zero is one the client refuses.
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase(GZIP) ||
+                name.equalsIgnoreCase("x-gzip") ||
+                name.equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=") &&
+                        parameter.substring(2).trim().matches("0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Reads the whole body before anything is changed, so that a bad body
+    // changes nothing, and so the write lock isn't held while waiting on the
+    // client
+    private List<String> readCategories(InputStream body) {
+        List<String> categories = new ArrayList<>();
+        if (MediaType.TEXT_PLAIN_TYPE.isCompatible(headers.getMediaType())) {
+            try {
+                BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(body, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        categories.add(line);
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new BadRequestException(e.getMessage(), e);
+            }
+        }
+        else {
+            Iterator<String> records = RecordReader.read(body, String.class);
+            while (records.hasNext()) {
+                String category = records.next();
+                if (category == null) {
+                    throw new BadRequestException("Categories must not be null");
+                }
+                categories.add(category);
+            }
+        }
+
+        return categories;
+    }
 }
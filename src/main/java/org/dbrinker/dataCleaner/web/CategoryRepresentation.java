@@ -0,0 +1,113 @@
+package org.dbrinker.dataCleaner.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.dbrinker.dataCleaner.service.CategorySnapshot;
+
+import javax.ws.rs.core.EntityTag;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The response body for a snapshot of the categories, serialized (and
+ * compressed) once, so that it can be served any number of times without
+ * redoing the work.  Since a snapshot never changes, neither does its
+ * representation.
+ *
+ * The entity tag is derived from the serialized categories themselves,
+ * rather than just the version, so that it stays correct even where versions
+ * start again from scratch (as they do when categories aren't stored across
+ * restarts).  It's a weak tag, since it covers both the plain and compressed
+ * bodies.
+ *
+ * @author Don Brinker
+ */
+final class CategoryRepresentation {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final long version;
+    private final EntityTag entityTag;
+    private final byte[] json;
+    private final byte[] gzipped;
+
+    private CategoryRepresentation(long version,
+                                   EntityTag entityTag,
+                                   byte[] json,
+                                   byte[] gzipped) {
+        this.version = version;
+        this.entityTag = entityTag;
+        this.json = json;
+        this.gzipped = gzipped;
+    }
+
+    /**
+     * Creates the representation of the given snapshot
+     *
+     * @param snapshot  The snapshot in question
+     *
+     * @return  The representation of the snapshot
+     */
+    static CategoryRepresentation of(CategorySnapshot snapshot) {
+        try {
+            byte[] json = MAPPER.writeValueAsBytes(snapshot.getCategories());
+
+            ByteArrayOutputStream buffer
+                = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+                out.write(json);
+            }
+
+            String hash = Hashing.murmur3_128().hashBytes(json).toString();
+            return new CategoryRepresentation(
+                snapshot.getVersion(),
+                new EntityTag(snapshot.getVersion() + "-" + hash, true),
+                json,
+                buffer.toByteArray());
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize categories", e);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieves the version of the snapshot represented
+     *
+     * @return  The version in question
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the entity tag identifying the representation
+     *
+     * @return  The entity tag in question
+     */
+    EntityTag getEntityTag() {
+        return entityTag;
+    }
+
+    /**
+     * Retrieves the categories, serialized as JSON
+     *
+     * @return  The serialized categories.  Must not be changed.
+     */
+    byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * Retrieves the categories, serialized as JSON and compressed with gzip
+     *
+     * @return  The compressed categories.  Must not be changed.
+     */
+    byte[] getGzipped() {
+        return gzipped;
+    }
+}
@@ -0,0 +1,28 @@
+package org.dbrinker.dataCleaner.web;
+
+import org.dbrinker.dataCleaner.service.CleanTimeoutException;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Reports a request which timed out waiting for the same data to be cleaned
+ * as 503 (Service Unavailable), telling the client when to try again.  By
+ * then, the result will most likely be cached.
+ *
+ * @author Don Brinker
+ */
+@Provider
+public class CleanTimeoutExceptionMapper
+    implements ExceptionMapper<CleanTimeoutException> {
+    // How long a client should wait before trying again
+    private static final long RETRY_AFTER_SECONDS = 5;
+
+    @Override
+    public Response toResponse(CleanTimeoutException exception) {
+        return new ServiceUnavailableException(RETRY_AFTER_SECONDS, exception)
+                   .getResponse();
+    }
+}
@@ -0,0 +1,66 @@
+package org.dbrinker.dataCleaner.web;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+
+/**
+ * Hashes the request body of a {@link ContentHashed} resource method as it is
+ * read, so that requests with the same content can be recognized without
+ * reading the body twice.  The hash is left in a request property, to be
+ * picked up with {@link #contentHashOf(ContainerRequestContext)}.
+ *
+ * The hash is SipHash-2-4, which is quick, and keyed with a secret picked
+ * afresh at start up, so that nobody can deliberately send a body with the
+ * same hash as someone else's.
+ *
+ * @author Don Brinker
+ */
+@ContentHashed
+public class ContentHashInterceptor implements ReaderInterceptor {
+    // The request property holding the hash of the request body
+    private static final String CONTENT_HASH
+        = ContentHashInterceptor.class.getName() + ".contentHash";
+
+    private static final HashFunction HASH_FUNCTION;
+    static {
+        SecureRandom random = new SecureRandom();
+        HASH_FUNCTION = Hashing.sipHash24(random.nextLong(), random.nextLong());
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context)
+        throws IOException, WebApplicationException {
+        HashingInputStream body
+            = new HashingInputStream(HASH_FUNCTION, context.getInputStream());
+        context.setInputStream(body);
+        Object entity = context.proceed();
+
+        // The parser may stop short of the end (e.g. at trailing whitespace),
+        // so make sure the hash covers the whole body
+        ByteStreams.copy(body, ByteStreams.nullOutputStream());
+        context.setProperty(CONTENT_HASH, body.hash());
+        return entity;
+    }
+
+    /**
+     * Retrieves the hash of the given request's body
+     *
+     * @param request   The request in question
+     *
+     * @return  The hash of the body, or null if it wasn't hashed
+     */
+    static HashCode contentHashOf(ContainerRequestContext request) {
+        return (HashCode) request.getProperty(CONTENT_HASH);
+    }
+}
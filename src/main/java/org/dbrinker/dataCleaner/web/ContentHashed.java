@@ -0,0 +1,19 @@
+package org.dbrinker.dataCleaner.web;
+
+import javax.ws.rs.NameBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a resource method whose request body should be hashed as it is read
+ * (see {@link ContentHashInterceptor}).
+ *
+ * @author Don Brinker
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ContentHashed {
+}
@@ -4,28 +4,47 @@ package org.dbrinker.dataCleaner.web;
 // and return it, is far more a RPC-based approach than you normally see in
 // REST APIs.  We'll go ahead and look at it in terms of processing data sets.
 //
-// One way to extend this if data sources (and/or processing times) grew large
-// would be to make the process asynchronous by saving the data set with a POST,
-// adding an attribute indicating if the data is clean, and retrieving the
-// (possibly cleaned) data on a GET.  We're not going to do that now, since the
-// requirements describe a synchronous return, but we'll still use a POST for
-// lack of a better action
+// Since data sources (and/or processing times) can grow large, the process can
+// also be made asynchronous: POSTing the data set to /data/jobs saves it as a
+// job, and the (possibly cleaned) data is retrieved with a GET on the job.  The
+// requirements describe a synchronous return, though, so that's still what a
+// plain POST does, for lack of a better action
 
+import com.google.common.hash.HashCode;
 import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
 import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
-import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.dbrinker.dataCleaner.model.DataSetJob;
+import org.dbrinker.dataCleaner.service.CleanResultCache;
+import org.dbrinker.dataCleaner.service.CountPage;
 import org.dbrinker.dataCleaner.service.DataCleaner;
+import org.dbrinker.dataCleaner.service.DataSetJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * REST endpoint for processing data sets
@@ -35,20 +54,41 @@ import java.util.List;
 @Component
 @Path("/data")
 public class DataSetEndpoint extends AbstractEndpoint {
+    /**
+     * Media type for newline-delimited JSON - one record per line
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private static final String SERVICE_NAME = "Data";
 
+    // How long a client should wait before resubmitting a rejected job
+    private static final long JOB_RETRY_AFTER_SECONDS = 5;
+
+    @Context
+    private UriInfo uriInfo;
+
     private DataCleaner cleaner;
+    private DataSetJobService jobService;
+    private CleanResultCache resultCache;
 
     /**
      * Creates a new instance of this class
      *
-     * @param cleaner   A service which can clean and otherwise process data
-     *                  sets
+     * @param cleaner       A service which can clean and otherwise process
+     *                      data sets
+     * @param jobService    A service which can clean data sets in the
+     *                      background
+     * @param resultCache   Remembers the results of recently cleaned data
+     *                      sets
      */
     @Autowired
-    public DataSetEndpoint(DataCleaner cleaner) {
+    public DataSetEndpoint(DataCleaner cleaner,
+                           DataSetJobService jobService,
+                           CleanResultCache resultCache) {
         super(SERVICE_NAME);
         this.cleaner = cleaner;
+        this.jobService = jobService;
+        this.resultCache = resultCache;
     }
 
     /**
@@ -56,7 +96,22 @@ public class DataSetEndpoint extends AbstractEndpoint {
      * category/subcategory pairs.  The result is returned, along with a count
      * of each category found.
      *
-     * @param data  The input category/subcategory pairs
+     * The same data set is often sent more than once in quick succession, so
+     * recent results are cached, keyed by a hash of the request body: as long
+     * as the categories haven't changed since, a data set seen recently isn't
+     * cleaned again.
+     *
+     * With a great many categories, the counts can be far bigger than the
+     * cleaned data, so only some of them may be asked for: the top
+     * <code>limit</code> counts after skipping <code>offset</code> of them,
+     * and optionally without the categories which weren't found at all.
+     *
+     * @param data          The input category/subcategory pairs
+     * @param request       The request itself
+     * @param limit         The most counts to return.  All of them, if null.
+     * @param offset        The number of counts to skip
+     * @param includeZero   Whether to include the categories which weren't
+     *                      found in the data (after all of those which were)
      *
      * @return  The cleaned pairs (in the same order as the input data) and
      *          counts (ordered by frequency of occurrences in the data)
@@ -64,11 +119,169 @@ public class DataSetEndpoint extends AbstractEndpoint {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public CategoryCleanResponse clean(List<CategoryAndSubcat> data) {
-        List<CategoryAndSubcat> cleanedData = cleaner.cleanData(data);
-        List<CategoryCount> counts = cleaner.getCategoryCounts(cleanedData);
+    @ContentHashed
+    public CategoryCleanResponse clean(List<CategoryAndSubcat> data,
+                                       @Context ContainerRequestContext request,
+                                       @QueryParam("limit") Integer limit,
+                                       @QueryParam("offset") @DefaultValue("0") int offset,
+                                       @QueryParam("includeZero") @DefaultValue("true") boolean includeZero) {
+        CountPage page = countPage(limit, offset, includeZero);
+        HashCode contentHash = ContentHashInterceptor.contentHashOf(request);
+        return resultCache.cleanAndCount(contentHash, data, page);
+    }
 
-        return new CategoryCleanResponse(cleanedData, counts);
+    /**
+     * Cleans the given newline-delimited JSON data.  The result is the same as
+     * that of {@link #clean(List, ContainerRequestContext, Integer, int, boolean)},
+     * but it is streamed exactly as with
+     * {@link #cleanStream(InputStream, Integer, int, boolean)}.
+     *
+     * @param data          The input category/subcategory pairs, one per line
+     * @param limit         The most counts to return.  All of them, if null.
+     * @param offset        The number of counts to skip
+     * @param includeZero   Whether to include the categories which weren't
+     *                      found in the data
+     *
+     * @return  The cleaned pairs and counts, written as they are produced
+     */
+    @POST
+    @Consumes(APPLICATION_NDJSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public StreamingOutput cleanNdjson(InputStream data,
+                                       @QueryParam("limit") Integer limit,
+                                       @QueryParam("offset") @DefaultValue("0") int offset,
+                                       @QueryParam("includeZero") @DefaultValue("true") boolean includeZero) {
+        return cleanStream(data, limit, offset, includeZero);
+    }
+
+    /**
+     * Cleans the given data as it is read, rather than reading it in its
+     * entirety first.  Each pair is checked as soon as it has been parsed, and
+     * written to the response straight away if it is clean; the counts follow
+     * once the input is exhausted.  Memory use therefore depends on neither
+     * the size of the request nor the size of the response.  Either a JSON
+     * array or newline-delimited JSON is accepted.
+     *
+     * The response body has the same format as that of
+     * {@link #clean(List, ContainerRequestContext, Integer, int, boolean)},
+     * and the counts may be paged in the same way.
+     *
+     * @param data          The input category/subcategory pairs
+     * @param limit         The most counts to return.  All of them, if null.
+     * @param offset        The number of counts to skip
+     * @param includeZero   Whether to include the categories which weren't
+     *                      found in the data
+     *
+     * @return  The cleaned pairs (in the same order as the input data) and
+     *          counts (ordered by frequency of occurrences in the data),
+     *          written as they are produced
+     */
+    @POST
+    @Path("/stream")
+    @Consumes({MediaType.APPLICATION_JSON, APPLICATION_NDJSON})
+    @Produces(MediaType.APPLICATION_JSON)
+    public StreamingOutput cleanStream(InputStream data,
+                                       @QueryParam("limit") Integer limit,
+                                       @QueryParam("offset") @DefaultValue("0") int offset,
+                                       @QueryParam("includeZero") @DefaultValue("true") boolean includeZero) {
+        CountPage page = countPage(limit, offset, includeZero);
+        Iterator<CategoryAndSubcat> records
+            = RecordReader.read(data, CategoryAndSubcat.class);
+
+        return new StreamingCleanResponse(cleaner, records, page);
+    }
+
+    /**
+     * Submits the given data to be cleaned in the background.  The response
+     * points to the job, which can be polled with {@link #getJob(String)}.
+     *
+     * @param data  The input category/subcategory pairs
+     *
+     * @return  A 202 (Accepted) response with the status of the new job, or a
+     *          503 (Service Unavailable) if too many jobs are already waiting
+     */
+    @POST
+    @Path("/jobs")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitJob(List<CategoryAndSubcat> data) {
+        DataSetJob job;
+        try {
+            job = jobService.submit(data);
+        }
+        catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableException(JOB_RETRY_AFTER_SECONDS, e);
+        }
+
+        URI location = uriInfo.getBaseUriBuilder()
+                              .path(DataSetEndpoint.class)
+                              .path("{id}")
+                              .resolveTemplate("id", job.getId())
+                              .build();
+
+        return Response.accepted(job).location(location).build();
+    }
+
+    /**
+     * Retrieves a job submitted with {@link #submitJob(List)}.
+     *
+     * @param id    The id of the job
+     *
+     * @return  A 200 (OK) response with the cleaned pairs and counts if the
+     *          job has finished, a 202 (Accepted) response with the job's
+     *          status if it is still waiting or running, a 500 (Internal
+     *          Server Error) with the job's status if it failed, or a 404 (Not
+     *          Found) if there is no such job
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJob(@PathParam("id") String id) {
+        DataSetJob job = findJob(id);
+        switch (job.getStatus()) {
+            case SUCCEEDED:
+                CategoryCleanResponse result = jobService.getResult(id);
+                if (result != null) {
+                    return Response.ok(result).build();
+                }
+                // Must have been evicted since we looked it up
+                throw new NotFoundException();
+
+            case FAILED:
+                return Response.serverError().entity(job).build();
+
+            default:
+                return Response.accepted(job).build();
+        }
+    }
+
+    /**
+     * Retrieves the status of a job submitted with
+     * {@link #submitJob(List)}, without its result.
+     *
+     * @param id    The id of the job
+     *
+     * @return  The job's status
+     */
+    @GET
+    @Path("{id}/status")
+    @Produces(MediaType.APPLICATION_JSON)
+    public DataSetJob getJobStatus(@PathParam("id") String id) {
+        return findJob(id);
+    }
+
+    /**
+     * Removes a job submitted with {@link #submitJob(List)}, cancelling it if
+     * it hasn't yet finished.
+     *
+     * @param id    The id of the job
+     */
+    @DELETE
+    @Path("{id}")
+    public void deleteJob(@PathParam("id") String id) {
+        if (!jobService.remove(id)) {
+            throw new NotFoundException();
+        }
     }
 
     @GET
@@ -81,4 +294,23 @@ public class DataSetEndpoint extends AbstractEndpoint {
                              new CategoryAndSubcat("CATEGORY 3",
                                                    "SUBCATEGORY 3"));
     }
+
+    private DataSetJob findJob(String id) {
+        DataSetJob job = jobService.getJob(id);
+        if (job == null) {
+            throw new NotFoundException();
+        }
+        return job;
+    }
+
+    private static CountPage countPage(Integer limit,
+                                       int offset,
+                                       boolean includeZero) {
+        if (offset < 0 || (limit != null && limit < 0)) {
+            throw new BadRequestException("Limit and offset must not be negative");
+        }
+        return new CountPage(offset,
+                             limit == null ? CountPage.UNLIMITED : limit,
+                             includeZero);
+    }
 }
@@ -0,0 +1,166 @@
+package org.dbrinker.dataCleaner.web;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.DataSetSession;
+import org.dbrinker.dataCleaner.service.DataSetSessionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * REST endpoint for cleaning a data set which is sent in several batches.  A
+ * session is opened with a POST to the endpoint itself, each batch is POSTed
+ * to the session, and the session is closed with a DELETE.  Duplicates are
+ * caught across batches, and counts cover every batch received so far.
+ *
+ * @author Don Brinker
+ */
+@Component
+@Path("/data/sessions")
+public class DataSetSessionEndpoint extends AbstractEndpoint {
+    private static final String SERVICE_NAME = "Data Session";
+
+    // How long a client should wait before trying to open a session again
+    private static final long OPEN_RETRY_AFTER_SECONDS = 30;
+
+    @Context
+    private UriInfo uriInfo;
+
+    private DataSetSessionService service;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param service   A service which can clean data sets over several
+     *                  batches
+     */
+    @Autowired
+    public DataSetSessionEndpoint(DataSetSessionService service) {
+        super(SERVICE_NAME);
+        this.service = service;
+    }
+
+    /**
+     * Opens a new session
+     *
+     * @return  A 201 (Created) response with the state of the new session, or
+     *          a 503 (Service Unavailable) if too many sessions are open
+     */
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response open() {
+        DataSetSession session;
+        try {
+            session = service.open();
+        }
+        catch (IllegalStateException e) {
+            throw new ServiceUnavailableException(OPEN_RETRY_AFTER_SECONDS, e);
+        }
+
+        URI location = uriInfo.getAbsolutePathBuilder()
+                              .path("{id}")
+                              .resolveTemplate("id", session.getId())
+                              .build();
+
+        return Response.created(location).entity(session).build();
+    }
+
+    /**
+     * Cleans the next batch of a session's data set
+     *
+     * @param id    The id of the session
+     * @param batch The batch's category/subcategory pairs
+     *
+     * @return  The pairs from the batch which are clean and new to the session
+     *          (in the same order as the batch), and the counts for every batch
+     *          so far
+     */
+    @POST
+    @Path("{id}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public CategoryCleanResponse append(@PathParam("id") String id,
+                                        List<CategoryAndSubcat> batch) {
+        return append(id, batch.iterator());
+    }
+
+    /**
+     * Cleans the next batch of a session's data set, given as
+     * newline-delimited JSON.  The batch is read in full before any of it is
+     * cleaned, so a malformed batch leaves the session as it was, and can be
+     * fixed and sent again.
+     *
+     * @param id    The id of the session
+     * @param batch The batch's category/subcategory pairs, one per line
+     *
+     * @return  The pairs from the batch which are clean and new to the
+     *          session, and the counts for every batch so far
+     */
+    @POST
+    @Path("{id}")
+    @Consumes(DataSetEndpoint.APPLICATION_NDJSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public CategoryCleanResponse appendNdjson(@PathParam("id") String id,
+                                              InputStream batch) {
+        return append(id, RecordReader.read(batch, CategoryAndSubcat.class));
+    }
+
+    /**
+     * Retrieves the state of a session, including the counts for every batch
+     * so far
+     *
+     * @param id    The id of the session
+     *
+     * @return  The state of the session
+     */
+    @GET
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public DataSetSession get(@PathParam("id") String id) {
+        return found(service.getSession(id));
+    }
+
+    /**
+     * Closes a session
+     *
+     * @param id    The id of the session
+     *
+     * @return  The final state of the session, including its counts
+     */
+    @DELETE
+    @Path("{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public DataSetSession close(@PathParam("id") String id) {
+        return found(service.close(id));
+    }
+
+    private CategoryCleanResponse append(String id,
+                                         Iterator<CategoryAndSubcat> batch) {
+        return found(service.append(id, batch));
+    }
+
+    private static <T> T found(T result) {
+        if (result == null) {
+            throw new NotFoundException();
+        }
+        return result;
+    }
+}
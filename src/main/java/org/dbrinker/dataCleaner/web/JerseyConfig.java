@@ -1,6 +1,7 @@
 package org.dbrinker.dataCleaner.web;
 
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 
@@ -14,5 +15,17 @@ public class JerseyConfig extends ResourceConfig {
     public JerseyConfig() {
         register(CategoryEndpoint.class);
         register(DataSetEndpoint.class);
+        register(DataSetSessionEndpoint.class);
+        register(MetricsEndpoint.class);
+        register(LockTimeoutExceptionMapper.class);
+        register(CleanTimeoutExceptionMapper.class);
+        register(RequestMetricsFeature.class);
+        register(ContentHashInterceptor.class);
+
+        // By default, Jersey reports error statuses with sendError(), which
+        // Spring Boot turns into a forward to its own error page.  Since
+        // Jersey owns every path, that forward comes back as a 404 - so
+        // just set the status instead.
+        property(ServerProperties.RESPONSE_SET_STATUS_OVER_SEND_ERROR, true);
     }
 }
@@ -0,0 +1,28 @@
+package org.dbrinker.dataCleaner.web;
+
+import org.dbrinker.dataCleaner.aspect.LockTimeoutException;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Reports a request which timed out waiting for a lock as 503 (Service
+ * Unavailable), telling the client when to try again.  Something is holding
+ * the lock for far too long, so the request may well succeed a little later.
+ *
+ * @author Don Brinker
+ */
+@Provider
+public class LockTimeoutExceptionMapper
+    implements ExceptionMapper<LockTimeoutException> {
+    // How long a client should wait before trying again
+    private static final long RETRY_AFTER_SECONDS = 5;
+
+    @Override
+    public Response toResponse(LockTimeoutException exception) {
+        return new ServiceUnavailableException(RETRY_AFTER_SECONDS, exception)
+                   .getResponse();
+    }
+}
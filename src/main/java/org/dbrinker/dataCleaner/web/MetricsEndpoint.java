@@ -0,0 +1,59 @@
+package org.dbrinker.dataCleaner.web;
+
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * REST endpoint reporting the application's metrics, in the Prometheus text
+ * exposition format.
+ *
+ * @author Don Brinker
+ */
+@Component
+@Path("/metrics")
+public class MetricsEndpoint extends AbstractEndpoint {
+    private static final String SERVICE_NAME = "Metrics";
+
+    /**
+     * The media type of the Prometheus text exposition format
+     */
+    public static final String TEXT_EXPOSITION = "text/plain; version=0.0.4";
+
+    private MetricsRegistry registry;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param registry  The registry holding the metrics to be reported
+     */
+    @Autowired
+    public MetricsEndpoint(MetricsRegistry registry) {
+        super(SERVICE_NAME);
+        this.registry = registry;
+    }
+
+    /**
+     * Reports the current value of every metric
+     *
+     * @return  The metrics, as they are written out
+     */
+    @GET
+    @Produces(TEXT_EXPOSITION)
+    public StreamingOutput getMetrics() {
+        return output -> {
+            Writer writer
+                = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            registry.write(writer);
+            writer.flush();
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package org.dbrinker.dataCleaner.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import javax.ws.rs.BadRequestException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Reads records incrementally from a request body, rather than binding the
+ * whole body up front.  Both newline-delimited JSON (a sequence of
+ * whitespace-separated objects) and a single JSON array of objects are
+ * accepted, so the same reader serves either content type.
+ *
+ * Malformed input is reported as a {@link BadRequestException} at the point
+ * it is encountered.
+ *
+ * @author Don Brinker
+ */
+final class RecordReader {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private RecordReader() {
+    }
+
+    /**
+     * Creates an iterator over the records in the given stream.  Records are
+     * parsed one at a time as the iterator is advanced.
+     *
+     * @param stream    The stream to read.  Presumed to be non-null.
+     * @param type      The type of record in the stream
+     * @param <T>       The type of record in the stream
+     *
+     * @return  An iterator over the records
+     *
+     * @throws  BadRequestException if the stream can't even be opened as JSON
+     */
+    static <T> Iterator<T> read(InputStream stream, Class<T> type) {
+        ObjectReader reader = MAPPER.readerFor(type);
+        try {
+            return new TranslatingIterator<>(reader.readValues(stream));
+        }
+        catch (JsonProcessingException e) {
+            throw new BadRequestException(e.getOriginalMessage(), e);
+        }
+        catch (IOException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+
+    // Jackson's iterator reports bad input as assorted runtime exceptions
+    // wrapping the underlying parse error.  Make sure clients see a 400
+    // rather than a 500 for those.
+    private static class TranslatingIterator<T> implements Iterator<T> {
+        private final MappingIterator<T> delegate;
+
+        private TranslatingIterator(MappingIterator<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return delegate.hasNext();
+            }
+            catch (RuntimeException e) {
+                throw translate(e);
+            }
+        }
+
+        @Override
+        public T next() {
+            try {
+                return delegate.next();
+            }
+            catch (RuntimeException e) {
+                throw translate(e);
+            }
+        }
+
+        private RuntimeException translate(RuntimeException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JsonProcessingException) {
+                return new BadRequestException(
+                    ((JsonProcessingException) cause).getOriginalMessage(), e);
+            }
+            return e;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.dbrinker.dataCleaner.web;
+
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Gathers metrics for every REST endpoint: how many requests it gets (by
+ * response status), how long they take, and how long is spent parsing
+ * request bodies and writing response bodies.
+ *
+ * Each resource method gets its own {@link RequestMetricsFilter}, with its
+ * metrics looked up once when the application starts, so that nothing has to
+ * be looked up while handling a request.
+ *
+ * @author Don Brinker
+ */
+@Component
+public class RequestMetricsFeature implements DynamicFeature {
+    private MetricsRegistry registry;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param registry  The registry in which to record the metrics
+     */
+    @Autowired
+    public RequestMetricsFeature(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        Method method = resourceInfo.getResourceMethod();
+        String httpMethod = httpMethodOf(method);
+        if (httpMethod == null) {
+            // A sub-resource locator, rather than an endpoint in its own right
+            return;
+        }
+
+        String endpoint
+            = httpMethod + " "
+              + pathOf(resourceInfo.getResourceClass().getAnnotation(Path.class),
+                       method.getAnnotation(Path.class));
+        context.register(new RequestMetricsFilter(registry, endpoint));
+    }
+
+    private static String httpMethodOf(Method method) {
+        for (Annotation annotation : method.getAnnotations()) {
+            HttpMethod httpMethod
+                = annotation.annotationType().getAnnotation(HttpMethod.class);
+            if (httpMethod != null) {
+                return httpMethod.value();
+            }
+        }
+        return null;
+    }
+
+    // Joins the resource's path with the method's, as the endpoint's label
+    // (e.g. "/data" and "{id}/status" give "/data/{id}/status")
+    private static String pathOf(Path resourcePath, Path methodPath) {
+        StringBuilder path = new StringBuilder();
+        for (Path part : new Path[] { resourcePath, methodPath }) {
+            if (part == null) {
+                continue;
+            }
+
+            String value = part.value();
+            if (!value.startsWith("/")) {
+                path.append('/');
+            }
+            path.append(value.endsWith("/")
+                        ? value.substring(0, value.length() - 1)
+                        : value);
+        }
+        return path.length() == 0 ? "/" : path.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package org.dbrinker.dataCleaner.web;
+
+import org.dbrinker.dataCleaner.metrics.Histogram;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the metrics of a single REST endpoint.  A request is timed from
+ * when it is matched to the endpoint until its response has been written;
+ * along the way, the time spent parsing the request body and writing the
+ * response body are timed as stages of their own.
+ *
+ * Note that a streamed response does its real work while it is being
+ * written, so for those the "serialize" stage covers the cleaning as well.
+ * Likewise, a response is only counted by its status once its body has been
+ * written; one which fails part way through (after its status has been
+ * sent) is counted as a server error, whatever the status said.
+ *
+ * @author Don Brinker
+ */
+class RequestMetricsFilter implements ContainerRequestFilter,
+                                      ContainerResponseFilter,
+                                      ReaderInterceptor,
+                                      WriterInterceptor {
+    // The request property holding the time at which the request started
+    private static final String STARTED
+        = RequestMetricsFilter.class.getName() + ".started";
+
+    // The request property holding the status of the response
+    private static final String STATUS
+        = RequestMetricsFilter.class.getName() + ".status";
+
+    private static final int SERVER_ERROR = 500;
+
+    private final Histogram requestTime;
+    private final Histogram parseTime;
+    private final Histogram serializeTime;
+
+    // Requests by status class - 1xx through 5xx
+    private final LongAdder[] responses = new LongAdder[6];
+
+    /**
+     * Creates a new instance of this class, registering its metrics
+     *
+     * @param registry  The registry in which to register the metrics
+     * @param endpoint  The name of the endpoint (e.g. "POST /data")
+     */
+    RequestMetricsFilter(MetricsRegistry registry, String endpoint) {
+        requestTime
+            = registry.histogram("datacleaner_http_request_seconds",
+                                 "Time taken to handle requests",
+                                 "endpoint", endpoint);
+
+        String stageName = "datacleaner_http_stage_seconds";
+        String stageHelp = "Time spent parsing requests and writing responses";
+        parseTime = registry.histogram(stageName, stageHelp,
+                                       "endpoint", endpoint, "stage", "parse");
+        serializeTime = registry.histogram(stageName, stageHelp,
+                                           "endpoint", endpoint,
+                                           "stage", "serialize");
+
+        for (int statusClass = 1; statusClass < responses.length; statusClass++) {
+            responses[statusClass]
+                = registry.counter("datacleaner_http_requests_total",
+                                   "Number of requests handled, by status",
+                                   "endpoint", endpoint,
+                                   "status", statusClass + "xx");
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        request.setProperty(STARTED, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request,
+                       ContainerResponseContext response) {
+        // Anything with a body is still to be written, and will be finished
+        // off by the writer interceptor
+        if (response.hasEntity()) {
+            request.setProperty(STATUS, response.getStatus());
+        }
+        else {
+            counted(response.getStatus());
+            finished(request.getProperty(STARTED));
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context)
+        throws IOException, WebApplicationException {
+        long started = System.nanoTime();
+        try {
+            return context.proceed();
+        }
+        finally {
+            parseTime.record(System.nanoTime() - started);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context)
+        throws IOException, WebApplicationException {
+        long started = System.nanoTime();
+        boolean written = false;
+        try {
+            context.proceed();
+            written = true;
+        }
+        finally {
+            serializeTime.record(System.nanoTime() - started);
+            Object status = context.getProperty(STATUS);
+            if (!written) {
+                counted(SERVER_ERROR);
+            }
+            else if (status instanceof Integer) {
+                counted((Integer) status);
+            }
+            finished(context.getProperty(STARTED));
+        }
+    }
+
+    private void counted(int status) {
+        int statusClass = status / 100;
+        if (statusClass > 0 && statusClass < responses.length) {
+            responses[statusClass].increment();
+        }
+    }
+
+    private void finished(Object started) {
+        // Requests that never matched the endpoint were never started
+        if (started instanceof Long) {
+            requestTime.record(System.nanoTime() - (Long) started);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.dbrinker.dataCleaner.web;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.dbrinker.dataCleaner.service.CountPage;
+import org.dbrinker.dataCleaner.service.DataCleaner;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes the result of a cleaning operation as the cleaning happens.  The
+ * output has exactly the same shape as a serialized
+ * {@link CategoryCleanResponse}, but each cleaned pair is written out as soon
+ * as the cleaner lets it through, and the counts are written once the input
+ * is exhausted.  Neither the input nor the cleaned data is ever held in
+ * memory as a whole.
+ *
+ * Note that once the first chunk of output has been sent, the response status
+ * is committed - an error past that point (such as malformed input deep into
+ * the request) can only abort the response rather than change its status.
+ * So that the client can still tell, such a response is left unfinished:
+ * its JSON is cut off where the error happened, and has no counts.
+ *
+ * @author Don Brinker
+ */
+class StreamingCleanResponse implements StreamingOutput {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final DataCleaner cleaner;
+    private final Iterator<CategoryAndSubcat> input;
+    private final CountPage page;
+
+    /**
+     * Creates a new instance of this class
+     *
+     * @param cleaner   The cleaner used to process the input
+     * @param input     The category/subcategory pairs to clean.  These are
+     *                  not read until the response is written.
+     * @param page      The category counts to write
+     */
+    StreamingCleanResponse(DataCleaner cleaner,
+                           Iterator<CategoryAndSubcat> input,
+                           CountPage page) {
+        this.cleaner = cleaner;
+        this.input = input;
+        this.page = page;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (JsonGenerator generator
+                 = MAPPER.getFactory().createGenerator(output,
+                                                       JsonEncoding.UTF8)) {
+            // Otherwise closing the generator after an error would finish
+            // the document, passing off what was written so far as the
+            // whole response
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartObject();
+
+            generator.writeArrayFieldStart("categories");
+            List<CategoryCount> counts;
+            try {
+                counts = cleaner.cleanAndCount(input,
+                                               record -> write(generator,
+                                                               record),
+                                               page);
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            generator.writeEndArray();
+
+            generator.writeArrayFieldStart("counts");
+            for (CategoryCount count : counts) {
+                generator.writeObject(count);
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+    }
+
+    // The cleaner hands us records through a Consumer, which can't throw
+    // checked exceptions.  Smuggle them out and unwrap them above.
+    private static void write(JsonGenerator generator,
+                              CategoryAndSubcat record) {
+        try {
+            generator.writeObject(record);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
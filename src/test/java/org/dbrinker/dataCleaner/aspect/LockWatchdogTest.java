@@ -0,0 +1,140 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the LockWatchdog class
+ *
+ * @author Don Brinker
+ */
+public class LockWatchdogTest {
+    @Test
+    public void reportsLongHolds() {
+        LockWatchdog watchdog = new LockWatchdog(1000L);
+
+        LockWatchdog.Hold hold
+            = watchdog.acquired("resource", "write", System.nanoTime() - 2000L);
+        watchdog.check();
+        assertThat(hold.isReported(), is(true));
+
+        watchdog.released(hold, System.nanoTime());
+    }
+
+    @Test
+    public void ignoresShortHolds() {
+        LockWatchdog watchdog = new LockWatchdog(1_000_000_000L);
+
+        LockWatchdog.Hold hold
+            = watchdog.acquired("resource", "write", System.nanoTime());
+        watchdog.check();
+        assertThat(hold.isReported(), is(false));
+    }
+
+    @Test
+    public void ignoresReleasedHolds() {
+        LockWatchdog watchdog = new LockWatchdog(1000L);
+
+        LockWatchdog.Hold hold
+            = watchdog.acquired("resource", "read", System.nanoTime() - 2000L);
+        watchdog.released(hold, System.nanoTime());
+        watchdog.check();
+        assertThat(hold.isReported(), is(false));
+    }
+
+    @Test
+    public void disabledWatchdogTracksNothing() {
+        LockWatchdog watchdog = new LockWatchdog(0L);
+
+        LockWatchdog.Hold hold
+            = watchdog.acquired("resource", "read", System.nanoTime() - 2000L);
+        watchdog.check();
+        assertThat(hold.isReported(), is(false));
+    }
+
+    @Test
+    public void keepsOuterHoldsOnceInnerOnesAreReleased() {
+        LockWatchdog watchdog = new LockWatchdog(TimeUnit.SECONDS.toNanos(1L));
+        long acquired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(500L);
+
+        LockWatchdog.Hold outer = watchdog.acquired("outer", "write", acquired);
+        LockWatchdog.Hold inner = watchdog.acquired("inner", "read", acquired);
+        watchdog.released(inner, System.nanoTime());
+
+        watchdog.setThresholdNanos(1000L);
+        watchdog.check();
+        assertThat(outer.isReported(), is(true));
+        assertThat(inner.isReported(), is(false));
+
+        watchdog.released(outer, System.nanoTime());
+    }
+
+    @Test
+    public void copesWithHoldsReleasedOutOfOrder() {
+        LockWatchdog watchdog = new LockWatchdog(TimeUnit.SECONDS.toNanos(1L));
+        long acquired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(500L);
+
+        LockWatchdog.Hold outer = watchdog.acquired("outer", "write", acquired);
+        LockWatchdog.Hold inner = watchdog.acquired("inner", "read", acquired);
+        watchdog.released(outer, System.nanoTime());
+
+        // The inner hold is still held, and the outer one is forgotten
+        watchdog.setThresholdNanos(1000L);
+        watchdog.check();
+        assertThat(inner.isReported(), is(true));
+        assertThat(outer.isReported(), is(false));
+
+        // Once both are released, neither comes back
+        watchdog.released(inner, System.nanoTime());
+        LockWatchdog.Hold next = watchdog.acquired("next", "write", acquired);
+        watchdog.check();
+        assertThat(next.isReported(), is(true));
+        assertThat(outer.isReported(), is(false));
+
+        watchdog.released(next, System.nanoTime());
+    }
+
+    @Test
+    public void forgetsThreadsWhichHaveDied() throws Exception {
+        LockWatchdog watchdog = new LockWatchdog(1000L);
+
+        // The thread dies without releasing its hold
+        AtomicReference<LockWatchdog.Hold> hold = new AtomicReference<>();
+        Thread thread = new Thread(() -> hold.set(watchdog.acquired(
+            "resource", "write", System.nanoTime() - 2000L)));
+        thread.start();
+        thread.join();
+
+        watchdog.check();
+        assertThat(hold.get().isReported(), is(false));
+    }
+
+    @Test
+    public void thresholdCanChangeAtRuntime() {
+        LockWatchdog watchdog = new LockWatchdog(0L);
+        long acquired = System.nanoTime() - 2000L;
+
+        // Holds acquired while disabled are never tracked
+        LockWatchdog.Hold untracked = watchdog.acquired("resource", "read", acquired);
+        watchdog.setThresholdNanos(1000L);
+        LockWatchdog.Hold tracked = watchdog.acquired("resource", "read", acquired);
+        watchdog.check();
+        assertThat(untracked.isReported(), is(false));
+        assertThat(tracked.isReported(), is(true));
+
+        // And once disabled again, nothing more is logged
+        LockWatchdog.Hold later = watchdog.acquired("resource", "write", acquired);
+        watchdog.setThresholdNanos(0L);
+        watchdog.check();
+        assertThat(later.isReported(), is(false));
+
+        watchdog.released(later, System.nanoTime());
+        watchdog.released(tracked, System.nanoTime());
+        watchdog.released(untracked, System.nanoTime());
+    }
+}
@@ -0,0 +1,499 @@
+package org.dbrinker.dataCleaner.aspect;
+
+import org.dbrinker.dataCleaner.annotation.LockStrategy;
+import org.dbrinker.dataCleaner.annotation.ReadLocked;
+import org.dbrinker.dataCleaner.annotation.WriteLocked;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for the LockingAdvice class
+ *
+ * @author Don Brinker
+ */
+public class LockingAdviceTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private MetricsRegistry metrics;
+    private ResourceImpl target;
+    private Resource resource;
+    private ExecutorService background;
+
+    @Before
+    public void initialize() {
+        metrics = new MetricsRegistry();
+        target = new ResourceImpl();
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(new LockingAdvice(metrics));
+        resource = factory.getProxy();
+
+        background = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void cleanUp() {
+        background.shutdownNow();
+    }
+
+    @Test
+    public void reentrantLockAllowsNestedCalls() {
+        resource.writeReentrant(() -> resource.readReentrant());
+        assertThat(target.value, is(1));
+    }
+
+    @Test
+    public void writesAreExclusive() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10000; j++) {
+                        resource.writeStamped(null);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(resource.readStamped(null), is(80000));
+    }
+
+    @Test
+    public void stampedReadIsRetriedAfterWrite() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch written = new CountDownLatch(1);
+
+        // The first attempt lets a write slip in underneath it, so it should
+        // be thrown away and the read tried again
+        int value = resource.readStamped(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                new Thread(() -> {
+                    resource.writeStamped(null);
+                    written.countDown();
+                }).start();
+                await(written);
+            }
+        });
+
+        assertThat(attempts.get(), is(2));
+        assertThat(value, is(1));
+    }
+
+    @Test
+    public void stampedReadWithoutWriteRunsOnce() {
+        AtomicInteger attempts = new AtomicInteger();
+        resource.readStamped(attempts::incrementAndGet);
+
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    public void recordsMetrics() throws IOException {
+        resource.readReentrant();
+        resource.readReentrant();
+        resource.writeReentrant(() -> { });
+
+        String written = metricsText();
+        assertThat(written, containsString(
+            "datacleaner_lock_acquisitions_total{resource=\"reentrant\",mode=\"read\"} 2\n"));
+        assertThat(written, containsString(
+            "datacleaner_lock_acquisitions_total{resource=\"reentrant\",mode=\"write\"} 1\n"));
+        assertThat(written, containsString(
+            "datacleaner_lock_hold_seconds_count{resource=\"reentrant\",mode=\"read\"} 2\n"));
+        assertThat(written, containsString(
+            "datacleaner_lock_wait_seconds_count{resource=\"reentrant\",mode=\"write\"} 1\n"));
+        assertThat(written, containsString(
+            "datacleaner_lock_waiting_threads{resource=\"reentrant\",mode=\"read\"} 0\n"));
+    }
+
+    @Test
+    public void recordsOptimisticRetries() throws Exception {
+        stampedReadIsRetriedAfterWrite();
+
+        assertThat(metricsText(), containsString(
+            "datacleaner_lock_optimistic_retries_total{resource=\"stamped\"} 1\n"));
+    }
+
+    @Test
+    public void differentKeysDontBlock() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+
+        // The first write can only finish once the second has run
+        Future<?> future = background.submit(() -> resource.writeKeyed("a", () -> {
+            first.countDown();
+            await(second);
+        }));
+        await(first);
+
+        resource.writeKeyed("b", second::countDown);
+        assertThat(future.get(10, TimeUnit.SECONDS), nullValue());
+    }
+
+    @Test
+    public void differentExpressionKeysDontBlock() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+
+        Future<?> future = background.submit(() -> resource.writeCompound("t", "1", () -> {
+            first.countDown();
+            await(second);
+        }));
+        await(first);
+
+        resource.writeCompound("t", "2", second::countDown);
+        assertThat(future.get(10, TimeUnit.SECONDS), nullValue());
+    }
+
+    @Test
+    public void sameKeyBlocks() throws Exception {
+        validateBlocks(during -> resource.writeKeyed("a", during),
+                       during -> resource.writeKeyed("a", during));
+    }
+
+    @Test
+    public void wholeResourceBlocksKeys() throws Exception {
+        validateBlocks(resource::writeAll,
+                       during -> resource.writeKeyed("a", during));
+    }
+
+    @Test
+    public void keysBlockWholeResource() throws Exception {
+        validateBlocks(during -> resource.writeKeyed("a", during),
+                       resource::writeAll);
+    }
+
+    @Test
+    public void keysBlockWholeResourceReads() throws Exception {
+        validateBlocks(during -> resource.writeKeyed("a", during),
+                       resource::readAll);
+    }
+
+    @Test
+    public void wholeResourceReadsBlockKeys() throws Exception {
+        validateBlocks(resource::readAll,
+                       during -> resource.writeKeyed("a", during));
+    }
+
+    @Test
+    public void wholeResourceReadsDontBlockReads() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        CountDownLatch third = new CountDownLatch(1);
+
+        // The first read can only finish once the others have run
+        Future<?> future = background.submit(() -> resource.readAll(() -> {
+            first.countDown();
+            await(second);
+            await(third);
+        }));
+        await(first);
+
+        resource.readAll(second::countDown);
+        resource.readKeyed("a", third::countDown);
+        assertThat(future.get(10, TimeUnit.SECONDS), nullValue());
+    }
+
+    @Test
+    public void keysNotSupportedByStampedLocks() {
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Resource stamped can't be locked by key using "
+                             + "STAMPED");
+
+        resource.writeStampedKeyed("a");
+    }
+
+    @Test
+    public void waitingTimesOut() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Future<?> holder = background.submit(() -> resource.writeTimed(() -> {
+            running.countDown();
+            await(done);
+        }));
+        await(running);
+
+        try {
+            resource.writeTimed(() -> { });
+            fail("Expected the write to time out");
+        }
+        catch (LockTimeoutException e) {
+            assertThat(e.getResource(), is("timed"));
+            assertThat(e.getMode(), is("write"));
+            assertThat(e.getMessage(),
+                       is("Timed out after 50 ms waiting for the write lock "
+                          + "on timed"));
+        }
+
+        done.countDown();
+        holder.get(10, TimeUnit.SECONDS);
+        assertThat(metricsText(), containsString(
+            "datacleaner_lock_timeouts_total{resource=\"timed\",mode=\"write\"} 1\n"));
+
+        // And once the holder is done, the lock is free again
+        resource.writeTimed(() -> { });
+    }
+
+    @Test
+    public void timeoutCanBeConfigured() throws Exception {
+        LockingAdvice advice = new LockingAdvice(metrics);
+        advice.setEmbeddedValueResolver(
+            value -> value.replace("${test.timeoutMillis:5000}", "50"));
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(advice);
+        Resource configured = factory.getProxy();
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Future<?> holder = background.submit(() -> configured.writeConfigured(() -> {
+            running.countDown();
+            await(done);
+        }));
+        await(running);
+
+        thrown.expect(LockTimeoutException.class);
+        thrown.expectMessage("Timed out after 50 ms");
+        try {
+            configured.writeConfigured(() -> { });
+        }
+        finally {
+            done.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void keyedTimeoutReleasesWholeResource() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Future<?> holder = background.submit(() -> resource.writeKeyed("a", () -> {
+            running.countDown();
+            await(done);
+        }));
+        await(running);
+
+        thrown.expect(LockTimeoutException.class);
+        try {
+            resource.writeKeyedTimed("a");
+        }
+        finally {
+            done.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+
+            // Nothing should be left holding the whole resource
+            Future<?> all = background.submit(() -> resource.writeAll(() -> { }));
+            all.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void keyMustNameParameter() {
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Lock key #name doesn't name a parameter");
+
+        resource.writeUnknownKey("a");
+    }
+
+    @Test
+    public void mismatchedStrategies() {
+        resource.readReentrant();
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Resource reentrant is locked using REENTRANT, "
+                             + "not STAMPED");
+
+        resource.readMismatched();
+    }
+
+    /**
+     * Checks that the second of the given calls can't run while the first is
+     * running
+     */
+    private void validateBlocks(Consumer<Runnable> firstCall,
+                                Consumer<Runnable> secondCall)
+        throws Exception {
+        CountDownLatch firstRunning = new CountDownLatch(1);
+        CountDownLatch firstDone = new CountDownLatch(1);
+        CountDownLatch secondRunning = new CountDownLatch(1);
+
+        Future<?> first = background.submit(() -> firstCall.accept(() -> {
+            firstRunning.countDown();
+            await(firstDone);
+        }));
+        await(firstRunning);
+
+        Future<?> second = background.submit(
+            () -> secondCall.accept(secondRunning::countDown));
+        assertThat(secondRunning.await(200, TimeUnit.MILLISECONDS), is(false));
+
+        firstDone.countDown();
+        await(secondRunning);
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+    }
+
+    private String metricsText() throws IOException {
+        StringWriter out = new StringWriter();
+        metrics.write(out);
+        return out.toString();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+        }
+        catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public interface Resource {
+        int readReentrant();
+        void writeReentrant(Runnable during);
+        int readStamped(Runnable during);
+        void writeStamped(Runnable during);
+        int readMismatched();
+        void writeKeyed(String id, Runnable during);
+        void writeCompound(String tenant, String id, Runnable during);
+        void writeAll(Runnable during);
+        void readAll(Runnable during);
+        void readKeyed(String id, Runnable during);
+        void writeStampedKeyed(String id);
+        void writeUnknownKey(String id);
+        void writeTimed(Runnable during);
+        void writeKeyedTimed(String id);
+        void writeConfigured(Runnable during);
+    }
+
+    public static class ResourceImpl implements Resource {
+        private int value;
+
+        @Override
+        @ReadLocked("reentrant")
+        public int readReentrant() {
+            return value;
+        }
+
+        @Override
+        @WriteLocked("reentrant")
+        public void writeReentrant(Runnable during) {
+            during.run();
+            value++;
+        }
+
+        @Override
+        @ReadLocked(value = "stamped", strategy = LockStrategy.STAMPED)
+        public int readStamped(Runnable during) {
+            if (during != null) {
+                during.run();
+            }
+            return value;
+        }
+
+        @Override
+        @WriteLocked(value = "stamped", strategy = LockStrategy.STAMPED)
+        public void writeStamped(Runnable during) {
+            if (during != null) {
+                during.run();
+            }
+            value++;
+        }
+
+        @Override
+        @ReadLocked(value = "reentrant", strategy = LockStrategy.STAMPED)
+        public int readMismatched() {
+            return value;
+        }
+
+        @Override
+        @WriteLocked(value = "keyed", key = "#id")
+        public void writeKeyed(String id, Runnable during) {
+            during.run();
+        }
+
+        @Override
+        @WriteLocked(value = "keyed", key = "#tenant + '/' + #p1")
+        public void writeCompound(String tenant, String id, Runnable during) {
+            during.run();
+        }
+
+        @Override
+        @WriteLocked("keyed")
+        public void writeAll(Runnable during) {
+            during.run();
+        }
+
+        @Override
+        @ReadLocked("keyed")
+        public void readAll(Runnable during) {
+            during.run();
+        }
+
+        @Override
+        @ReadLocked(value = "keyed", key = "#id")
+        public void readKeyed(String id, Runnable during) {
+            during.run();
+        }
+
+        @Override
+        @WriteLocked(value = "stamped",
+                     strategy = LockStrategy.STAMPED,
+                     key = "#id")
+        public void writeStampedKeyed(String id) {
+        }
+
+        @Override
+        @WriteLocked(value = "keyed", key = "#name")
+        public void writeUnknownKey(String id) {
+        }
+
+        @Override
+        @WriteLocked(value = "timed", timeout = 50)
+        public void writeTimed(Runnable during) {
+            during.run();
+        }
+
+        @Override
+        @WriteLocked(value = "keyed", key = "#id", timeout = 50)
+        public void writeKeyedTimed(String id) {
+        }
+
+        @Override
+        @WriteLocked(value = "configured",
+                     timeoutString = "${test.timeoutMillis:5000}")
+        public void writeConfigured(Runnable during) {
+            during.run();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.dbrinker.dataCleaner.dao;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the FileCategoryStore class
+ *
+ * @author Don Brinker
+ */
+public class FileCategoryStoreTest {
+    private static final String CATEGORY_1 = "Category 1";
+    private static final String CATEGORY_2 = "Category 2";
+    private static final String CATEGORY_3 = "Category 3";
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileCategoryStore store;
+
+    @After
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void emptyDirectoryHasNothingStored() {
+        store = open(100, 0L);
+
+        StoredCategories stored = store.load();
+        assertThat(stored.getVersion(), is(0L));
+        assertThat(stored.getCategories(), empty());
+    }
+
+    @Test
+    public void changesSurviveReopening() {
+        store = open(100, 0L);
+        store.replace(1L, ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+        store.add(ImmutableSet.of(CATEGORY_3), 2L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_2, CATEGORY_3));
+        store.delete(ImmutableSet.of(CATEGORY_1), 3L,
+                     ImmutableSet.of(CATEGORY_2, CATEGORY_3));
+
+        StoredCategories stored = reopen(100, 0L);
+        assertThat(stored.getVersion(), is(3L));
+        assertThat(stored.getCategories(),
+                   containsInAnyOrder(CATEGORY_2, CATEGORY_3));
+    }
+
+    @Test
+    public void batchedChangesSurviveClosing() {
+        store = open(100, 60000L);
+        store.add(ImmutableSet.of(CATEGORY_1), 1L, ImmutableSet.of(CATEGORY_1));
+        store.add(ImmutableSet.of(CATEGORY_2), 2L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+
+        StoredCategories stored = reopen(100, 60000L);
+        assertThat(stored.getVersion(), is(2L));
+        assertThat(stored.getCategories(),
+                   containsInAnyOrder(CATEGORY_1, CATEGORY_2));
+    }
+
+    @Test
+    public void changesAreCompactedIntoSnapshots() {
+        store = open(10, 0L);
+        Set<String> categories = addCategories(1, 25);
+
+        StoredCategories stored = reopen(10, 0L);
+        assertThat(stored.getVersion(), is(25L));
+        assertThat(stored.getCategories(), is(categories));
+
+        // Only the latest snapshot, and the logs since, should be kept
+        // (closing waits for the snapshot recovery started)
+        store.close();
+        store = null;
+        assertThat(folder.getRoot().listFiles((dir, name) -> name.startsWith("snapshot-")),
+                   arrayWithSize(1));
+        assertThat(folder.getRoot().listFiles((dir, name) -> name.startsWith("log-")),
+                   arrayWithSize(1));
+    }
+
+    @Test
+    public void fullSegmentsRollOver() {
+        // Each record takes a little under 40 bytes, so this fills several
+        // segments
+        store = open(10000, 0L);
+        Set<String> categories = addCategories(1, 500);
+
+        StoredCategories stored = reopen(10000, 0L);
+        assertThat(stored.getVersion(), is(500L));
+        assertThat(stored.getCategories(), is(categories));
+    }
+
+    @Test
+    public void tornChangeIsDiscarded() throws Exception {
+        store = open(100, 0L);
+        store.add(ImmutableSet.of(CATEGORY_1), 1L, ImmutableSet.of(CATEGORY_1));
+        store.add(ImmutableSet.of(CATEGORY_2), 2L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+        store.close();
+        store = null;
+
+        // Scribble over the end of the second change, as if the machine died
+        // part way through writing it
+        File log = folder.getRoot().listFiles((dir, name) -> name.startsWith("log-"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            int firstLength = file.readInt();
+            file.seek(8 + firstLength + 8 + 17);
+            file.write(new byte[] {0, 0, 0, 0});
+        }
+
+        StoredCategories stored = reopen(100, 0L);
+        assertThat(stored.getVersion(), is(1L));
+        assertThat(stored.getCategories(), containsInAnyOrder(CATEGORY_1));
+
+        // And carry on from there
+        store.add(ImmutableSet.of(CATEGORY_3), 2L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_3));
+        stored = reopen(100, 0L);
+        assertThat(stored.getVersion(), is(2L));
+        assertThat(stored.getCategories(),
+                   containsInAnyOrder(CATEGORY_1, CATEGORY_3));
+    }
+
+    @Test
+    public void unfinishedSnapshotIsIgnored() throws Exception {
+        store = open(100, 0L);
+        store.add(ImmutableSet.of(CATEGORY_1), 1L, ImmutableSet.of(CATEGORY_1));
+        store.add(ImmutableSet.of(CATEGORY_2), 2L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+        store.close();
+        store = null;
+
+        File temporary = new File(folder.getRoot(),
+                                  String.format("snapshot-%020d.tmp", 7L));
+        assertThat(temporary.createNewFile(), is(true));
+
+        StoredCategories stored = reopen(100, 0L);
+        assertThat(stored.getVersion(), is(2L));
+        assertThat(stored.getCategories(),
+                   containsInAnyOrder(CATEGORY_1, CATEGORY_2));
+        assertThat(temporary.exists(), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void damagedSnapshotIsDetected() throws Exception {
+        store = open(100, 0L);
+        store.replace(1L, ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+        store.add(ImmutableSet.of(CATEGORY_3), 2L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_2, CATEGORY_3));
+        store.close();
+        store = null;
+
+        // The log only has what came after the snapshot, so without the
+        // snapshot, the categories can't be recovered
+        File snapshot = new File(folder.getRoot(),
+                                 String.format("snapshot-%020d", 1L));
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.seek(20);
+            file.write(0);
+        }
+
+        reopen(100, 0L);
+    }
+
+    @Test
+    public void bulkChangesAreLoggedWhole() throws Exception {
+        store = open(100, 0L);
+        store.add(ImmutableSet.of(CATEGORY_1, CATEGORY_2, CATEGORY_3), 1L,
+                  ImmutableSet.of(CATEGORY_1, CATEGORY_2, CATEGORY_3));
+        store.delete(ImmutableSet.of(CATEGORY_1, CATEGORY_3), 2L,
+                     ImmutableSet.of(CATEGORY_2));
+
+        StoredCategories stored = reopen(100, 0L);
+        assertThat(stored.getVersion(), is(2L));
+        assertThat(stored.getCategories(), containsInAnyOrder(CATEGORY_2));
+    }
+
+    @Test
+    public void changeTooBigToLogIsSnapshotted() {
+        store = open(100, 0L);
+        store.add(ImmutableSet.of(CATEGORY_1), 1L, ImmutableSet.of(CATEGORY_1));
+
+        char[] name = new char[SEGMENT_SIZE];
+        Arrays.fill(name, 'x');
+        String category = new String(name);
+        store.add(ImmutableSet.of(category), 2L,
+                  ImmutableSet.of(CATEGORY_1, category));
+
+        StoredCategories stored = reopen(100, 0L);
+        assertThat(stored.getVersion(), is(2L));
+        assertThat(stored.getCategories(),
+                   containsInAnyOrder(CATEGORY_1, category));
+    }
+
+    @Test(timeout = 60000L)
+    public void replacingNeverWaitsOnBatchedSync() {
+        // Each replacement waits for its snapshot while syncs keep trying to
+        // get in, so they'd deadlock if a sync could hold up the snapshot
+        store = open(100, 1L);
+        for (int version = 1; version <= 200; version += 2) {
+            store.add(ImmutableSet.of(CATEGORY_1), version,
+                      ImmutableSet.of(CATEGORY_1));
+            store.replace(version + 1, ImmutableSet.of(CATEGORY_2));
+        }
+
+        StoredCategories stored = reopen(100, 1L);
+        assertThat(stored.getVersion(), is(200L));
+        assertThat(stored.getCategories(), containsInAnyOrder(CATEGORY_2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedStoreRejectsChanges() {
+        store = open(100, 0L);
+        store.close();
+
+        store.add(ImmutableSet.of(CATEGORY_1), 1L, ImmutableSet.of(CATEGORY_1));
+    }
+
+    private Set<String> addCategories(int from, int to) {
+        Set<String> categories = new HashSet<>(store.load().getCategories());
+        for (int version = from; version <= to; version++) {
+            String category = "Category " + version;
+            categories.add(category);
+            store.add(ImmutableSet.of(category), version,
+                      ImmutableSet.copyOf(categories));
+        }
+
+        return categories;
+    }
+
+    private StoredCategories reopen(int compactionThreshold,
+                                    long syncIntervalMillis) {
+        if (store != null) {
+            store.close();
+        }
+        store = open(compactionThreshold, syncIntervalMillis);
+        return store.load();
+    }
+
+    private FileCategoryStore open(int compactionThreshold,
+                                   long syncIntervalMillis) {
+        return new FileCategoryStore(folder.getRoot(),
+                                     SEGMENT_SIZE,
+                                     compactionThreshold,
+                                     syncIntervalMillis);
+    }
+}
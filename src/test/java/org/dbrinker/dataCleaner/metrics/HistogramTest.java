@@ -0,0 +1,58 @@
+package org.dbrinker.dataCleaner.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the Histogram class
+ *
+ * @author Don Brinker
+ */
+public class HistogramTest {
+    @Test
+    public void bucketBoundsAreInclusive() {
+        assertThat(Histogram.bucketOf(0L), is(0));
+        assertThat(Histogram.bucketOf(1024L), is(0));
+        assertThat(Histogram.bucketOf(1025L), is(1));
+        assertThat(Histogram.bucketOf(2048L), is(1));
+        assertThat(Histogram.bucketOf(2049L), is(2));
+    }
+
+    @Test
+    public void longDurationsFallIntoLastBucket() {
+        Histogram histogram = new Histogram();
+        int last = histogram.getNumBuckets() - 1;
+
+        assertThat(Histogram.bucketOf(TimeUnit.HOURS.toNanos(1)), is(last));
+        assertThat(Histogram.bucketOf(Long.MAX_VALUE), is(last));
+        assertThat(histogram.getUpperBound(last),
+                   is(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void upperBoundsAreInSeconds() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getUpperBound(0), closeTo(1.024e-6, 1e-12));
+        assertThat(histogram.getUpperBound(1), closeTo(2.048e-6, 1e-12));
+    }
+
+    @Test
+    public void recordDurations() {
+        Histogram histogram = new Histogram();
+        histogram.record(500L);
+        histogram.record(1500L);
+        histogram.record(1800L);
+        histogram.record(-5L);
+
+        long[] counts = histogram.getBucketCounts();
+        assertThat(counts[0], is(2L));
+        assertThat(counts[1], is(2L));
+        assertThat(counts[2], is(0L));
+        assertThat(histogram.getSum(), closeTo(3.8e-6, 1e-12));
+    }
+}
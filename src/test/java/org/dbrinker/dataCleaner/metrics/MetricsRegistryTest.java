@@ -0,0 +1,91 @@
+package org.dbrinker.dataCleaner.metrics;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the MetricsRegistry class
+ *
+ * @author Don Brinker
+ */
+public class MetricsRegistryTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private MetricsRegistry registry;
+
+    @Before
+    public void initialize() {
+        registry = new MetricsRegistry();
+    }
+
+    @Test
+    public void sameNameAndLabelsGiveSameMetric() {
+        assertThat(registry.counter("requests_total", "Requests", "a", "1"),
+                   sameInstance(registry.counter("requests_total", "Requests",
+                                                 "a", "1")));
+    }
+
+    @Test
+    public void writeCounterAndGauge() throws IOException {
+        registry.counter("requests_total", "Requests", "path", "/data").add(3);
+        registry.counter("requests_total", "Requests", "path", "/category")
+                .increment();
+        registry.gauge("open_sessions", "Open sessions", () -> 7L);
+
+        String written = write();
+        assertThat(written, containsString("# HELP requests_total Requests\n"
+                                           + "# TYPE requests_total counter\n"
+                                           + "requests_total{path=\"/category\"} 1\n"
+                                           + "requests_total{path=\"/data\"} 3\n"));
+        assertThat(written, containsString("# TYPE open_sessions gauge\n"
+                                           + "open_sessions 7\n"));
+    }
+
+    @Test
+    public void writeHistogram() throws IOException {
+        Histogram histogram = registry.histogram("wait_seconds", "Waits",
+                                                 "lock", "x");
+        histogram.record(1000L);
+        histogram.record(2000L);
+
+        String written = write();
+        assertThat(written, containsString("# TYPE wait_seconds histogram\n"
+                                           + "wait_seconds_bucket{lock=\"x\",le=\"1.024E-6\"} 1\n"
+                                           + "wait_seconds_bucket{lock=\"x\",le=\"2.048E-6\"} 2\n"));
+        assertThat(written, containsString("wait_seconds_bucket{lock=\"x\",le=\"+Inf\"} 2\n"
+                                           + "wait_seconds_sum{lock=\"x\"} 3.0E-6\n"
+                                           + "wait_seconds_count{lock=\"x\"} 2\n"));
+    }
+
+    @Test
+    public void labelValuesAreEscaped() throws IOException {
+        registry.counter("c_total", "C", "name", "a \"b\"\\c").increment();
+        assertThat(write(), containsString("c_total{name=\"a \\\"b\\\"\\\\c\"} 1\n"));
+    }
+
+    @Test
+    public void mismatchedTypes() {
+        registry.counter("thing", "A counter");
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Metric thing is a counter, not a histogram");
+
+        registry.histogram("thing", "A histogram");
+    }
+
+    private String write() throws IOException {
+        StringWriter out = new StringWriter();
+        registry.write(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the CategoryCorrector class
+ *
+ * @author Don Brinker
+ */
+public class CategoryCorrectorTest {
+    private static final CategoryDictionary DICTIONARY = new CategoryDictionary(
+        1L, ImmutableSet.of("ANIMAL", "COMPUTER", "OTHER", "PERSON", "PLACE"));
+
+    @Test
+    public void correctsNearMisses() {
+        CategoryCorrector corrector = new CategoryCorrector(DICTIONARY, 1);
+
+        assertThat(corrected(corrector, "PERSNO"), is("PERSON"));
+        assertThat(corrected(corrector, "Place "), is("PLACE"));
+        assertThat(corrected(corrector, "animal"), is("ANIMAL"));
+        assertThat(corrected(corrector, "COMPUTR"), is("COMPUTER"));
+        assertThat(corrected(corrector, "OTHERS"), is("OTHER"));
+        assertThat(corrected(corrector, "PLACD"), is("PLACE"));
+    }
+
+    @Test
+    public void leavesDistantCategoriesAlone() {
+        CategoryCorrector near = new CategoryCorrector(DICTIONARY, 1);
+        assertThat(near.correct("PRSN"), is(CategoryDictionary.UNKNOWN));
+        assertThat(near.correct("MUPPET"), is(CategoryDictionary.UNKNOWN));
+        assertThat(near.correct(""), is(CategoryDictionary.UNKNOWN));
+        assertThat(near.correct("PERSON PERSON PERSON PERSON"),
+                   is(CategoryDictionary.UNKNOWN));
+
+        CategoryCorrector far = new CategoryCorrector(DICTIONARY, 2);
+        assertThat(corrected(far, "PRSN"), is("PERSON"));
+    }
+
+    @Test
+    public void leavesAmbiguousCategoriesAlone() {
+        CategoryDictionary dictionary
+            = new CategoryDictionary(1L, ImmutableSet.of("CAT", "CAR", "CART"));
+        CategoryCorrector corrector = new CategoryCorrector(dictionary, 1);
+
+        // As near to CAT as to CAR
+        assertThat(corrector.correct("CAX"), is(CategoryDictionary.UNKNOWN));
+
+        // Nearer CAR than either of the others
+        assertThat(dictionary.categoryOf(corrector.correct("car")), is("CAR"));
+    }
+
+    @Test
+    public void distance() {
+        assertThat(CategoryCorrector.distance("PERSON", "PERSON", 5), is(0));
+        assertThat(CategoryCorrector.distance("PERSON", "PERSNO", 5), is(1));
+        assertThat(CategoryCorrector.distance("KITTEN", "SITTING", 5), is(3));
+        assertThat(CategoryCorrector.distance("", "ABC", 5), is(3));
+        assertThat(CategoryCorrector.distance("CA", "ABC", 5), is(3));
+
+        // Beyond the limit, only the limit is reported
+        assertThat(CategoryCorrector.distance("KITTEN", "SITTING", 2), is(2));
+        assertThat(CategoryCorrector.distance("A", "ABCDEF", 3), is(3));
+    }
+
+    @Test
+    public void indexFindsWhatScanningFinds() {
+        // Lots of short, similar categories, so that near misses are common
+        // and ties happen.  Use a fixed seed so any failure can be reproduced.
+        Random random = new Random(11L);
+        Set<String> categories = new HashSet<>();
+        while (categories.size() < 500) {
+            categories.add(randomString(random, 3 + random.nextInt(5)));
+        }
+        CategoryDictionary dictionary = new CategoryDictionary(1L, categories);
+
+        for (int maxDistance = 1; maxDistance <= 2; maxDistance++) {
+            CategoryCorrector corrector
+                = new CategoryCorrector(dictionary, maxDistance);
+            for (int i = 0; i < 2000; i++) {
+                String query = randomString(random, 1 + random.nextInt(9));
+                assertThat(query, corrector.correct(query),
+                           is(scan(dictionary, query, maxDistance)));
+            }
+        }
+    }
+
+    @Test
+    public void dictionaryKeepsCorrector() {
+        CategoryDictionary dictionary = new CategoryDictionary(
+            2L, ImmutableSet.of("PERSON", "PLACE"));
+
+        CategoryCorrector corrector = dictionary.getCorrector(1);
+        assertThat(dictionary.getCorrector(1), sameInstance(corrector));
+        assertThat(dictionary.getCorrector(2).getMaxDistance(), is(2));
+    }
+
+    private static String corrected(CategoryCorrector corrector,
+                                    String category) {
+        int id = corrector.correct(category);
+        return id == CategoryDictionary.UNKNOWN
+               ? null
+               : DICTIONARY.categoryOf(id);
+    }
+
+    // The obvious way of finding the nearest category: compare every one
+    private static int scan(CategoryDictionary dictionary,
+                            String query,
+                            int maxDistance) {
+        int best = CategoryDictionary.UNKNOWN;
+        int bestDistance = maxDistance + 1;
+        boolean ambiguous = false;
+        for (int id = 0; id < dictionary.size(); id++) {
+            int distance = CategoryCorrector.distance(
+                query, dictionary.categoryOf(id), Integer.MAX_VALUE);
+            if (distance < bestDistance) {
+                best = id;
+                bestDistance = distance;
+                ambiguous = false;
+            }
+            else if (distance == bestDistance) {
+                ambiguous = true;
+            }
+        }
+        return ambiguous ? CategoryDictionary.UNKNOWN : best;
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('A' + random.nextInt(4)));
+        }
+        return builder.toString();
+    }
+}
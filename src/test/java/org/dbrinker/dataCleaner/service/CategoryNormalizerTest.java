@@ -0,0 +1,169 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the CategoryNormalizer class
+ *
+ * @author Don Brinker
+ */
+public class CategoryNormalizerTest {
+    private static final CategoryDictionary DICTIONARY = new CategoryDictionary(
+        1L, ImmutableSet.of("ANIMAL", "CAF\u00C9", "OTHER", "PERSON", "PLACE"));
+
+    // The accented category, spelt with a separate, combining accent
+    private static final String DECOMPOSED_CAFE = "CAFE\u0301";
+
+    @Test
+    public void trimsWhitespace() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE.withTrim(true));
+
+        assertThat(normalized(normalizer, " PERSON"), is("PERSON"));
+        assertThat(normalized(normalizer, "PLACE \t"), is("PLACE"));
+        assertThat(normalized(normalizer, "\u00A0OTHER\u2003"), is("OTHER"));
+        assertThat(normalized(normalizer, "Person "), is((String) null));
+    }
+
+    @Test
+    public void foldsCase() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE.withCaseFold(true));
+
+        assertThat(normalized(normalizer, "person"), is("PERSON"));
+        assertThat(normalized(normalizer, "Caf\u00E9"), is("CAF\u00C9"));
+        assertThat(normalized(normalizer, " person"), is((String) null));
+    }
+
+    @Test
+    public void normalizesUnicode() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE.withNfc(true));
+        assertThat(normalized(normalizer, DECOMPOSED_CAFE), is("CAF\u00C9"));
+
+        CategoryNormalizer plain = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE.withCaseFold(true));
+        assertThat(normalized(plain, DECOMPOSED_CAFE), is((String) null));
+    }
+
+    @Test
+    public void combinesRules() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE.withTrim(true)
+                                               .withCaseFold(true)
+                                               .withNfc(true));
+
+        assertThat(normalized(normalizer, " caf\u00E9 "), is("CAF\u00C9"));
+        assertThat(normalized(normalizer, "\tAnimal"), is("ANIMAL"));
+        assertThat(normalized(normalizer, "Muppet"), is((String) null));
+    }
+
+    @Test
+    public void resolvesAliases() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE
+                            .withCaseFold(true)
+                            .withAliases(ImmutableMap.of("PEOPLE", "PERSON",
+                                                         "LOCATION", "PLACE",
+                                                         "MUPPET", "PUPPET",
+                                                         "person", "OTHER")));
+
+        assertThat(normalized(normalizer, "PEOPLE"), is("PERSON"));
+        assertThat(normalized(normalizer, "location"), is("PLACE"));
+
+        // Aliases for unknown categories are ignored, and known categories
+        // win over aliases
+        assertThat(normalized(normalizer, "Muppet"), is((String) null));
+        assertThat(normalized(normalizer, "Person"), is("PERSON"));
+    }
+
+    @Test
+    public void leavesAmbiguousAliasesAlone() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE
+                            .withCaseFold(true)
+                            .withAliases(ImmutableMap.<String, String>builder()
+                                             .put("Folk", "PERSON")
+                                             .put("FOLK", "ANIMAL")
+                                             .put("PEOPLE", "PERSON")
+                                             .put("people", "PERSON")
+                                             .put("Town", "MUPPET")
+                                             .put("TOWN", "PLACE")
+                                             .build()));
+
+        // Whichever alias comes first, neither category is the one meant
+        assertThat(normalized(normalizer, "folk"), is((String) null));
+
+        // Aliases agreeing on the category, or for unknown categories, don't
+        // make each other ambiguous
+        assertThat(normalized(normalizer, "People"), is("PERSON"));
+        assertThat(normalized(normalizer, "town"), is("PLACE"));
+    }
+
+    @Test
+    public void leavesAmbiguousCategoriesAlone() {
+        CategoryDictionary dictionary = new CategoryDictionary(
+            1L, ImmutableSet.of("PLACE", "Place", "PERSON"));
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            dictionary, NormalizationRules.NONE.withCaseFold(true));
+
+        assertThat(normalizer.idOf("place"), is(CategoryDictionary.UNKNOWN));
+        assertThat(dictionary.categoryOf(normalizer.idOf("person")),
+                   is("PERSON"));
+    }
+
+    @Test
+    public void remembersRawCategories() {
+        CategoryNormalizer normalizer = new CategoryNormalizer(
+            DICTIONARY, NormalizationRules.NONE.withCaseFold(true)
+                                               .withMaxCached(2));
+
+        // However often a category is seen, and however many others push it
+        // out of the cache, it resolves the same way
+        for (int i = 0; i < 3; i++) {
+            assertThat(normalized(normalizer, "person"), is("PERSON"));
+            assertThat(normalized(normalizer, "place"), is("PLACE"));
+            assertThat(normalized(normalizer, "muppet"), is((String) null));
+            assertThat(normalized(normalizer, "Other"), is("OTHER"));
+        }
+    }
+
+    @Test
+    public void dictionaryKeepsNormalizer() {
+        CategoryDictionary dictionary = new CategoryDictionary(
+            2L, ImmutableSet.of("PERSON", "PLACE"));
+        NormalizationRules rules = NormalizationRules.NONE.withTrim(true);
+
+        CategoryNormalizer normalizer = dictionary.getNormalizer(rules);
+        assertThat(dictionary.getNormalizer(rules), sameInstance(normalizer));
+        assertThat(dictionary.getNormalizer(NormalizationRules.NONE.withTrim(true)),
+                   sameInstance(normalizer));
+        assertThat(dictionary.getNormalizer(rules.withCaseFold(true)),
+                   not(sameInstance(normalizer)));
+    }
+
+    @Test
+    public void rulesAreOffByDefault() {
+        assertThat(NormalizationRules.NONE.isEnabled(), is(false));
+        assertThat(NormalizationRules.NONE.normalize(" Caf\u00E9 "), is(" Caf\u00E9 "));
+        assertThat(NormalizationRules.NONE.withNfc(true).isEnabled(), is(true));
+        assertThat(NormalizationRules.NONE.withAliases(ImmutableMap.of("A", "B"))
+                                          .isEnabled(),
+                   is(true));
+    }
+
+    private static String normalized(CategoryNormalizer normalizer,
+                                     String category) {
+        int id = normalizer.idOf(category);
+        return id == CategoryDictionary.UNKNOWN
+               ? null
+               : DICTIONARY.categoryOf(id);
+    }
+}
@@ -1,17 +1,37 @@
 package org.dbrinker.dataCleaner.service;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import org.dbrinker.dataCleaner.dao.CategoryStore;
+import org.dbrinker.dataCleaner.dao.StoredCategories;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.Set;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit test for the CategoryServiceImpl class
@@ -82,6 +102,212 @@ public class CategoryServiceImplTest {
         service.deleteCategory(null);
     }
 
+    @Test
+    public void getSnapshot() {
+        CategorySnapshot snapshot = service.getSnapshot();
+        assertThat(snapshot, notNullValue());
+        assertThat(snapshot.getCategories(),
+                   containsInAnyOrder(CATEGORY_1, CATEGORY_2));
+
+        CategoryDictionary dictionary = snapshot.getDictionary();
+        assertThat(dictionary.getVersion(), is(snapshot.getVersion()));
+        assertThat(dictionary.size(), is(2));
+        assertThat(dictionary.categoryOf(dictionary.idOf(CATEGORY_1)),
+                   is(CATEGORY_1));
+        assertThat(dictionary.categoryOf(dictionary.idOf(CATEGORY_2)),
+                   is(CATEGORY_2));
+        assertThat(dictionary.idOf(CATEGORY_3),
+                   is(CategoryDictionary.UNKNOWN));
+    }
+
+    @Test
+    public void changingCategoriesPublishesNewSnapshot() {
+        CategorySnapshot original = service.getSnapshot();
+
+        service.addCategory(CATEGORY_3);
+        CategorySnapshot added = service.getSnapshot();
+        assertThat(added.getVersion(), greaterThan(original.getVersion()));
+        assertThat(added.getCategories(), hasSize(3));
+        assertThat(added.getDictionary().idOf(CATEGORY_3),
+                   not(CategoryDictionary.UNKNOWN));
+
+        // The old snapshot shouldn't have been touched
+        assertThat(original.getCategories(), hasSize(2));
+        assertThat(original.getDictionary().idOf(CATEGORY_3),
+                   is(CategoryDictionary.UNKNOWN));
+
+        service.deleteCategory(CATEGORY_1);
+        CategorySnapshot deleted = service.getSnapshot();
+        assertThat(deleted.getVersion(), greaterThan(added.getVersion()));
+        assertThat(deleted.getCategories(),
+                   containsInAnyOrder(CATEGORY_2, CATEGORY_3));
+        assertThat(deleted.getDictionary().idOf(CATEGORY_1),
+                   is(CategoryDictionary.UNKNOWN));
+    }
+
+    @Test
+    public void unchangedCategoriesKeepSnapshot() {
+        CategorySnapshot original = service.getSnapshot();
+
+        service.addCategory(CATEGORY_1);
+        service.deleteCategory(CATEGORY_3);
+        assertThat(service.getSnapshot(), sameInstance(original));
+    }
+
+    @Test
+    public void setCategoriesCopiesInput() {
+        Set<String> input = Sets.newHashSet(CATEGORY_1);
+        service.setCategories(input);
+        input.add(CATEGORY_3);
+
+        validateCategories(CATEGORY_1);
+    }
+
+    @Test
+    public void categoriesAreUnmodifiable() {
+        thrown.expect(UnsupportedOperationException.class);
+
+        service.getCategories().add(CATEGORY_3);
+    }
+
+    @Test
+    public void addCategoriesPublishesOneVersion() {
+        CategorySnapshot original = service.getSnapshot();
+
+        int added = service.addCategories(
+            Arrays.asList(CATEGORY_1, CATEGORY_3, "Category 4", CATEGORY_3));
+        assertThat(added, is(2));
+        validateCategories(CATEGORY_1, CATEGORY_2, CATEGORY_3, "Category 4");
+        assertThat(service.getSnapshot().getVersion(),
+                   is(original.getVersion() + 1));
+    }
+
+    @Test
+    public void addExistingCategoriesKeepsSnapshot() {
+        CategorySnapshot original = service.getSnapshot();
+
+        assertThat(service.addCategories(Arrays.asList(CATEGORY_1, CATEGORY_2)),
+                   is(0));
+        assertThat(service.getSnapshot(), sameInstance(original));
+    }
+
+    @Test
+    public void addCategoriesWithNullChangesNothing() {
+        CategorySnapshot original = service.getSnapshot();
+        try {
+            service.addCategories(Arrays.asList(CATEGORY_3, null));
+            fail("Null category should have been rejected");
+        }
+        catch (NullPointerException e) {
+            assertThat(e.getMessage(),
+                       is("Categories to add must not contain null"));
+        }
+
+        assertThat(service.getSnapshot(), sameInstance(original));
+    }
+
+    @Test
+    public void deleteCategoriesPublishesOneVersion() {
+        CategorySnapshot original = service.getSnapshot();
+
+        int deleted = service.deleteCategories(
+            Arrays.asList(CATEGORY_1, CATEGORY_2, CATEGORY_3));
+        assertThat(deleted, is(2));
+        validateCategories();
+        assertThat(service.getSnapshot().getVersion(),
+                   is(original.getVersion() + 1));
+    }
+
+    @Test
+    public void replaceCategories() {
+        CategorySnapshot original = service.getSnapshot();
+
+        service.replaceCategories(Arrays.asList(CATEGORY_2, CATEGORY_3));
+        validateCategories(CATEGORY_2, CATEGORY_3);
+        assertThat(service.getSnapshot().getVersion(),
+                   is(original.getVersion() + 1));
+    }
+
+    @Test
+    public void replaceWithSameCategoriesKeepsSnapshot() {
+        CategorySnapshot original = service.getSnapshot();
+
+        service.replaceCategories(Arrays.asList(CATEGORY_2, CATEGORY_1));
+        assertThat(service.getSnapshot(), sameInstance(original));
+    }
+
+    @Test
+    public void storedCategoriesWinOverSeed() {
+        CategoryStore store = mock(CategoryStore.class);
+        when(store.load()).thenReturn(new StoredCategories(
+            42L, ImmutableSet.of(CATEGORY_3)));
+
+        service = new CategoryServiceImpl(store);
+        service.seedCategories(Sets.newHashSet(CATEGORY_1, CATEGORY_2));
+
+        validateCategories(CATEGORY_3);
+        assertThat(service.getSnapshot().getVersion(), is(42L));
+        verify(store, never()).replace(anyLong(), anySetOf(String.class));
+    }
+
+    @Test
+    public void seedIsStoredWhenNothingStored() {
+        CategoryStore store = mock(CategoryStore.class);
+        when(store.load()).thenReturn(new StoredCategories(
+            0L, ImmutableSet.of()));
+
+        service = new CategoryServiceImpl(store);
+        service.seedCategories(Sets.newHashSet(CATEGORY_1, CATEGORY_2));
+
+        validateCategories(CATEGORY_1, CATEGORY_2);
+        verify(store).replace(1L, ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+    }
+
+    @Test
+    public void changesAreStored() {
+        CategoryStore store = mock(CategoryStore.class);
+        when(store.load()).thenReturn(new StoredCategories(
+            5L, ImmutableSet.of(CATEGORY_1)));
+
+        service = new CategoryServiceImpl(store);
+        service.addCategory(CATEGORY_2);
+        service.deleteCategory(CATEGORY_1);
+
+        verify(store).add(ImmutableSet.of(CATEGORY_2), 6L,
+                          ImmutableSet.of(CATEGORY_1, CATEGORY_2));
+        verify(store).delete(ImmutableSet.of(CATEGORY_1), 7L,
+                             ImmutableSet.of(CATEGORY_2));
+
+        service.addCategories(Arrays.asList(CATEGORY_1, CATEGORY_2, CATEGORY_3));
+        verify(store).add(ImmutableSet.of(CATEGORY_1, CATEGORY_3), 8L,
+                          ImmutableSet.of(CATEGORY_1, CATEGORY_2, CATEGORY_3));
+
+        service.replaceCategories(Arrays.asList(CATEGORY_3));
+        verify(store).replace(9L, ImmutableSet.of(CATEGORY_3));
+    }
+
+    @Test
+    public void unstoredChangeIsNotPublished() {
+        CategoryStore store = mock(CategoryStore.class);
+        when(store.load()).thenReturn(new StoredCategories(
+            1L, ImmutableSet.of(CATEGORY_1)));
+        doThrow(new UncheckedIOException(new IOException("Disk full")))
+            .when(store).add(any(), anyLong(), any());
+
+        service = new CategoryServiceImpl(store);
+        CategorySnapshot original = service.getSnapshot();
+        try {
+            service.addCategory(CATEGORY_2);
+            fail("Change should not have been stored");
+        }
+        catch (UncheckedIOException e) {
+            // Expected
+        }
+
+        assertThat(service.getSnapshot(), sameInstance(original));
+        verify(store).add(eq(ImmutableSet.of(CATEGORY_2)), eq(2L), any());
+    }
+
     private void validateCategories(String... expectedCategories) {
         Set<String> categories = service.getCategories();
         assertThat(categories, notNullValue());
@@ -0,0 +1,423 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.hamcrest.Matcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for the CleanResultCache class
+ *
+ * @author Don Brinker
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CleanResultCacheTest {
+    private static final HashCode HASH_1 = HashCode.fromLong(1L);
+    private static final HashCode HASH_2 = HashCode.fromLong(2L);
+
+    @Mock
+    private DataCleaner mockCleaner;
+
+    @Mock
+    private CategoryService mockCategoryService;
+
+    private MetricsRegistry registry;
+    private CleanResultCache cache;
+
+    private List<CategoryAndSubcat> input;
+    private CategorySnapshot snapshot;
+    private AtomicLong nanos;
+
+    private ExecutorService executor;
+    private CountDownLatch cleaning;
+    private CountDownLatch release;
+    private AtomicInteger calls;
+
+    @Before
+    public void initialize() {
+        input = Collections.singletonList(new CategoryAndSubcat("PERSON", "Bob"));
+        snapshot = new CategorySnapshot(1L, ImmutableSet.of("PERSON"));
+        when(mockCategoryService.getSnapshot()).thenAnswer(invocation -> snapshot);
+
+        // Each cleaning gives a new (but equal) response, so that cached
+        // responses can be told apart from fresh ones
+        when(mockCleaner.cleanAndCount(anyListOf(CategoryAndSubcat.class),
+                                       any(CategorySnapshot.class),
+                                       any(CountPage.class)))
+            .thenAnswer(invocation -> new CategoryCleanResponse(
+                input,
+                Collections.singletonList(new CategoryCount("PERSON", 1L))));
+
+        nanos = new AtomicLong();
+        registry = new MetricsRegistry();
+        cache = new CleanResultCache(mockCleaner, mockCategoryService, registry);
+        cache.setTicker(new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+        cache.start();
+
+        executor = Executors.newCachedThreadPool();
+        cleaning = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        calls = new AtomicInteger();
+    }
+
+    @After
+    public void shutDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameContentIsCleanedOnce() {
+        CategoryCleanResponse first = cache.cleanAndCount(HASH_1, input);
+        CategoryCleanResponse second = cache.cleanAndCount(HASH_1, input);
+
+        assertThat(second, sameInstance(first));
+        verify(mockCleaner, times(1)).cleanAndCount(input, snapshot, CountPage.ALL);
+        assertThat(metrics(), containsMetric(
+            "datacleaner_clean_cache_requests_total{result=\"hit\"} 1"));
+        assertThat(metrics(), containsMetric(
+            "datacleaner_clean_cache_requests_total{result=\"miss\"} 1"));
+    }
+
+    @Test
+    public void differentContentIsCleanedAgain() {
+        CategoryCleanResponse first = cache.cleanAndCount(HASH_1, input);
+        CategoryCleanResponse second = cache.cleanAndCount(HASH_2, input);
+
+        assertThat(second, not(sameInstance(first)));
+        verify(mockCleaner, times(2)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void changedCategoriesAreCleanedAgain() {
+        CategoryCleanResponse first = cache.cleanAndCount(HASH_1, input);
+
+        CategorySnapshot original = snapshot;
+        snapshot = new CategorySnapshot(2L, ImmutableSet.of("PERSON", "PLACE"));
+        CategoryCleanResponse second = cache.cleanAndCount(HASH_1, input);
+
+        assertThat(second, not(sameInstance(first)));
+        verify(mockCleaner).cleanAndCount(input, original, CountPage.ALL);
+        verify(mockCleaner).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void expiredResultsAreCleanedAgain() {
+        CategoryCleanResponse first = cache.cleanAndCount(HASH_1, input);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(
+            CleanResultCache.DEFAULT_TTL_SECONDS + 1));
+        CategoryCleanResponse second = cache.cleanAndCount(HASH_1, input);
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(metrics(), containsMetric(
+            "datacleaner_clean_cache_evictions_total 1"));
+    }
+
+    @Test
+    public void resultsBeyondTheLimitAreEvicted() {
+        cache.setMaxRecords(3L);
+        cache.start();
+
+        // Each result weighs three records, so only one fits
+        cache.cleanAndCount(HASH_1, input);
+        cache.cleanAndCount(HASH_2, input);
+        cache.cleanAndCount(HASH_1, input);
+
+        verify(mockCleaner, times(3)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void cachingCanBeSwitchedOff() {
+        cache.setMaxRecords(0L);
+        cache.start();
+
+        cache.cleanAndCount(HASH_1, input);
+        cache.cleanAndCount(HASH_1, input);
+
+        verify(mockCleaner, times(2)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void concurrentRequestsShareOneCleaning() throws Exception {
+        blockFirstCleaning();
+
+        List<Future<CategoryCleanResponse>> responses = new ArrayList<>();
+        responses.add(executor.submit(() -> cache.cleanAndCount(HASH_1, input)));
+        assertThat(cleaning.await(5, TimeUnit.SECONDS), is(true));
+        for (int i = 0; i < 3; i++) {
+            responses.add(executor.submit(() -> cache.cleanAndCount(HASH_1, input)));
+        }
+        awaitMetric("datacleaner_clean_coalesced_total 3");
+        release.countDown();
+
+        CategoryCleanResponse first = responses.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<CategoryCleanResponse> response : responses) {
+            assertThat(response.get(5, TimeUnit.SECONDS), sameInstance(first));
+        }
+        verify(mockCleaner, times(1)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void concurrentRequestsShareOneCleaningWithoutCache() throws Exception {
+        cache.setMaxRecords(0L);
+        cache.start();
+        blockFirstCleaning();
+
+        Future<CategoryCleanResponse> first
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        assertThat(cleaning.await(5, TimeUnit.SECONDS), is(true));
+        Future<CategoryCleanResponse> second
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        awaitMetric("datacleaner_clean_coalesced_total 1");
+        release.countDown();
+
+        assertThat(second.get(5, TimeUnit.SECONDS),
+                   sameInstance(first.get(5, TimeUnit.SECONDS)));
+        verify(mockCleaner, times(1)).cleanAndCount(input, snapshot, CountPage.ALL);
+
+        // Once it's done, it's done
+        cache.cleanAndCount(HASH_1, input);
+        verify(mockCleaner, times(2)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void waitingRequestTimesOut() throws Exception {
+        cache.setWaitTimeoutSeconds(0L);
+        blockFirstCleaning();
+
+        Future<CategoryCleanResponse> first
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        assertThat(cleaning.await(5, TimeUnit.SECONDS), is(true));
+        try {
+            cache.cleanAndCount(HASH_1, input);
+            fail("Waiting request should have timed out");
+        }
+        catch (CleanTimeoutException e) {
+            // Expected
+        }
+        assertThat(metrics(), containsMetric(
+            "datacleaner_clean_coalesce_timeouts_total 1"));
+
+        // The cleaning itself carries on
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS),
+                   sameInstance(cache.cleanAndCount(HASH_1, input)));
+    }
+
+    @Test
+    public void cancelledWaitingRequestLeavesCleaningAlone() throws Exception {
+        blockFirstCleaning();
+
+        Future<CategoryCleanResponse> first
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        assertThat(cleaning.await(5, TimeUnit.SECONDS), is(true));
+        Future<CategoryCleanResponse> second
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        awaitMetric("datacleaner_clean_coalesced_total 1");
+
+        second.cancel(true);
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).getCategories(), is(input));
+        verify(mockCleaner, times(1)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void cancelledCleaningIsTakenOver() throws Exception {
+        blockFirstCleaning();
+
+        Future<CategoryCleanResponse> first
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        assertThat(cleaning.await(5, TimeUnit.SECONDS), is(true));
+        Future<CategoryCleanResponse> second
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        awaitMetric("datacleaner_clean_coalesced_total 1");
+
+        // Cancelling the first request cancels its cleaning, but the second
+        // request should just clean the data itself
+        first.cancel(true);
+        assertThat(second.get(5, TimeUnit.SECONDS).getCategories(), is(input));
+        verify(mockCleaner, times(2)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void failedCleaningFailsWaitingRequests() throws Exception {
+        when(mockCleaner.cleanAndCount(anyListOf(CategoryAndSubcat.class),
+                                       any(CategorySnapshot.class),
+                                       any(CountPage.class)))
+            .thenAnswer(invocation -> {
+                cleaning.countDown();
+                release.await();
+                throw new IllegalArgumentException("Bad data");
+            });
+
+        Future<CategoryCleanResponse> first
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        assertThat(cleaning.await(5, TimeUnit.SECONDS), is(true));
+        Future<CategoryCleanResponse> second
+            = executor.submit(() -> cache.cleanAndCount(HASH_1, input));
+        awaitMetric("datacleaner_clean_coalesced_total 1");
+        release.countDown();
+
+        for (Future<CategoryCleanResponse> response : Arrays.asList(first, second)) {
+            try {
+                response.get(5, TimeUnit.SECONDS);
+                fail("Cleaning should have failed");
+            }
+            catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+            }
+        }
+        verify(mockCleaner, times(1)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void everythingCanBeSwitchedOff() {
+        cache.setMaxRecords(0L);
+        cache.setCoalesce(false);
+        cache.start();
+
+        cache.cleanAndCount(HASH_1, input);
+        cache.cleanAndCount(HASH_1, input);
+
+        verify(mockCleaner, times(2)).cleanAndCount(input, snapshot, CountPage.ALL);
+        assertThat(metrics(), containsMetric(
+            "datacleaner_clean_cache_requests_total{result=\"miss\"} 0"));
+        assertThat(metrics(), containsMetric(
+            "datacleaner_clean_coalesced_total 0"));
+    }
+
+    @Test
+    public void differentPagesShareOneCleaning() {
+        List<CategoryCount> counts = Arrays.asList(new CategoryCount("PERSON", 3L),
+                                                   new CategoryCount("PLACE", 2L),
+                                                   new CategoryCount("ANIMAL", 1L),
+                                                   new CategoryCount("OTHER", 0L));
+        when(mockCleaner.cleanAndCount(input, snapshot, CountPage.ALL))
+            .thenReturn(new CategoryCleanResponse(input, counts));
+
+        CategoryCleanResponse all = cache.cleanAndCount(HASH_1, input);
+        CategoryCleanResponse top = cache.cleanAndCount(HASH_1, input,
+                                                        new CountPage(0, 2, false));
+        CategoryCleanResponse rest = cache.cleanAndCount(HASH_1, input,
+                                                         new CountPage(2, 5, false));
+
+        assertThat(all.getCounts(), is(counts));
+        assertThat(top.getCounts(), is(counts.subList(0, 2)));
+        assertThat(rest.getCounts(), is(counts.subList(2, 3)));
+        assertThat(cache.cleanAndCount(HASH_1, input, new CountPage(3, 5, true))
+                        .getCounts(),
+                   is(counts.subList(3, 4)));
+        verify(mockCleaner).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    @Test
+    public void pagesAreCleanedWhenNotCached() {
+        cache.setMaxRecords(0L);
+        cache.start();
+        CountPage topTen = new CountPage(0, 10, false);
+
+        cache.cleanAndCount(HASH_1, input, topTen);
+
+        verify(mockCleaner).cleanAndCount(input, snapshot, topTen);
+    }
+
+    @Test
+    public void unhashedContentIsJustCleaned() {
+        cache.cleanAndCount(null, input, CountPage.ALL);
+        cache.cleanAndCount(null, input, CountPage.ALL);
+
+        verify(mockCleaner, times(2)).cleanAndCount(input, snapshot, CountPage.ALL);
+    }
+
+    // Makes the first cleaning wait until released, giving up if interrupted
+    private void blockFirstCleaning() {
+        when(mockCleaner.cleanAndCount(anyListOf(CategoryAndSubcat.class),
+                                       any(CategorySnapshot.class),
+                                       any(CountPage.class)))
+            .thenAnswer(invocation -> {
+                if (calls.getAndIncrement() == 0) {
+                    cleaning.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new CancellationException("Cleaning was cancelled");
+                    }
+                }
+                return new CategoryCleanResponse(
+                    input,
+                    Collections.singletonList(new CategoryCount("PERSON", 1L)));
+            });
+    }
+
+    private void awaitMetric(String line) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!metrics().contains(line + "\n")) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Metric never reached " + line);
+            }
+            Thread.sleep(5L);
+        }
+    }
+
+    private String metrics() {
+        StringWriter out = new StringWriter();
+        try {
+            registry.write(out);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private static Matcher<String> containsMetric(String line) {
+        return containsString(line + "\n");
+    }
+}
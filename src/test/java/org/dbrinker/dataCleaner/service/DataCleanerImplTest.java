@@ -2,8 +2,11 @@ package org.dbrinker.dataCleaner.service;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import org.dbrinker.dataCleaner.metrics.MetricsRegistry;
 import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
 import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -11,12 +14,17 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -25,6 +33,8 @@ import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -50,6 +60,9 @@ public class DataCleanerImplTest {
     @Mock
     private CategoryService mockCategoryService;
 
+    @Spy
+    private MetricsRegistry metricsRegistry = new MetricsRegistry();
+
     @InjectMocks
     private DataCleanerImpl cleaner;
 
@@ -68,6 +81,8 @@ public class DataCleanerImplTest {
             = Sets.newHashSet(CATEGORY_1, CATEGORY_2, CATEGORY_3);
         when(mockCategoryService.getCategories())
             .thenReturn(expectedCategories);
+        when(mockCategoryService.getSnapshot())
+            .thenReturn(new CategorySnapshot(1L, expectedCategories));
 
         // And set up test data
         categoryAndSubcat1 = new CategoryAndSubcat(CATEGORY_1,
@@ -90,6 +105,11 @@ public class DataCleanerImplTest {
                                        categoryAndSubcat2);
     }
 
+    @After
+    public void cleanUp() {
+        cleaner.shutdown();
+    }
+
     @Test
     public void cleanDataWithValidInput() {
         List<CategoryAndSubcat> output = cleaner.cleanData(testInput);
@@ -162,6 +182,16 @@ public class DataCleanerImplTest {
     }
 
 
+    @Test
+    public void getCategoryCountsBreaksTiesByName() {
+        List<CategoryCount> counts = cleaner.getCategoryCounts(testInput);
+
+        // Everything occurs exactly once, so it's down to the names
+        assertThat(counts, contains(new CategoryCount(CATEGORY_1, 1L),
+                                    new CategoryCount(CATEGORY_2, 1L),
+                                    new CategoryCount(CATEGORY_3, 1L)));
+    }
+
     @Test
     public void getCategoryCountsWithEmptyInput() {
         List<CategoryCount> counts
@@ -182,6 +212,380 @@ public class DataCleanerImplTest {
         cleaner.getCategoryCounts(null);
     }
 
+    @Test
+    public void cleanAndCountWithMixedInput() {
+        // Throw in duplicates, an invalid category, and a second subcategory
+        // so the counts have a definite order
+        testInput.add(categoryAndSubcat1);
+        testInput.add(categoryAndSubcat4);
+        CategoryAndSubcat extraCategory2
+            = new CategoryAndSubcat(CATEGORY_2, SUBCATEGORY_3);
+        testInput.add(extraCategory2);
+        testInput.add(categoryAndSubcat3);
+
+        CategoryCleanResponse response = cleaner.cleanAndCount(testInput);
+
+        assertThat(response, notNullValue());
+        validateOutput(response.getCategories(),
+                       categoryAndSubcat3,
+                       categoryAndSubcat1,
+                       categoryAndSubcat2,
+                       extraCategory2);
+
+        List<CategoryCount> counts = response.getCounts();
+        assertThat(counts, hasSize(expectedCategories.size()));
+        assertThat(counts.get(0), is(new CategoryCount(CATEGORY_2, 2L)));
+        assertThat(counts, containsInAnyOrder(new CategoryCount(CATEGORY_1, 1L),
+                                              new CategoryCount(CATEGORY_2, 2L),
+                                              new CategoryCount(CATEGORY_3, 1L)));
+
+        // Cleaning and counting should both have used the same categories
+        verify(mockCategoryService, times(1)).getSnapshot();
+    }
+
+    @Test
+    public void cleanAndCountWithEmptyInput() {
+        CategoryCleanResponse response
+            = cleaner.cleanAndCount(Collections.emptyList());
+
+        assertThat(response, notNullValue());
+        assertThat(response.getCategories(),
+                   emptyCollectionOf(CategoryAndSubcat.class));
+        assertThat(response.getCounts(),
+                   containsInAnyOrder(new CategoryCount(CATEGORY_1, 0L),
+                                      new CategoryCount(CATEGORY_2, 0L),
+                                      new CategoryCount(CATEGORY_3, 0L)));
+    }
+
+    @Test
+    public void cleanAndCountWithNullInput() {
+        thrown.expect(NullPointerException.class);
+        thrown.expectMessage("Input must not be null");
+
+        cleaner.cleanAndCount(null);
+    }
+
+    @Test
+    public void cleanAndCountStreamsCleanRecords() {
+        testInput.add(categoryAndSubcat4);
+        testInput.add(categoryAndSubcat3);
+
+        List<CategoryAndSubcat> output = Lists.newArrayList();
+        List<CategoryCount> counts
+            = cleaner.cleanAndCount(testInput.iterator(), output::add);
+
+        validateOutput(output,
+                       categoryAndSubcat3,
+                       categoryAndSubcat1,
+                       categoryAndSubcat2);
+        assertThat(counts, containsInAnyOrder(new CategoryCount(CATEGORY_1, 1L),
+                                              new CategoryCount(CATEGORY_2, 1L),
+                                              new CategoryCount(CATEGORY_3, 1L)));
+    }
+
+    @Test
+    public void cleanAndCountRecordsMetrics() {
+        testInput.add(categoryAndSubcat1);
+        testInput.add(categoryAndSubcat4);
+
+        cleaner.cleanAndCount(testInput);
+
+        validateMetrics(3L, 1L, 1L);
+    }
+
+    @Test
+    public void parallelCleanAndCountRecordsMetrics() {
+        testInput.add(categoryAndSubcat1);
+        testInput.add(categoryAndSubcat4);
+        cleaner.setParallelThreshold(1);
+        cleaner.setParallelism(4);
+
+        cleaner.cleanAndCount(testInput);
+
+        validateMetrics(3L, 1L, 1L);
+    }
+
+    @Test
+    public void cleanAndCountInParallel() {
+        testInput.add(categoryAndSubcat1);
+        testInput.add(categoryAndSubcat4);
+        testInput.add(categoryAndSubcat3);
+
+        // Force even this tiny input to be split up
+        cleaner.setParallelThreshold(1);
+        cleaner.setParallelism(4);
+
+        CategoryCleanResponse response = cleaner.cleanAndCount(testInput);
+        validateOutput(response.getCategories(),
+                       categoryAndSubcat3,
+                       categoryAndSubcat1,
+                       categoryAndSubcat2);
+        assertThat(response.getCounts(),
+                   containsInAnyOrder(new CategoryCount(CATEGORY_1, 1L),
+                                      new CategoryCount(CATEGORY_2, 1L),
+                                      new CategoryCount(CATEGORY_3, 1L)));
+    }
+
+    @Test
+    public void parallelCleaningMatchesSequentialCleaning() {
+        // Build a decent-sized input with plenty of duplicates (both close
+        // together and far apart) and invalid categories.  Use a fixed seed
+        // so any failure can be reproduced.
+        Random random = new Random(42L);
+        String[] categories = {CATEGORY_1, CATEGORY_2, CATEGORY_3, CATEGORY_4};
+        List<CategoryAndSubcat> input = Lists.newArrayList();
+        for (int i = 0; i < 50000; i++) {
+            String category
+                = categories[Math.min(random.nextInt(8), categories.length - 1)];
+            input.add(new CategoryAndSubcat(category,
+                                            "Subcategory " + random.nextInt(5000)));
+        }
+
+        cleaner.setParallelThreshold(Integer.MAX_VALUE);
+        CategoryCleanResponse sequential = cleaner.cleanAndCount(input);
+
+        cleaner.setParallelThreshold(1);
+        for (int parallelism : new int[]{2, 3, 8}) {
+            cleaner.setParallelism(parallelism);
+            CategoryCleanResponse parallel = cleaner.cleanAndCount(input);
+
+            // Order of both the cleaned data and the counts has to match
+            assertThat(parallel.getCategories(),
+                       is(sequential.getCategories()));
+            assertThat(parallel.getCounts(), is(sequential.getCounts()));
+        }
+    }
+
+    @Test
+    public void streamedCleaningSpillsDuplicatesToDisk() {
+        List<CategoryAndSubcat> input = Lists.newArrayList();
+        for (int i = 0; i < 20000; i++) {
+            input.add(new CategoryAndSubcat(CATEGORY_1, "Subcategory " + i));
+            input.add(new CategoryAndSubcat(CATEGORY_4, "Subcategory " + i));
+            input.add(new CategoryAndSubcat(CATEGORY_1, "Subcategory " + i / 2));
+        }
+
+        // Leave barely any room for tracking duplicates in memory
+        cleaner.setDedupMemoryBudget(1024);
+
+        List<CategoryAndSubcat> output = Lists.newArrayList();
+        List<CategoryCount> counts
+            = cleaner.cleanAndCount(input.iterator(), output::add);
+
+        CategoryCleanResponse expected = cleaner.cleanAndCount(input);
+        assertThat(output, is(expected.getCategories()));
+        assertThat(counts, is(expected.getCounts()));
+        assertThat(counts.get(0), is(new CategoryCount(CATEGORY_1, 20000L)));
+    }
+
+    @Test
+    public void pagedCountsMatchFullCounts() {
+        // Plenty of categories, a few of them common, most rare, and some
+        // never seen at all - with plenty of ties between the rare ones
+        Set<String> categories = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            categories.add(String.format("Category %03d", i));
+        }
+        CategorySnapshot snapshot = new CategorySnapshot(2L, categories);
+        Random random = new Random(7L);
+        List<CategoryAndSubcat> input = Lists.newArrayList();
+        for (int i = 0; i < 20000; i++) {
+            int category = random.nextInt(4) == 0 ? random.nextInt(10)
+                                                  : random.nextInt(250);
+            input.add(new CategoryAndSubcat(String.format("Category %03d", category),
+                                            "Subcategory " + i));
+        }
+
+        cleaner.setParallelThreshold(Integer.MAX_VALUE);
+        List<CategoryCount> all = cleaner.cleanAndCount(input, snapshot).getCounts();
+        List<CategoryCount> counted = all.stream()
+                                         .filter(count -> count.getNumOccurrences() > 0)
+                                         .collect(Collectors.toList());
+        assertThat(all, hasSize(300));
+        assertThat(counted, hasSize(250));
+
+        for (int threshold : new int[]{Integer.MAX_VALUE, 1}) {
+            cleaner.setParallelThreshold(threshold);
+            cleaner.setParallelism(4);
+            for (int offset : new int[]{0, 1, 20, 249, 250, 251, 299, 300, 400}) {
+                for (int limit : new int[]{0, 1, 10, 100, CountPage.UNLIMITED}) {
+                    assertThat(cleaner.cleanAndCount(input, snapshot,
+                                                     new CountPage(offset, limit, true))
+                                      .getCounts(),
+                               is(page(all, offset, limit)));
+                    assertThat(cleaner.cleanAndCount(input, snapshot,
+                                                     new CountPage(offset, limit, false))
+                                      .getCounts(),
+                               is(page(counted, offset, limit)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void streamedCountsArePaged() {
+        List<CategoryAndSubcat> output = Lists.newArrayList();
+        testInput.add(new CategoryAndSubcat(CATEGORY_1, SUBCATEGORY_2));
+        List<CategoryCount> counts
+            = cleaner.cleanAndCount(testInput.iterator(), output::add,
+                                    new CountPage(0, 1, false));
+
+        assertThat(output, hasSize(4));
+        assertThat(counts, contains(new CategoryCount(CATEGORY_1, 2L)));
+    }
+
+    @Test
+    public void misspeltCategoriesAreDroppedByDefault() {
+        testInput.add(new CategoryAndSubcat("Categroy 1", SUBCATEGORY_4));
+
+        CategoryCleanResponse response = cleaner.cleanAndCount(testInput);
+        assertThat(response.getCategories(), hasSize(3));
+        assertThat(recordCount("invalid"), is(1L));
+    }
+
+    @Test
+    public void misspeltCategoriesAreCorrected() {
+        cleaner.setMaxCorrectionDistance(1);
+        testInput.add(new CategoryAndSubcat("Categroy 1", SUBCATEGORY_4));
+        testInput.add(new CategoryAndSubcat("category 2 ", SUBCATEGORY_2));
+        testInput.add(new CategoryAndSubcat("Categroy 1", SUBCATEGORY_4));
+        testInput.add(categoryAndSubcat4);
+
+        for (int threshold : new int[]{Integer.MAX_VALUE, 1}) {
+            cleaner.setParallelThreshold(threshold);
+            cleaner.setParallelism(2);
+            CategoryCleanResponse response = cleaner.cleanAndCount(testInput);
+
+            // The second misspelling of category 1 duplicates the first, and
+            // the misspelling of category 2 duplicates the original
+            assertThat(response.getCategories(),
+                       contains(categoryAndSubcat3,
+                                categoryAndSubcat1,
+                                categoryAndSubcat2,
+                                new CategoryAndSubcat(CATEGORY_1, SUBCATEGORY_4)));
+            assertThat(response.getCounts().get(0),
+                       is(new CategoryCount(CATEGORY_1, 2L)));
+        }
+        assertThat(metricsRegistry.counter("datacleaner_clean_corrected_total", "")
+                                  .sum(),
+                   is(6L));
+
+        List<CategoryAndSubcat> output = Lists.newArrayList();
+        cleaner.cleanAndCount(testInput.iterator(), output::add);
+        assertThat(output, hasSize(4));
+        assertThat(output.get(3), is(new CategoryAndSubcat(CATEGORY_1, SUBCATEGORY_4)));
+    }
+
+    @Test
+    public void parallelCorrectionMatchesSequential() {
+        cleaner.setMaxCorrectionDistance(2);
+        Random random = new Random(99L);
+        String[] categories = {CATEGORY_1, "Categroy 1", "CATEGORY 2", "Category 3 ",
+                               "Category", "Muppet", CATEGORY_4};
+        List<CategoryAndSubcat> input = Lists.newArrayList();
+        for (int i = 0; i < 20000; i++) {
+            input.add(new CategoryAndSubcat(categories[random.nextInt(categories.length)],
+                                            "Subcategory " + random.nextInt(2000)));
+        }
+
+        cleaner.setParallelThreshold(Integer.MAX_VALUE);
+        CategoryCleanResponse sequential = cleaner.cleanAndCount(input);
+
+        cleaner.setParallelThreshold(1);
+        cleaner.setParallelism(4);
+        CategoryCleanResponse parallel = cleaner.cleanAndCount(input);
+        assertThat(parallel.getCategories(), is(sequential.getCategories()));
+        assertThat(parallel.getCounts(), is(sequential.getCounts()));
+    }
+
+    @Test
+    public void variantCategoriesAreNormalized() {
+        cleaner.setNormalizationTrim(true);
+        cleaner.setNormalizationCaseFold(true);
+        cleaner.setNormalizationAliases("First: Category 1, Third:Category 3, Fourth:Category 4");
+        testInput.add(new CategoryAndSubcat(" category 1", SUBCATEGORY_4));
+        testInput.add(new CategoryAndSubcat("CATEGORY 2 ", SUBCATEGORY_2));
+        testInput.add(new CategoryAndSubcat("first", SUBCATEGORY_4));
+        testInput.add(new CategoryAndSubcat("THIRD", SUBCATEGORY_4));
+        testInput.add(new CategoryAndSubcat("FOURTH", SUBCATEGORY_4));
+
+        for (int threshold : new int[]{Integer.MAX_VALUE, 1}) {
+            cleaner.setParallelThreshold(threshold);
+            cleaner.setParallelism(2);
+            CategoryCleanResponse response = cleaner.cleanAndCount(testInput);
+
+            // The alias of category 1 duplicates its other variant, the
+            // variant of category 2 duplicates the original, and category 4
+            // isn't known, so neither is its alias
+            assertThat(response.getCategories(),
+                       contains(categoryAndSubcat3,
+                                categoryAndSubcat1,
+                                categoryAndSubcat2,
+                                new CategoryAndSubcat(CATEGORY_1, SUBCATEGORY_4),
+                                new CategoryAndSubcat(CATEGORY_3, SUBCATEGORY_4)));
+            assertThat(response.getCounts().get(0),
+                       is(new CategoryCount(CATEGORY_1, 2L)));
+        }
+        assertThat(metricsRegistry.counter("datacleaner_clean_corrected_total", "")
+                                  .sum(),
+                   is(8L));
+    }
+
+    @Test
+    public void normalizationComesBeforeCorrection() {
+        cleaner.setNormalizationCaseFold(true);
+        cleaner.setMaxCorrectionDistance(1);
+
+        // Only a case away from category 1, so never mistaken for category 2,
+        // but a case and a letter away from category 3
+        testInput.add(new CategoryAndSubcat("CATEGORY 1", SUBCATEGORY_4));
+        testInput.add(new CategoryAndSubcat("CATEGROY 3", SUBCATEGORY_4));
+
+        CategoryCleanResponse response = cleaner.cleanAndCount(testInput);
+        assertThat(response.getCategories(),
+                   contains(categoryAndSubcat3,
+                            categoryAndSubcat1,
+                            categoryAndSubcat2,
+                            new CategoryAndSubcat(CATEGORY_1, SUBCATEGORY_4),
+                            new CategoryAndSubcat(CATEGORY_3, SUBCATEGORY_4)));
+    }
+
+    @Test
+    public void malformedAliasesAreRejected() {
+        thrown.expect(IllegalArgumentException.class);
+        cleaner.setNormalizationAliases("PEOPLE");
+    }
+
+    private static List<CategoryCount> page(List<CategoryCount> counts,
+                                            int offset,
+                                            int limit) {
+        return counts.stream()
+                     .skip(offset)
+                     .limit(limit)
+                     .collect(Collectors.toList());
+    }
+
+    private void validateMetrics(long clean, long duplicate, long invalid) {
+        assertThat(recordCount("clean"), is(clean));
+        assertThat(recordCount("duplicate"), is(duplicate));
+        assertThat(recordCount("invalid"), is(invalid));
+
+        // Every stage should have been timed exactly once
+        for (String stage : new String[] { "clean", "sort", "count" }) {
+            long[] buckets
+                = metricsRegistry.histogram("datacleaner_clean_stage_seconds",
+                                            "", "stage", stage)
+                                 .getBucketCounts();
+            assertThat(LongStream.of(buckets).sum(), is(1L));
+        }
+    }
+
+    private long recordCount(String outcome) {
+        return metricsRegistry.counter("datacleaner_clean_records_total", "",
+                                       "outcome", outcome)
+                              .sum();
+    }
+
     private void validateOutput(List<CategoryAndSubcat> output,
                                 CategoryAndSubcat... expectedData) {
         assertThat(output, notNullValue());
@@ -0,0 +1,212 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.collect.Lists;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.dbrinker.dataCleaner.model.DataSetJob;
+import org.dbrinker.dataCleaner.model.JobStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for the DataSetJobServiceImpl class
+ *
+ * @author Don Brinker
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataSetJobServiceImplTest {
+    private static final long WAIT_MILLIS = 5000;
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Mock
+    private DataCleaner mockCleaner;
+
+    private DataSetJobServiceImpl service;
+
+    private List<CategoryAndSubcat> input;
+    private CategoryCleanResponse expectedResult;
+
+    // Lets a test hold the cleaner up until it's ready
+    private CountDownLatch cleanerStarted;
+    private CountDownLatch releaseCleaner;
+
+    @Before
+    public void initialize() {
+        input = Lists.newArrayList(new CategoryAndSubcat("PERSON", "Bob"));
+        expectedResult
+            = new CategoryCleanResponse(input,
+                                        Collections.singletonList(
+                                            new CategoryCount("PERSON", 1L)));
+
+        cleanerStarted = new CountDownLatch(1);
+        releaseCleaner = new CountDownLatch(0);
+        when(mockCleaner.cleanAndCount(anyListOf(CategoryAndSubcat.class)))
+            .thenAnswer(invocation -> {
+                cleanerStarted.countDown();
+                releaseCleaner.await();
+                return expectedResult;
+            });
+
+        service = new DataSetJobServiceImpl(mockCleaner);
+        service.setThreads(1);
+        service.setQueueCapacity(1);
+        service.start();
+    }
+
+    @After
+    public void cleanUp() {
+        service.stop();
+    }
+
+    @Test
+    public void submittedJobSucceeds() throws InterruptedException {
+        DataSetJob job = service.submit(input);
+        assertThat(job, notNullValue());
+        assertThat(job.getInputSize(), is(1));
+        assertThat(job.getSubmitted(), notNullValue());
+
+        DataSetJob finished = awaitStatus(job.getId(), JobStatus.SUCCEEDED);
+        assertThat(finished.getStarted(), notNullValue());
+        assertThat(finished.getFinished(), notNullValue());
+        assertThat(service.getResult(job.getId()), is(expectedResult));
+    }
+
+    @Test
+    public void failedJobReportsError() throws InterruptedException {
+        when(mockCleaner.cleanAndCount(anyListOf(CategoryAndSubcat.class)))
+            .thenThrow(new IllegalStateException("Boom"));
+
+        DataSetJob job = service.submit(input);
+
+        DataSetJob finished = awaitStatus(job.getId(), JobStatus.FAILED);
+        assertThat(finished.getError(), is("Boom"));
+        assertThat(service.getResult(job.getId()), nullValue());
+    }
+
+    @Test
+    public void jobFailingWithErrorIsFinished() throws InterruptedException {
+        when(mockCleaner.cleanAndCount(anyListOf(CategoryAndSubcat.class)))
+            .thenThrow(new OutOfMemoryError("Java heap space"));
+
+        DataSetJob job = service.submit(input);
+
+        DataSetJob finished = awaitStatus(job.getId(), JobStatus.FAILED);
+        assertThat(finished.getError(), is("Java heap space"));
+        assertThat(finished.getFinished(), notNullValue());
+    }
+
+    @Test
+    public void removeCancelsRunningJob() throws InterruptedException {
+        releaseCleaner = new CountDownLatch(1);
+        DataSetJob job = service.submit(input);
+        assertThat(cleanerStarted.await(WAIT_MILLIS, TimeUnit.MILLISECONDS),
+                   is(true));
+
+        assertThat(service.remove(job.getId()), is(true));
+        assertThat(service.getJob(job.getId()), nullValue());
+        assertThat(service.remove(job.getId()), is(false));
+
+        // The worker should have been freed up for the next job
+        releaseCleaner = new CountDownLatch(0);
+        DataSetJob next = service.submit(input);
+        awaitStatus(next.getId(), JobStatus.SUCCEEDED);
+    }
+
+    @Test
+    public void submitRejectsWhenQueueIsFull() throws InterruptedException {
+        // One job running, one waiting...
+        releaseCleaner = new CountDownLatch(1);
+        service.submit(input);
+        assertThat(cleanerStarted.await(WAIT_MILLIS, TimeUnit.MILLISECONDS),
+                   is(true));
+        DataSetJob waiting = service.submit(input);
+        assertThat(waiting.getStatus(), is(JobStatus.QUEUED));
+
+        // ...is all there's room for
+        try {
+            service.submit(input);
+            fail("Expected the job to be rejected");
+        }
+        catch (RejectedExecutionException e) {
+            // Expected
+        }
+        finally {
+            releaseCleaner.countDown();
+        }
+        awaitStatus(waiting.getId(), JobStatus.SUCCEEDED);
+    }
+
+    @Test
+    public void finishedJobsAreEvicted() throws InterruptedException {
+        DataSetJob job = service.submit(input);
+        awaitStatus(job.getId(), JobStatus.SUCCEEDED);
+
+        // Still well within the retention period
+        service.evictExpiredJobs();
+        assertThat(service.getJob(job.getId()), notNullValue());
+
+        service.setRetentionSeconds(0);
+        service.evictExpiredJobs();
+        assertThat(service.getJob(job.getId()), nullValue());
+        assertThat(service.getResult(job.getId()), nullValue());
+    }
+
+    @Test
+    public void excessFinishedJobsAreEvictedOldestFirst()
+        throws InterruptedException {
+        service.setMaxRetained(1);
+        DataSetJob first = service.submit(input);
+        awaitStatus(first.getId(), JobStatus.SUCCEEDED);
+        Thread.sleep(5);
+        DataSetJob second = service.submit(input);
+        awaitStatus(second.getId(), JobStatus.SUCCEEDED);
+
+        service.evictExpiredJobs();
+        assertThat(service.getJob(first.getId()), nullValue());
+        assertThat(service.getJob(second.getId()), notNullValue());
+    }
+
+    @Test
+    public void submitNullInput() {
+        thrown.expect(NullPointerException.class);
+        thrown.expectMessage("Input must not be null");
+
+        service.submit(null);
+    }
+
+    private DataSetJob awaitStatus(String id, JobStatus status)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        DataSetJob job = service.getJob(id);
+        while (job.getStatus() != status &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            job = service.getJob(id);
+        }
+        assertThat(job.getStatus(), is(status));
+        return job;
+    }
+}
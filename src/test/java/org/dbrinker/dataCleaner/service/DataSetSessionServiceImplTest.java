@@ -0,0 +1,263 @@
+package org.dbrinker.dataCleaner.service;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.dbrinker.dataCleaner.model.CategoryCleanResponse;
+import org.dbrinker.dataCleaner.model.CategoryCount;
+import org.dbrinker.dataCleaner.model.DataSetSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for the DataSetSessionServiceImpl class.  A real data cleaner is
+ * used underneath, so the tests cover how batches add up as well as the
+ * session bookkeeping.
+ *
+ * @author Don Brinker
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DataSetSessionServiceImplTest {
+    private static final String CATEGORY_1 = "Category 1";
+    private static final String CATEGORY_2 = "Category 2";
+    private static final String CATEGORY_3 = "Category 3";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Mock
+    private CategoryService mockCategoryService;
+
+    private DataCleanerImpl cleaner;
+    private DataSetSessionServiceImpl service;
+
+    private CategoryAndSubcat categoryAndSubcat1;
+    private CategoryAndSubcat categoryAndSubcat2;
+    private CategoryAndSubcat categoryAndSubcat3;
+    private CategoryAndSubcat invalid;
+
+    @Before
+    public void initialize() {
+        when(mockCategoryService.getSnapshot())
+            .thenReturn(new CategorySnapshot(7L,
+                                             Sets.newHashSet(CATEGORY_1,
+                                                             CATEGORY_2)));
+
+        cleaner = new DataCleanerImpl(mockCategoryService);
+        service = new DataSetSessionServiceImpl(cleaner);
+        service.setMaxOpen(2);
+        service.start();
+
+        categoryAndSubcat1 = new CategoryAndSubcat(CATEGORY_1, "Subcategory 1");
+        categoryAndSubcat2 = new CategoryAndSubcat(CATEGORY_2, "Subcategory 2");
+        categoryAndSubcat3 = new CategoryAndSubcat(CATEGORY_1, "Subcategory 3");
+        invalid = new CategoryAndSubcat(CATEGORY_3, "Subcategory 4");
+    }
+
+    @After
+    public void cleanUp() {
+        service.stop();
+        cleaner.shutdown();
+    }
+
+    @Test
+    public void openSession() {
+        DataSetSession session = service.open();
+        assertThat(session, notNullValue());
+        assertThat(session.getId(), notNullValue());
+        assertThat(session.getCategoryVersion(), is(7L));
+        assertThat(session.getNumBatches(), is(0));
+        assertThat(session.getCounts(),
+                   contains(new CategoryCount(CATEGORY_1, 0L),
+                            new CategoryCount(CATEGORY_2, 0L)));
+    }
+
+    @Test
+    public void appendDeduplicatesAcrossBatches() {
+        String id = service.open().getId();
+
+        CategoryCleanResponse first
+            = append(id, categoryAndSubcat1, categoryAndSubcat2,
+                     categoryAndSubcat1);
+        assertThat(first.getCategories(),
+                   contains(categoryAndSubcat1, categoryAndSubcat2));
+        assertThat(first.getCounts(),
+                   contains(new CategoryCount(CATEGORY_1, 1L),
+                            new CategoryCount(CATEGORY_2, 1L)));
+
+        // Only the genuinely new pair should come back, but the counts should
+        // cover both batches
+        CategoryCleanResponse second
+            = append(id, categoryAndSubcat2, invalid, categoryAndSubcat3,
+                     categoryAndSubcat1);
+        assertThat(second.getCategories(), contains(categoryAndSubcat3));
+        assertThat(second.getCounts(),
+                   contains(new CategoryCount(CATEGORY_1, 2L),
+                            new CategoryCount(CATEGORY_2, 1L)));
+
+        DataSetSession session = service.getSession(id);
+        assertThat(session.getNumBatches(), is(2));
+        assertThat(session.getNumReceived(), is(7L));
+        assertThat(session.getNumAccepted(), is(3L));
+        assertThat(session.getCounts(), is(second.getCounts()));
+    }
+
+    @Test
+    public void sessionsAreIndependent() {
+        String id1 = service.open().getId();
+        String id2 = service.open().getId();
+
+        append(id1, categoryAndSubcat1);
+        CategoryCleanResponse response = append(id2, categoryAndSubcat1);
+        assertThat(response.getCategories(), contains(categoryAndSubcat1));
+    }
+
+    @Test
+    public void closeReturnsFinalState() {
+        String id = service.open().getId();
+        append(id, categoryAndSubcat1, categoryAndSubcat2);
+
+        DataSetSession closed = service.close(id);
+        assertThat(closed.getNumAccepted(), is(2L));
+        assertThat(closed.getCounts(),
+                   contains(new CategoryCount(CATEGORY_1, 1L),
+                            new CategoryCount(CATEGORY_2, 1L)));
+
+        assertThat(service.getSession(id), nullValue());
+        assertThat(service.append(id, Lists.newArrayList(categoryAndSubcat1)
+                                           .iterator()),
+                   nullValue());
+        assertThat(service.close(id), nullValue());
+    }
+
+    @Test
+    public void unreadableBatchLeavesSessionAlone() {
+        String id = service.open().getId();
+
+        // The batch breaks part way through, as a malformed body would
+        Iterator<CategoryAndSubcat> broken
+            = Iterators.concat(Iterators.forArray(categoryAndSubcat1,
+                                                  categoryAndSubcat2),
+                               new AbstractIterator<CategoryAndSubcat>() {
+                                   @Override
+                                   protected CategoryAndSubcat computeNext() {
+                                       throw new IllegalArgumentException("Malformed");
+                                   }
+                               });
+        try {
+            service.append(id, broken);
+            fail("Expected the batch to fail");
+        }
+        catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Malformed"));
+        }
+
+        DataSetSession session = service.getSession(id);
+        assertThat(session.getNumBatches(), is(0));
+        assertThat(session.getNumReceived(), is(0L));
+
+        // So sending it again doesn't find duplicates of its own records
+        CategoryCleanResponse retried
+            = append(id, categoryAndSubcat1, categoryAndSubcat2);
+        assertThat(retried.getCategories(),
+                   contains(categoryAndSubcat1, categoryAndSubcat2));
+    }
+
+    @Test(timeout = 10000L)
+    public void slowBatchDoesntBlockSession() throws Exception {
+        String id = service.open().getId();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(1);
+
+        // A batch arriving slowly, as from a slow client
+        Iterator<CategoryAndSubcat> slow = new AbstractIterator<CategoryAndSubcat>() {
+            private boolean done;
+
+            @Override
+            protected CategoryAndSubcat computeNext() {
+                if (done) {
+                    return endOfData();
+                }
+                reading.countDown();
+                try {
+                    sent.await();
+                }
+                catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                done = true;
+                return categoryAndSubcat1;
+            }
+        };
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<CategoryCleanResponse> appended
+                = client.submit(() -> service.append(id, slow));
+            reading.await();
+
+            // The session can still be looked at while the batch arrives
+            assertThat(service.getSession(id).getNumBatches(), is(0));
+
+            sent.countDown();
+            assertThat(appended.get().getCategories(),
+                       contains(categoryAndSubcat1));
+        }
+        finally {
+            client.shutdownNow();
+        }
+    }
+
+    @Test
+    public void idleSessionsAreClosed() {
+        String id = service.open().getId();
+
+        service.closeIdleSessions();
+        assertThat(service.getSession(id), notNullValue());
+
+        service.setIdleTimeoutSeconds(-1);
+        service.closeIdleSessions();
+        assertThat(service.getSession(id), nullValue());
+    }
+
+    @Test
+    public void openRejectsTooManySessions() {
+        service.open();
+        service.open();
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Too many open sessions");
+
+        service.open();
+    }
+
+    private CategoryCleanResponse append(String id,
+                                         CategoryAndSubcat... batch) {
+        List<CategoryAndSubcat> pairs = Lists.newArrayList(batch);
+        CategoryCleanResponse response = service.append(id, pairs.iterator());
+        assertThat(response, notNullValue());
+        return response;
+    }
+}
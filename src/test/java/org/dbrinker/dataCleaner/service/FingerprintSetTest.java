@@ -0,0 +1,134 @@
+package org.dbrinker.dataCleaner.service;
+
+import org.dbrinker.dataCleaner.model.CategoryAndSubcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit test for the FingerprintSet class (and the FingerprintFilter which
+ * sits on top of it)
+ *
+ * @author Don Brinker
+ */
+public class FingerprintSetTest {
+    // Small enough that a few thousand fingerprints will spill to disk
+    private static final long TINY_BUDGET = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+    private MemoryBudget budget;
+    private FingerprintSet fingerprints;
+
+    @Before
+    public void initialize() {
+        budget = new MemoryBudget(TINY_BUDGET);
+        fingerprints = new FingerprintSet(budget, spillDirectory.getRoot());
+    }
+
+    @After
+    public void cleanUp() {
+        fingerprints.close();
+    }
+
+    @Test
+    public void addRecognizesDuplicates() {
+        assertThat(fingerprints.add(1L, 2L), is(true));
+        assertThat(fingerprints.add(2L, 1L), is(true));
+        assertThat(fingerprints.add(1L, 2L), is(false));
+        assertThat(fingerprints.add(2L, 1L), is(false));
+        assertThat(fingerprints.size(), is(2L));
+        assertThat(fingerprints.isSpilled(), is(false));
+    }
+
+    @Test
+    public void addHandlesZeroFingerprint() {
+        assertThat(fingerprints.add(0L, 0L), is(true));
+        assertThat(fingerprints.add(0L, 0L), is(false));
+        assertThat(fingerprints.size(), is(1L));
+    }
+
+    @Test
+    public void addSpillsPastBudget() {
+        int numFingerprints = 100000;
+        for (long i = 0; i < numFingerprints; i++) {
+            assertThat(fingerprints.add(i, mix(i)), is(true));
+        }
+        assertThat(fingerprints.isSpilled(), is(true));
+        assertThat(fingerprints.size(), is((long) numFingerprints));
+
+        // The table left behind in memory has been given back
+        assertThat(budget.getReserved(), is(0L));
+
+        // Everything has to have survived being moved to disk
+        for (long i = 0; i < numFingerprints; i++) {
+            assertThat(fingerprints.add(i, mix(i)), is(false));
+        }
+        assertThat(fingerprints.size(), is((long) numFingerprints));
+
+        // And nothing should have been left lying around on disk
+        assertThat(spillDirectory.getRoot().list(), emptyArray());
+    }
+
+    @Test
+    public void setsShareBudget() {
+        // The first set's table takes up the whole budget, so another has to
+        // go straight to disk - until the first is closed
+        fingerprints.add(1L, 2L);
+        assertThat(budget.getReserved(), is(TINY_BUDGET));
+        try (FingerprintSet other = new FingerprintSet(budget,
+                                                       spillDirectory.getRoot())) {
+            assertThat(other.add(1L, 2L), is(true));
+            assertThat(other.isSpilled(), is(true));
+        }
+
+        fingerprints.close();
+        assertThat(budget.getReserved(), is(0L));
+        try (FingerprintSet other = new FingerprintSet(budget,
+                                                       spillDirectory.getRoot())) {
+            assertThat(other.add(1L, 2L), is(true));
+            assertThat(other.isSpilled(), is(false));
+        }
+        assertThat(budget.getReserved(), is(0L));
+    }
+
+    @Test
+    public void closingTwiceIsHarmless() {
+        fingerprints.add(1L, 2L);
+        fingerprints.close();
+        fingerprints.close();
+        assertThat(budget.getReserved(), is(0L));
+    }
+
+    @Test
+    public void filterKeepsFieldsDistinct() {
+        try (FingerprintFilter filter
+                 = new FingerprintFilter(budget, spillDirectory.getRoot())) {
+            assertThat(filter.firstOccurrence(new CategoryAndSubcat("AB", "C")),
+                       is(true));
+            assertThat(filter.firstOccurrence(new CategoryAndSubcat("A", "BC")),
+                       is(true));
+            assertThat(filter.firstOccurrence(new CategoryAndSubcat("A", null)),
+                       is(true));
+            assertThat(filter.firstOccurrence(new CategoryAndSubcat("A", "")),
+                       is(true));
+            assertThat(filter.firstOccurrence(new CategoryAndSubcat("AB", "C")),
+                       is(false));
+            assertThat(filter.firstOccurrence(new CategoryAndSubcat("A", null)),
+                       is(false));
+        }
+    }
+
+    // Real fingerprints are well mixed, so spread the test ones out the same
+    // way (the low bits are what pick a slot)
+    private static long mix(long value) {
+        return value * 0x9E3779B97F4A7C15L;
+    }
+}